@@ -0,0 +1,82 @@
+package com.itr.exo.smartparkingadmin;
+
+import android.view.Choreographer;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shows a {@link ConsoleBuffer} in a ListView, only the visible lines are
+ * rendered.
+ *
+ * Lines can be added from any thread, the list is refreshed at most once
+ * per display frame however many lines arrived in between.
+ */
+public class ConsoleAdapter extends BaseAdapter implements Choreographer.FrameCallback {
+
+    private final ConsoleBuffer buffer;
+    private final LayoutInflater inflater;
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final StringBuilder line = new StringBuilder();
+    private int count;
+
+    public ConsoleAdapter(LayoutInflater inflater, ConsoleBuffer buffer) {
+        this.inflater = inflater;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Schedules a refresh for the next frame, unless one is pending already
+     *
+     * @param ui
+     *            Used to reach the UI thread, where the Choreographer lives
+     */
+    public void invalidate(View ui) {
+        if (pending.compareAndSet(false, true)) {
+            ui.post(new Runnable() {
+                @Override
+                public void run() {
+                    Choreographer.getInstance().postFrameCallback(ConsoleAdapter.this);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        pending.set(false);
+        count = buffer.size();
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return null;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView view = (TextView) convertView;
+        if (view == null)
+            view = (TextView) inflater.inflate(R.layout.console_line, parent, false);
+
+        line.setLength(0);
+        buffer.render(position, line);
+        view.setText(line);
+        return view;
+    }
+}
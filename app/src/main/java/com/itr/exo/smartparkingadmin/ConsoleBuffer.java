@@ -0,0 +1,114 @@
+package com.itr.exo.smartparkingadmin;
+
+import com.nxp.ByteUtils;
+
+/**
+ * Bounded log of the console lines.
+ *
+ * Every line is a label, a time stamp and optionally the raw bytes of a
+ * frame, kept in preallocated arrays. Text is only produced when a line is
+ * rendered, for the few lines on screen. Once full, every new line
+ * replaces the oldest one, so a long session does not grow the memory.
+ */
+public class ConsoleBuffer {
+
+    /**
+     * Bytes kept per line, one SRAM frame
+     */
+    public static final int MAX_PAYLOAD = 64;
+
+    private final int capacity;
+    private final String[] labels;
+    private final long[] times;
+    private final int[] lengths;
+    private final byte[] payloads;
+
+    private int head;
+    private int size;
+    private long total;
+
+    public ConsoleBuffer(int capacity) {
+        this.capacity = capacity;
+        this.labels = new String[capacity];
+        this.times = new long[capacity];
+        this.lengths = new int[capacity];
+        this.payloads = new byte[capacity * MAX_PAYLOAD];
+    }
+
+    public void add(String label) {
+        add(label, null, 0, 0);
+    }
+
+    /**
+     * Adds a line with the bytes of a frame, only the first MAX_PAYLOAD
+     * bytes are kept
+     */
+    public synchronized void add(String label, byte[] data, int off, int len) {
+        int slot = (head + size) % capacity;
+        if (size == capacity)
+            head = (head + 1) % capacity;
+        else
+            size++;
+
+        labels[slot] = label;
+        times[slot] = System.currentTimeMillis();
+        lengths[slot] = data != null ? len : -1;
+        if (data != null)
+            System.arraycopy(data, off, payloads, slot * MAX_PAYLOAD, Math.min(len, MAX_PAYLOAD));
+        total++;
+    }
+
+    /**
+     * Returns the number of lines held, at most the capacity
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of lines ever added
+     */
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the number of lines replaced because the buffer was full
+     */
+    public synchronized long getDropped() {
+        return total - size;
+    }
+
+    public synchronized long getTime(int position) {
+        return times[slot(position)];
+    }
+
+    /**
+     * Appends the text of a line, the label followed by the bytes in hex
+     *
+     * @param position
+     *            0 for the oldest line held
+     */
+    public synchronized void render(int position, StringBuilder out) {
+        int slot = slot(position);
+
+        if (labels[slot] != null)
+            out.append(labels[slot]);
+
+        int len = lengths[slot];
+        if (len < 0)
+            return;
+
+        if (labels[slot] != null)
+            out.append(' ');
+        ByteUtils.appendHex(out, payloads, slot * MAX_PAYLOAD, Math.min(len, MAX_PAYLOAD));
+        if (len > MAX_PAYLOAD)
+            out.append("... (").append(len).append(" B)");
+    }
+
+    private int slot(int position) {
+        if (position < 0 || position >= size)
+            throw new IndexOutOfBoundsException("Line " + position + " of " + size);
+        return (head + position) % capacity;
+    }
+}
@@ -1,36 +0,0 @@
-package com.itr.exo.smartparkingadmin;
-
-import com.nxp.ByteUtils;
-
-/**
- * Created by gonza on 30/11/17.
- */
-
-public enum ExoCommands {
-
-    CMD_RESET("00000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"),
-    CMD_PS_MODE_WORKING("01FF0000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"),
-    CMD_PS_MODE_STORAGE("02FE0000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"),
-    CMD_PS_TEST_ALL("04FC0000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"),
-    CMD_SET_CFG_RADIO("B54B0000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"),
-    CMD_FILE_RECEIVE("F10F0000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"),
-    CMD_64BYTES_RECEIVE("F20E0000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"),
-    CMD_SEND_OK("31000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"),
-    CMD_DEVICE_INFORMATION("15EB0000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"),
-    CMD_SEND_ERROR("32000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000");
-
-    private final String command;
-
-    private ExoCommands(String c){
-        command = c;
-    }
-
-    public byte[] getBytes(){
-        return ByteUtils.hexToBytes(this.command);
-    }
-
-    public String toString() {
-        return this.command;
-    }
-
-}
@@ -1,15 +1,14 @@
 package com.itr.exo.smartparkingadmin;
 
-import android.app.PendingIntent;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.nfc.FormatException;
 import android.nfc.NfcAdapter;
 import android.nfc.Tag;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.preference.PreferenceManager;
-import android.support.v4.widget.NestedScrollView;
 import android.util.Log;
 import android.view.View;
 import android.support.design.widget.NavigationView;
@@ -19,19 +18,36 @@ import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.nxp.listeners.ReadSRAMListener;
+import com.nxp.exceptions.CommandNotSupportedException;
 import com.nxp.listeners.WriteSRAMListener;
 import com.nxp.reader.I2C_Enabled_Commands;
-import com.nxp.reader.Ntag_I2C_Commands;
+import com.nxp.reader.Ntag_Capability_Cache;
+import com.nxp.reader.Ntag_Command_Stats;
 import com.nxp.ByteUtils;
+import com.nxp.transport.MifareUltralightTransport;
+import com.nxp.transport.NfcATransport;
+import com.nxp.transport.RecordingTransport;
+import com.nxp.transport.TagTransport;
+import com.nxp.transport.TransceiveLog;
+
+import ar.com.exo.parkingnfc.ExoCommands;
+import ar.com.exo.parkingnfc.TagExecutor;
+import ar.com.exo.parkingnfc.transfer.FileReceiver;
+import ar.com.exo.parkingnfc.transfer.FileTransfer;
+import ar.com.exo.parkingnfc.transfer.TransferListener;
+import ar.com.exo.parkingnfc.transfer.TransferSource;
+import ar.com.exo.parkingnfc.transfer.WindowedTransfer;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
 import java.util.concurrent.TimeoutException;
 
 public class MainActivity extends AppCompatActivity
@@ -39,14 +55,38 @@ public class MainActivity extends AppCompatActivity
 
     NfcAdapter nfcAdapter;
 
-    private Ntag_I2C_Commands channel;
+    private TagExecutor radio;
+
+    // only touched by operations on the radio thread
+    private final byte[] txFrame = new byte[ExoCommands.FRAME_SIZE];
+    private volatile TransceiveLog.Writer capture;
+    private volatile byte[] tagId;
+    private PreferenceCheckpointStore checkpoints;
+
+    private volatile int tapCount;
+    private volatile long tapTotalNanos;
+    private volatile long tapMaxNanos;
+
+    /**
+     * Tags discovered in reader mode go straight to the radio thread, this
+     * runs on a binder thread of the NFC service
+     */
+    private final NfcAdapter.ReaderCallback readerCallback = new NfcAdapter.ReaderCallback() {
+        @Override
+        public void onTagDiscovered(Tag tag) {
+            long discovered = System.nanoTime();
+            addLineToConsole("Tag descubierto " + tag.toString());
+            connect(tag, discovered);
+        }
+    };
 
-    PendingIntent pendingIntent;
+    private static final int CONSOLE_LINES = 500;
 
-    private TextView myText = null;
+    private final ConsoleBuffer console = new ConsoleBuffer(CONSOLE_LINES);
+    private ConsoleAdapter consoleAdapter = null;
+    private ListView consoleList = null;
     private TextView estadoNFCText = null;
 
-    private NestedScrollView consoleScroll = null;
     SharedPreferences prefs;
     private static int DELAY_TIME;
     private static int READ_ID_DELAY_TIME;
@@ -66,21 +106,35 @@ public class MainActivity extends AppCompatActivity
 //        NavigationView navigationView = findViewById(R.id.nav_view);
 //        navigationView.setNavigationItemSelectedListener(this);
 
-        myText = findViewById(R.id.consoleTextView);
         estadoNFCText = findViewById(R.id.estadoNFCText);
 
-        consoleScroll = findViewById(R.id.consoleScroll);
+        consoleList = findViewById(R.id.consoleList);
+        consoleAdapter = new ConsoleAdapter(getLayoutInflater(), console);
+        consoleList.setAdapter(consoleAdapter);
 
         addLineToConsole("Iniciando aplicacion");
 
-        pendingIntent = PendingIntent.getActivity(this, 0, new Intent(
-                getApplicationContext(), getClass())
-                .addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP), 0);
+        radio = new TagExecutor(new TagExecutor.ErrorListener() {
+            @Override
+            public void onOperationError(Exception e) {
+                addLineToConsole(e.getMessage());
+            }
+        });
+
         setupNfcAdapter();
         prefs = PreferenceManager.getDefaultSharedPreferences(this);
         DELAY_TIME = Integer.parseInt(prefs.getString("write_timeout","100"));
         READ_ID_DELAY_TIME = Integer.parseInt(prefs.getString("id_read_timeout","2000"));
+        restoreReader();
+        checkpoints = new PreferenceCheckpointStore(this);
+
+    }
 
+    @Override
+    protected void onDestroy() {
+        radio.shutdown();
+        closeCapture();
+        super.onDestroy();
     }
 
     @Override
@@ -110,6 +164,8 @@ public class MainActivity extends AppCompatActivity
         //noinspection SimplifiableIfStatement
         if (id == R.id.action_settings) {
             showSettingsFragment();
+        } else if (id == R.id.action_stats) {
+            showStats();
         }
 
         return super.onOptionsItemSelected(item);
@@ -140,27 +196,30 @@ public class MainActivity extends AppCompatActivity
         return true;
     }
 
-    @Override
-    public void onNewIntent(Intent intent) {
-        // onResume gets called after this to handle the intent
-        setIntent(intent);
-    }
-
     @Override
     public void onResume() {
         super.onResume();
 
-        if (NfcAdapter.ACTION_TAG_DISCOVERED.equals(getIntent().getAction())) {
-            processIntent(getIntent());
-        }
         DELAY_TIME = Integer.parseInt(prefs.getString("write_timeout","100"));
         READ_ID_DELAY_TIME = Integer.parseInt(prefs.getString("id_read_timeout","2000"));
 
         if (nfcAdapter != null) {
-            nfcAdapter.enableForegroundDispatch(this, pendingIntent, null, null);
+            // the NDEF check of the platform would read the tag before we get it
+            Bundle options = new Bundle();
+            options.putInt(NfcAdapter.EXTRA_READER_PRESENCE_CHECK_DELAY,
+                    Integer.parseInt(prefs.getString("presence_check_delay", "250")));
+            nfcAdapter.enableReaderMode(this, readerCallback,
+                    NfcAdapter.FLAG_READER_NFC_A | NfcAdapter.FLAG_READER_SKIP_NDEF_CHECK, options);
         }
     }
 
+    @Override
+    public void onPause() {
+        if (nfcAdapter != null)
+            nfcAdapter.disableReaderMode(this);
+        super.onPause();
+    }
+
     private void showSettingsFragment() {
         Intent goToNextActivity = new Intent(getApplicationContext(), SettingsActivity.class);
         startActivity(goToNextActivity);
@@ -175,73 +234,72 @@ public class MainActivity extends AppCompatActivity
         PermissionUtils.checkNfcPermissions(this, nfcAdapter);
     }
 
-    void processIntent(Intent intent) {
-        Tag tag = intent.getParcelableExtra(NfcAdapter.EXTRA_TAG);
-        addLineToConsole("Tag descubierto "+tag.toString());
-        connect(tag);
-    }
-
     public void addLineToConsole(String line){
-        new Thread(new Runnable() {
-            @Override
-            public void run()
-            {
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run()
-                    {
-                        myText.append("\n"+line);
-                        Log.d("action",line != null ? line : "");
-                        consoleScroll.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                consoleScroll.fullScroll(View.FOCUS_DOWN);
-                            }
-                        });
-                    }
-                });
-            }
-        }).start();
+        Log.d("action",line != null ? line : "");
+        console.add(line);
+        consoleAdapter.invalidate(consoleList);
+    }
 
+    public void addBytesToConsole(String label, byte[] data){
+        // the hex text is only built when logcat takes debug messages of "action"
+        if (Log.isLoggable("action", Log.DEBUG))
+            Log.d("action", label + " " + ByteUtils.bytesToHex(data));
+        console.add(label, data, 0, data.length);
+        consoleAdapter.invalidate(consoleList);
     }
 
     public void send64k(View v){
         addLineToConsole("Enviando 64B");
-        sendFile();
+        radio.submit(new TagExecutor.Operation() {
+            @Override
+            public void run(I2C_Enabled_Commands channel) {
+                sendFile(channel);
+            }
+        });
     }
 
     public void send128k(View v){
         addLineToConsole("Enviando 128B");
-        fastWrite();
+        radio.submit(new TagExecutor.Operation() {
+            @Override
+            public void run(I2C_Enabled_Commands channel) {
+                fastWrite(channel);
+            }
+        });
     }
 
     public void read64Block(View v){
-        readBlock(null);
+        radio.submit(new TagExecutor.Operation() {
+            @Override
+            public void run(I2C_Enabled_Commands channel) {
+                readBlock(channel, null);
+            }
+        });
     }
 
     public void CMD_RESET(View v){
         addLineToConsole("CMD_RESET");
-        sendCommand(ExoCommands.CMD_RESET.getBytes(),null);
+        sendCommand(ExoCommands.CMD_RESET, null);
     }
 
     public void CMD_PS_MODE_WORKING(View v){
         addLineToConsole("CMD_PS_MODE_WORKING");
-        sendCommand(ExoCommands.CMD_PS_MODE_WORKING.getBytes(),null);
+        sendCommand(ExoCommands.CMD_PS_MODE_WORKING, null);
     }
 
     public void CMD_PS_MODE_STORAGE(View v){
         addLineToConsole("CMD_PS_MODE_STORAGE");
-        sendCommand(ExoCommands.CMD_PS_MODE_STORAGE.getBytes(),null);
+        sendCommand(ExoCommands.CMD_PS_MODE_STORAGE, null);
     }
 
     public void CMD_PS_TEST_ALL(View v){
         addLineToConsole("CMD_PS_TEST_ALL");
-        sendCommand(ExoCommands.CMD_PS_TEST_ALL.getBytes(),null);
+        sendCommand(ExoCommands.CMD_PS_TEST_ALL, null);
     }
 
     public void CMD_SET_CFG_RADIO(View v){
         addLineToConsole("CMD_SET_CFG_RADIO");
-        sendCommand(ExoCommands.CMD_SET_CFG_RADIO.getBytes(),null);
+        sendCommand(ExoCommands.CMD_SET_CFG_RADIO, null);
     }
 
 //    final byte[] command = new byte[64];
@@ -250,197 +308,268 @@ public class MainActivity extends AppCompatActivity
 
     public void CMD_DEVICE_INFORMATION(View v){
         addLineToConsole("CMD_DEVICE_INFORMATION");
-        sendCommand(ExoCommands.CMD_DEVICE_INFORMATION.getBytes(), new WriteSRAMListener() {
-            @Override
-            public void onWriteSRAM() {
-                readBlock(READ_ID_DELAY_TIME);
-            }
-        });
+        sendCommand(ExoCommands.CMD_DEVICE_INFORMATION, READ_ID_DELAY_TIME);
     }
 
     public void CMD_FILE_RECEIVE(View v){
-        readFile();
+        radio.submit(new TagExecutor.Operation() {
+            @Override
+            public void run(I2C_Enabled_Commands channel) {
+                readFile(channel);
+            }
+        });
     }
 
-    public void sendCommand(byte[] cmd, WriteSRAMListener listener){
+    /**
+     * Writes a command and reads the answer in the same radio operation, so
+     * no other operation gets in between
+     */
+    public void sendCommand(ExoCommands cmd, Integer responseTimeout){
         if (isConnected()) {
-            new Thread(new Runnable() {
+            radio.submit(new TagExecutor.Operation() {
                 @Override
-                public void run() {
+                public void run(I2C_Enabled_Commands channel) {
                     try {
+                        cmd.copyInto(txFrame);
                         channel.waitforI2Cread(100);
-                        channel.writeSRAMBlock(cmd, listener != null ? listener : new WriteSRAMListener() {
+                        channel.writeSRAMBlock(txFrame, new WriteSRAMListener() {
                             @Override
                             public void onWriteSRAM() {
-                                readBlock(null);
+                                readBlock(channel, responseTimeout);
                             }
                         });
-                    } catch (TimeoutException | IOException | FormatException e) {
+                    } catch (TimeoutException | IOException | FormatException | CommandNotSupportedException e) {
                         addLineToConsole(e.getMessage());
                     }
                 }
-        }).start();
+            });
         }else
             addLineToConsole("Tag disconnected.");
     }
 
 
-    public void connect(Tag tag) {
+    /**
+     * Opens the session on the radio thread, leaving it connected
+     *
+     * @param discovered System.nanoTime() when the tag was discovered, the
+     *                   time until the session is ready is logged
+     */
+    public void connect(final Tag tag, final long discovered) {
+        radio.open(new TagExecutor.SessionFactory() {
+            @Override
+            public I2C_Enabled_Commands open() {
+                try {
+                    closeCapture();
+                    TagTransport nfca = NfcATransport.get(tag);
+                    TagTransport mfu = MifareUltralightTransport.get(tag);
+                    if (prefs.getBoolean("capture_transceive", false)) {
+                        File dir = getExternalFilesDir("captures");
+                        if (dir == null)
+                            dir = new File(getFilesDir(), "captures");
+                        File file = new File(dir, "tag-" + System.currentTimeMillis() + ".ntlg");
+                        capture = TransceiveLog.create(file);
+                        nfca = new RecordingTransport(nfca, capture, 0);
+                        if (mfu != null)
+                            mfu = new RecordingTransport(mfu, capture, 1);
+                        addLineToConsole("Capturando en " + file.getName());
+                    }
+
+                    tagId = tag.getId();
+                    long start = System.nanoTime();
+                    I2C_Enabled_Commands channel = I2C_Enabled_Commands.open(nfca, mfu, tag.getId(),
+                            Ntag_Capability_Cache.getGlobal());
+                    long ready = System.nanoTime();
+                    saveReader();
+                    recordTap(ready - discovered);
+                    addLineToConsole(String.format(Locale.US,
+                            "Conectado a tag en %.1f ms (espera %.1f ms, apertura %.1f ms)",
+                            (ready - discovered) / 1e6, (start - discovered) / 1e6, (ready - start) / 1e6));
+                    setEstado("CONECTADO");
+                    return channel;
+                } catch (Exception e) {
+                    setEstado("ERROR");
+                    addLineToConsole(e.getMessage());
+                    return null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds the time from discovery until the session takes commands,
+     * only called on the radio thread
+     */
+    private void recordTap(long nanos) {
+        tapCount++;
+        tapTotalNanos += nanos;
+        if (nanos > tapMaxNanos)
+            tapMaxNanos = nanos;
+    }
+
+    /**
+     * Restores the tag implementation probed on this phone by an earlier run,
+     * so the first tap does not probe again
+     */
+    private void restoreReader() {
+        String device = Ntag_Capability_Cache.getDeviceKey();
+        String reader = prefs.getString("ntag_reader/" + device, null);
+        if (reader == null)
+            return;
+        try {
+            Ntag_Capability_Cache.getGlobal().putReader(device, Ntag_Capability_Cache.Reader.valueOf(reader));
+        } catch (IllegalArgumentException e) {
+            Log.w("action", "unknown reader " + reader);
+        }
+    }
+
+    /**
+     * Saves the tag implementation of this phone, or removes it once the
+     * cache dropped it
+     */
+    private void saveReader() {
+        String device = Ntag_Capability_Cache.getDeviceKey();
+        Ntag_Capability_Cache.Reader reader = Ntag_Capability_Cache.getGlobal().getReader(device);
+        String key = "ntag_reader/" + device;
+        String saved = prefs.getString(key, null);
+        if (reader == null && saved != null)
+            prefs.edit().remove(key).apply();
+        else if (reader != null && !reader.name().equals(saved))
+            prefs.edit().putString(key, reader.name()).apply();
+    }
+
+    /**
+     * Prints the latency of every tag command sent so far and exports it as
+     * CSV, named after the phone so the files of several phones can be
+     * compared
+     */
+    private void showStats() {
+        Ntag_Command_Stats.Snapshot stats = Ntag_Command_Stats.getGlobal().snapshot();
+        for (String line : stats.toLines())
+            addLineToConsole(line);
+        int taps = tapCount;
+        if (taps > 0)
+            addLineToConsole(String.format(Locale.US, "Taps n=%d medio=%.1fms max=%.1fms",
+                    taps, tapTotalNanos / 1e6 / taps, tapMaxNanos / 1e6));
+
+        File dir = getExternalFilesDir("stats");
+        if (dir == null)
+            dir = new File(getFilesDir(), "stats");
+        File file = new File(dir, (Build.MANUFACTURER + "-" + Build.MODEL).replaceAll("[^A-Za-z0-9_-]", "_")
+                + "-" + System.currentTimeMillis() + ".csv");
         try {
-            channel = new Ntag_I2C_Commands(tag);
-            channel.connect();
-            addLineToConsole("Conectado a tag");
-            estadoNFCText.setText("CONECTADO");
-        } catch (Exception e) {
-            estadoNFCText.setText("ERROR");
+            if (!dir.isDirectory() && !dir.mkdirs())
+                throw new IOException("Can not create " + dir);
+            Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                out.write("# " + Build.MANUFACTURER + " " + Build.MODEL + " Android " + Build.VERSION.RELEASE
+                        + " (SDK " + Build.VERSION.SDK_INT + ")\n");
+                stats.writeCSV(out);
+            } finally {
+                out.close();
+            }
+            addLineToConsole("Estadisticas en " + file.getName());
+        } catch (IOException e) {
             addLineToConsole(e.getMessage());
         }
     }
 
+    /**
+     * Closes the capture of the last tag, the records after it are dropped
+     */
+    private synchronized void closeCapture() {
+        if (capture == null)
+            return;
+        try {
+            capture.close();
+        } catch (IOException e) {
+            Log.w("action", "capture not closed", e);
+        }
+        capture = null;
+    }
+
     public boolean isConnected() {
+        I2C_Enabled_Commands channel = radio.getSession();
         boolean connected = channel != null && channel.isConnected();
 
-        new Thread(new Runnable() {
+        setEstado(connected ? "CONECTADO":"DESCONECTADO");
+        return connected;
+    }
+
+    private void setEstado(String estado) {
+        runOnUiThread(new Runnable() {
             @Override
             public void run()
             {
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run()
-                    {
-                        estadoNFCText.setText(connected ? "CONECTADO":"DESCONECTADO");
-                    }
-                });
+                estadoNFCText.setText(estado);
             }
-        }).start();
-        return connected;
+        });
     }
 
     private I2C_Enabled_Commands.R_W_Methods method;
 
-    public void fastWrite(){
+    private void fastWrite(I2C_Enabled_Commands channel){
         method = I2C_Enabled_Commands.R_W_Methods.Fast_Mode;
-        if (isConnected()) {
-            try {
-                final byte[] command = new byte[64];
-                command[0] = (byte) 0xf0;
-
-                // package number
-                command[1] = (byte) 0x01;
-                command[2] = (byte) 0x00;
-                command[3] = (byte) 0x00;
-                command[4] = (byte) 0x00;
-
-                // Amount of transfer
-                command[5] = (byte) 0x02;
-                command[6] = (byte) 0x00;
-                command[7] = (byte) 0x00;
-                command[8] = (byte) 0x00;
-
-                List<byte[]> blocks = new ArrayList<>();
-
-                blocks.add(ByteUtils.hexToBytes("686F6C61000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"));
-                blocks.add(ByteUtils.hexToBytes("7175652074616C000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000"));
-                byte[] aa = ByteUtils.hexToBytes("686F6C610000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000007175652074616C000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000");
-
-                appendFileCrc(aa,command);
-
-                byte packageChecksum = 0x00;
-                for (int i = 0; i < 11; i++) {
-                    packageChecksum += command[i];
-                }
-
-                packageChecksum = (byte) (~packageChecksum + 1);
-
-                command[11] = packageChecksum;
-
-                addLineToConsole("SENDING CMD " + ByteUtils.bytesToHex(command));
-
-                channel.waitforI2Cread(DELAY_TIME);
+        byte[] file = ByteUtils.hexToBytes("686F6C610000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000007175652074616C000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000");
+        sendFile(channel, TransferSource.of(file));
+    }
 
-                channel.writeSRAMBlock(command, null);
+    private void sendFile(I2C_Enabled_Commands channel) {
+        sendFile(channel, TransferSource.of(createMockFile()));
+    }
 
-                for (int i = 0; i < blocks.size(); i++) {
-                    addLineToConsole("escribiendo paquete " + i);
-                    channel.waitforI2Cread(DELAY_TIME);
-                    addLineToConsole("SENDING " + ByteUtils.bytesToHex(blocks.get(i)));
-                    channel.writeSRAMBlock(blocks.get(i), null);
-                }
-                readBlock(null);
+    private void sendFile(I2C_Enabled_Commands channel, TransferSource source) {
+        int window = Integer.parseInt(prefs.getString("transfer_window", "0"));
+        if (window > 0 && isConnected()) {
+            try {
+                WindowedTransfer transfer = new WindowedTransfer(channel);
+                transfer.setWindow(window);
+                transfer.setFrameTimeout(DELAY_TIME);
+                transfer.setCompression(prefs.getBoolean("transfer_compression", false));
+                transfer.send(source, new TransferListener() {
+                    @Override
+                    public void onTransferProgress(long bytesSent, long bytesTotal) {
+                        addLineToConsole("escribiendo " + bytesSent + "/" + bytesTotal);
+                    }
+                });
+                addLineToConsole(String.format(Locale.US, "%d B en %d tramas, ventana %d, %d repetidos, %.0f B/s",
+                        transfer.getBytesSent(), transfer.getFramesSent(), transfer.getAcceptedWindow(),
+                        transfer.getPackagesResent(), transfer.getBytesPerSecond()));
+                if (transfer.isCompressed())
+                    addLineToConsole("Comprimido desde " + source.length() + " B");
+                return;
+            } catch (CommandNotSupportedException e) {
+                addLineToConsole(e.getMessage());
             } catch (Exception e) {
                 addLineToConsole(e.getMessage());
+                return;
             }
         }
-
-    }
-
-    public void sendFile() {
         if (isConnected()) {
-            final byte[] command = new byte[64];
-            command[0] = (byte) 0xf0;
-
-            // package number
-            command[1] = (byte) 0x01;
-            command[2] = (byte) 0x00;
-            command[3] = (byte) 0x00;
-            command[4] = (byte) 0x00;
-
-            // Amount of transfer
-            command[5] = (byte) 0x01;
-            command[6] = (byte) 0x00;
-            command[7] = (byte) 0x00;
-            command[8] = (byte) 0x00;
-
-            // file checksum
-            command[9] = (byte) 0x04;
-            command[10] = (byte) 0x00;
-
-            appendFileCrc(createMockFile(),command);
-
-            byte packageChecksum = 0x00;
-
-            for (int i=0; i < 11; i++) {
-                packageChecksum += command[i];
-            }
-
-            packageChecksum = (byte) (~packageChecksum +1);
-
-            command[11] = packageChecksum;
-
             try {
-                addLineToConsole("SENDING CMD " + ByteUtils.bytesToHex(command));
-
-                channel.waitforI2Cwrite(DELAY_TIME);
-                channel.writeSRAMBlock(command, null);
-
-                channel.waitforI2Cwrite(DELAY_TIME);
-                addLineToConsole("SENDING " + ByteUtils.bytesToHex(createMockFile()));
-                channel.writeSRAMBlock(createMockFile(), new WriteSRAMListener() {
+                FileTransfer transfer = new FileTransfer(channel);
+                transfer.setFrameTimeout(DELAY_TIME);
+                transfer.setCrc32(prefs.getBoolean("transfer_crc32", false));
+                transfer.setCompression(prefs.getBoolean("transfer_compression", false));
+                transfer.setCheckpoints(checkpoints, tagId);
+                transfer.send(source, new TransferListener() {
                     @Override
-                    public void onWriteSRAM(){
-                        readBlock(null);
+                    public void onTransferProgress(long bytesSent, long bytesTotal) {
+                        addLineToConsole("escribiendo " + bytesSent + "/" + bytesTotal);
                     }
                 });
-
-
-            } catch (TimeoutException | IOException | FormatException e) {
+                if (transfer.getPackagesSkipped() > 0)
+                    addLineToConsole("Continuado tras el paquete " + transfer.getPackagesSkipped());
+                addLineToConsole(String.format(Locale.US, "%d B en %d tramas, %.0f B/s",
+                        transfer.getBytesSent(), transfer.getFramesSent(), transfer.getBytesPerSecond()));
+                if (transfer.isCompressed())
+                    addLineToConsole("Comprimido desde " + source.length() + " B");
+                readBlock(channel, null);
+            } catch (Exception e) {
                 addLineToConsole(e.getMessage());
             }
         }
     }
 
-    public void appendFileCrc(byte[] file, byte[] command) {
-        int crc = 0x0000;
-
-        for(byte b : file)
-        {
-            crc +=b;
-        }
-
-        command[9] = (byte) ((crc & 0x000000ff));
-        command[10] = (byte) ((crc & 0x0000ff00) >>> 8);
-    }
-
     public byte[] createMockFile() {
         final byte[] command = new byte[64];
         command[0] = (byte) 0x01;
@@ -451,24 +580,25 @@ public class MainActivity extends AppCompatActivity
         return command;
     }
 
-    public boolean readBlock(Integer timeout) {
+    private boolean readBlock(I2C_Enabled_Commands channel, Integer timeout) {
         addLineToConsole("READING BLOCK");
         if (isConnected()) {
             try {
-                channel.writeSRAMBlock(ExoCommands.CMD_64BYTES_RECEIVE.getBytes(), new WriteSRAMListener() {
+                ExoCommands.CMD_64BYTES_RECEIVE.copyInto(txFrame);
+                channel.writeSRAMBlock(txFrame, new WriteSRAMListener() {
                     @Override
                     public void onWriteSRAM() {
                         try{
-                            channel.waitforI2Cread(timeout != null ? timeout:DELAY_TIME);
+                            channel.waitforI2Cwrite(timeout != null ? timeout:DELAY_TIME);
                             byte[] dataRead = channel.readSRAMBlock(null);
-                            addLineToConsole("RECEIVED "+ ByteUtils.bytesToHex(dataRead));
+                            addBytesToConsole("RECEIVED", dataRead);
                         } catch(Exception e){
                             addLineToConsole(e.getMessage());
                         }
 
                     }
                 });
-            } catch (IOException | FormatException e) {
+            } catch (IOException | FormatException | CommandNotSupportedException e) {
                 addLineToConsole(e.getMessage());
             }
         } else {
@@ -477,39 +607,36 @@ public class MainActivity extends AppCompatActivity
         return true;
     }
 
-    public void readFile() {
+    /**
+     * Receives the file of the sensor package by package, straight into a
+     * file of the app
+     */
+    private void readFile(I2C_Enabled_Commands channel) {
         addLineToConsole("READING FILE");
         if (isConnected()) {
-            try {
-                channel.waitforI2Cread(DELAY_TIME);
-                channel.writeSRAMBlock(ExoCommands.CMD_FILE_RECEIVE.getBytes(), new WriteSRAMListener() {
+            File dir = getExternalFilesDir("received");
+            if (dir == null)
+                dir = new File(getFilesDir(), "received");
+            dir.mkdirs();
+            File file = new File(dir, "sensor-" + System.currentTimeMillis() + ".bin");
+
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                FileReceiver receiver = new FileReceiver(channel);
+                receiver.setFrameTimeout(DELAY_TIME);
+                receiver.receive(out.getChannel(), new TransferListener() {
                     @Override
-                    public void onWriteSRAM() {
-                        try{
-                            channel.waitforI2Cread(DELAY_TIME);
-                            channel.readSRAMBlock(new ReadSRAMListener() {
-                                @Override
-                                public void onReadSRAM(byte[] dataRead) {
-                                    try {
-                                        addLineToConsole("RECEIVED "+ ByteUtils.bytesToHex(dataRead));
-                                        addLineToConsole("SENDING OK CMD");
-                                        channel.writeSRAMBlock(ExoCommands.CMD_SEND_OK.getBytes(), null);
-                                    } catch(Exception e){
-                                        addLineToConsole(e.getMessage());
-                                    }
-                                }
-                            });
-
-                        } catch(Exception e){
-                            addLineToConsole(e.getMessage());
-                        }
+                    public void onTransferProgress(long bytesReceived, long bytesTotal) {
+                        addLineToConsole("leyendo " + bytesReceived + "/" + bytesTotal);
                     }
                 });
-
-            } catch (TimeoutException | IOException | FormatException e) {
+                addLineToConsole(String.format(Locale.US, "%d B en %d tramas, %d repetidos, %.0f B/s",
+                        receiver.getBytesReceived(), receiver.getFramesRead(),
+                        receiver.getPackagesRepeated(), receiver.getBytesPerSecond()));
+                addLineToConsole("Guardado en " + file.getName());
+            } catch (Exception e) {
                 addLineToConsole(e.getMessage());
+                file.delete();
             }
         }
     }
-
 }
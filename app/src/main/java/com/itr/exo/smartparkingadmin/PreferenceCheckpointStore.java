@@ -0,0 +1,108 @@
+package com.itr.exo.smartparkingadmin;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import ar.com.exo.parkingnfc.transfer.CheckpointStore;
+import ar.com.exo.parkingnfc.transfer.TransferCheckpoint;
+
+/**
+ * Transfer checkpoints in a preferences file of their own, so they survive
+ * the app being closed between two taps. A value is the package number, the
+ * checksum and the time it was saved, separated by colons.
+ *
+ * A checkpoint is only removed by a transfer of the same file to the same
+ * tag, so abandoned ones expire after {@link #MAX_AGE_MS} and at most
+ * {@link #MAX_ENTRIES} are kept, the oldest are dropped when saving.
+ */
+public class PreferenceCheckpointStore implements CheckpointStore {
+
+    public static final long MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+    public static final int MAX_ENTRIES = 64;
+
+    private static final String FILE = "transfer_checkpoints";
+
+    private final SharedPreferences prefs;
+
+    public PreferenceCheckpointStore(Context context) {
+        this.prefs = context.getSharedPreferences(FILE, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public TransferCheckpoint load(String key) {
+        String value = prefs.getString(key, null);
+        if (value == null)
+            return null;
+
+        String[] fields = value.split(":");
+        try {
+            if (isExpired(Long.parseLong(fields[2]), System.currentTimeMillis())) {
+                remove(key);
+                return null;
+            }
+            return new TransferCheckpoint(Long.parseLong(fields[0]), Integer.parseInt(fields[1]));
+        } catch (RuntimeException e) {
+            remove(key);
+            return null;
+        }
+    }
+
+    @Override
+    public void save(String key, TransferCheckpoint checkpoint) {
+        long now = System.currentTimeMillis();
+        SharedPreferences.Editor editor = prefs.edit();
+        prune(editor, key, now);
+        editor.putString(key, checkpoint.getPackageNumber() + ":" + checkpoint.getChecksum() + ":" + now)
+                .apply();
+    }
+
+    @Override
+    public void remove(String key) {
+        prefs.edit().remove(key).apply();
+    }
+
+    private static boolean isExpired(long saved, long now) {
+        return now - saved > MAX_AGE_MS;
+    }
+
+    /**
+     * Removes the expired checkpoints and the oldest ones above
+     * MAX_ENTRIES - 1, leaving room for the one being saved
+     */
+    private void prune(SharedPreferences.Editor editor, String saving, long now) {
+        List<Map.Entry<String, Long>> kept = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (entry.getKey().equals(saving))
+                continue;
+
+            long saved;
+            try {
+                saved = Long.parseLong(String.valueOf(entry.getValue()).split(":")[2]);
+            } catch (RuntimeException e) {
+                saved = 0;
+            }
+            if (isExpired(saved, now))
+                editor.remove(entry.getKey());
+            else
+                kept.add(new AbstractMap.SimpleEntry<>(entry.getKey(), saved));
+        }
+
+        if (kept.size() < MAX_ENTRIES)
+            return;
+        Collections.sort(kept, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return a.getValue().compareTo(b.getValue());
+            }
+        });
+        for (int i = 0; i <= kept.size() - MAX_ENTRIES; i++)
+            editor.remove(kept.get(i).getKey());
+    }
+}
@@ -0,0 +1,66 @@
+package com.nxp.benchmark;
+
+import com.nxp.crypto.CRC32Calculator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * CRC32 of a file to transfer, in one go and per 64 byte package, with
+ * java.util.zip as reference
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CRC32Benchmark {
+
+    @Param({"64", "4096", "65536"})
+    public int size;
+
+    private byte[] data;
+    private final CRC32Calculator calculator = new CRC32Calculator();
+    private final CRC32 reference = new CRC32();
+
+    @Setup
+    public void setup() {
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+    }
+
+    @Benchmark
+    public byte[] legacy() {
+        return CRC32Calculator.CRC32(data);
+    }
+
+    @Benchmark
+    public long incremental() {
+        calculator.reset();
+        calculator.update(data, 0, data.length);
+        return calculator.getValue();
+    }
+
+    @Benchmark
+    public long perPackage() {
+        calculator.reset();
+        for (int off = 0; off < data.length; off += 64)
+            calculator.update(data, off, Math.min(64, data.length - off));
+        return calculator.getValue();
+    }
+
+    @Benchmark
+    public long javaUtilZip() {
+        reference.reset();
+        reference.update(data, 0, data.length);
+        return reference.getValue();
+    }
+}
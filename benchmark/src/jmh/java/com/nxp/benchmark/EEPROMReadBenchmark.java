@@ -0,0 +1,112 @@
+package com.nxp.benchmark;
+
+import com.nxp.reader.Ntag_I2C_Page_Cursor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assembly of an EEPROM read from FAST_READ chunks, without the radio.
+ *
+ * The tag is a byte array and a FAST_READ answer a copy of it. concat is
+ * the former readEEPROM which grew the result with every chunk, presized
+ * reads into one buffer as readEEPROM does now and stream hands every
+ * chunk to a listener.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EEPROMReadBenchmark {
+
+    // pages per FAST_READ, (getMaxTransceiveLength() - 2) / 4
+    @Param({"15", "63"})
+    public int maxFastRead;
+
+    // user memory of the NTAG I2C 1k and of the 2k Plus across the gap
+    @Param({"0x04-0xDF", "0x04-0x1E1"})
+    public String range;
+
+    private byte[] memory;
+    private int absStart;
+    private int absEnd;
+    private boolean configGap;
+    private byte[] dst;
+
+    @Setup
+    public void setup() {
+        String[] bounds = range.split("-");
+        absStart = Integer.decode(bounds[0]);
+        absEnd = Integer.decode(bounds[1]);
+        configGap = absEnd > 0xFF;
+
+        memory = new byte[2 * 256 * 4];
+        new Random(42).nextBytes(memory);
+        dst = new byte[(absEnd - absStart + 1) * 4];
+    }
+
+    private byte[] fastRead(int sector, int from, int to) {
+        byte[] answer = new byte[(to - from + 1) * 4];
+        fastRead(sector, from, to, answer, 0);
+        return answer;
+    }
+
+    private void fastRead(int sector, int from, int to, byte[] dst, int off) {
+        System.arraycopy(memory, (sector * 256 + from) * 4, dst, off, (to - from + 1) * 4);
+    }
+
+    @Benchmark
+    public byte[] concat() {
+        byte[] data = null;
+        Ntag_I2C_Page_Cursor cursor = new Ntag_I2C_Page_Cursor(absStart, absEnd - absStart + 1, configGap);
+        while (cursor.next(maxFastRead)) {
+            byte[] temp = fastRead(cursor.getSector(), cursor.getPage(),
+                    cursor.getPage() + cursor.getPages() - 1);
+            if (data == null) {
+                data = temp;
+            } else {
+                byte[] grown = new byte[data.length + temp.length];
+                System.arraycopy(data, 0, grown, 0, data.length);
+                System.arraycopy(temp, 0, grown, data.length, temp.length);
+                data = grown;
+            }
+        }
+        return data;
+    }
+
+    @Benchmark
+    public byte[] presized() {
+        byte[] data = new byte[(absEnd - absStart + 1) * 4];
+        Ntag_I2C_Page_Cursor cursor = new Ntag_I2C_Page_Cursor(absStart, absEnd - absStart + 1, configGap);
+        while (cursor.next(maxFastRead))
+            fastRead(cursor.getSector(), cursor.getPage(), cursor.getPage() + cursor.getPages() - 1,
+                    data, cursor.getOffset());
+        return data;
+    }
+
+    @Benchmark
+    public byte[] presizedReused() {
+        Ntag_I2C_Page_Cursor cursor = new Ntag_I2C_Page_Cursor(absStart, absEnd - absStart + 1, configGap);
+        while (cursor.next(maxFastRead))
+            fastRead(cursor.getSector(), cursor.getPage(), cursor.getPage() + cursor.getPages() - 1,
+                    dst, cursor.getOffset());
+        return dst;
+    }
+
+    @Benchmark
+    public void stream(Blackhole blackhole) {
+        Ntag_I2C_Page_Cursor cursor = new Ntag_I2C_Page_Cursor(absStart, absEnd - absStart + 1, configGap);
+        while (cursor.next(maxFastRead))
+            blackhole.consume(fastRead(cursor.getSector(), cursor.getPage(),
+                    cursor.getPage() + cursor.getPages() - 1));
+    }
+}
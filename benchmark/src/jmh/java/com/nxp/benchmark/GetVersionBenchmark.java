@@ -0,0 +1,50 @@
+package com.nxp.benchmark;
+
+import com.nxp.reader.Ntag_Get_Version;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of the GET_VERSION response into the product, done on every
+ * connection
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GetVersionBenchmark {
+
+    // first and last product in the lookup, and one that is not known
+    @Param({"NTAG_I2C_1k", "NTAG_I2C_2k_Plus", "Unknown"})
+    public String product;
+
+    private byte[] response;
+
+    @Setup
+    public void setup() {
+        switch (product) {
+            case "NTAG_I2C_1k":
+                response = new byte[] { 0x00, 0x04, 0x04, 0x05, 0x01, 0x01, 0x13, 0x03 };
+                break;
+            case "NTAG_I2C_2k_Plus":
+                response = new byte[] { 0x00, 0x04, 0x04, 0x05, 0x02, 0x02, 0x15, 0x03 };
+                break;
+            default:
+                response = new byte[] { 0x00, 0x04, 0x04, 0x04, 0x01, 0x00, 0x0F, 0x03 };
+                break;
+        }
+    }
+
+    @Benchmark
+    public Ntag_Get_Version.Prod decode() {
+        return new Ntag_Get_Version(response).Get_Product();
+    }
+}
@@ -0,0 +1,71 @@
+package com.nxp.benchmark;
+
+import com.nxp.ByteUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hex coding of SRAM frames as done for the console and the logs
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HexBenchmark {
+
+    @Param({"64", "1024"})
+    public int size;
+
+    private byte[] data;
+    private String text;
+    private char[] chars;
+    private byte[] decoded;
+    private StringBuilder builder;
+
+    @Setup
+    public void setup() {
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+        text = ByteUtils.bytesToHex(data);
+        chars = new char[size * 2];
+        decoded = new byte[size];
+        builder = new StringBuilder(size * 2);
+    }
+
+    @Benchmark
+    public String bytesToHex() {
+        return ByteUtils.bytesToHex(data);
+    }
+
+    @Benchmark
+    public char[] encodeHex() {
+        ByteUtils.encodeHex(data, 0, size, chars, 0);
+        return chars;
+    }
+
+    @Benchmark
+    public StringBuilder appendHex() {
+        builder.setLength(0);
+        return ByteUtils.appendHex(builder, data, 0, size);
+    }
+
+    @Benchmark
+    public byte[] hexToBytes() {
+        return ByteUtils.hexToBytes(text);
+    }
+
+    @Benchmark
+    public byte[] decodeHex() {
+        ByteUtils.decodeHex(text, 0, text.length(), decoded, 0);
+        return decoded;
+    }
+}
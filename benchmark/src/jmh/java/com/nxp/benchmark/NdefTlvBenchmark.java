@@ -0,0 +1,49 @@
+package com.nxp.benchmark;
+
+import com.nxp.reader.Ndef_TLV;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NDEF TLV building for short and long messages, the 1904 byte one fills
+ * the user memory of a NTAG I2C 2k
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NdefTlvBenchmark {
+
+    @Param({"32", "254", "1899"})
+    public int size;
+
+    private byte[] ndef;
+    private byte[] tlv;
+
+    @Setup
+    public void setup() {
+        ndef = new byte[size];
+        new Random(42).nextBytes(ndef);
+        tlv = new byte[Ndef_TLV.size(size)];
+    }
+
+    @Benchmark
+    public byte[] create() {
+        return Ndef_TLV.create(ndef);
+    }
+
+    @Benchmark
+    public byte[] writeInto() {
+        Ndef_TLV.writeInto(ndef, 0, ndef.length, tlv, 0);
+        return tlv;
+    }
+}
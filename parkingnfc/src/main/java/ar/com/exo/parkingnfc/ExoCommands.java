@@ -0,0 +1,76 @@
+package ar.com.exo.parkingnfc;
+
+import com.nxp.ByteUtils;
+
+/**
+ * Created by gonza on 30/11/17.
+ *
+ * Command frames of the sensor. Every frame is built once, byte 0 is the
+ * command code and byte 1 its two's complement, except for the answers
+ * CMD_SEND_OK and CMD_SEND_ERROR which carry 0x00. The rest of the frame
+ * is zero.
+ */
+
+public enum ExoCommands {
+
+    CMD_RESET(0x00, true),
+    CMD_PS_MODE_WORKING(0x01, true),
+    CMD_PS_MODE_STORAGE(0x02, true),
+    CMD_PS_TEST_ALL(0x04, true),
+    CMD_SET_CFG_RADIO(0xB5, true),
+    CMD_FILE_RECEIVE(0xF1, true),
+    CMD_64BYTES_RECEIVE(0xF2, true),
+    CMD_SEND_OK(0x31, false),
+    CMD_DEVICE_INFORMATION(0x15, true),
+    CMD_SEND_ERROR(0x32, false);
+
+    /**
+     * Size of a command frame, one SRAM block
+     */
+    public static final int FRAME_SIZE = 64;
+
+    private final byte code;
+    private final byte[] frame;
+
+    private ExoCommands(int code, boolean checked){
+        this.code = (byte) code;
+        this.frame = new byte[FRAME_SIZE];
+        frame[0] = this.code;
+        frame[1] = checked ? checkByte(this.code) : 0x00;
+    }
+
+    /**
+     * Returns the two's complement of a command code
+     */
+    public static byte checkByte(byte code) {
+        return (byte) (~code + 1);
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * Returns a new copy of the frame
+     */
+    public byte[] getBytes(){
+        return frame.clone();
+    }
+
+    /**
+     * Copies the frame into a transport buffer, which needs FRAME_SIZE bytes
+     * from off
+     */
+    public void copyInto(byte[] dst, int off) {
+        System.arraycopy(frame, 0, dst, off, FRAME_SIZE);
+    }
+
+    public void copyInto(byte[] dst) {
+        copyInto(dst, 0);
+    }
+
+    public String toString() {
+        return ByteUtils.bytesToHex(frame);
+    }
+
+}
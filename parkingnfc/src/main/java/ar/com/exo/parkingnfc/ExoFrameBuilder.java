@@ -0,0 +1,125 @@
+package ar.com.exo.parkingnfc;
+
+import java.util.Arrays;
+
+/**
+ * Builds command frames with parameters.
+ *
+ * The frame starts with the command code and its check byte, the
+ * parameters follow from byte 2 on in little endian and the rest of the
+ * frame is zero. The builder can be reused, {@link #command} starts a new
+ * frame.
+ *
+ * <pre>
+ * new ExoFrameBuilder(channel.getSRAMSize())
+ *         .command(ExoCommands.CMD_SET_CFG_RADIO)
+ *         .putByte(channel)
+ *         .putLE16(period)
+ *         .buildInto(frame);
+ * </pre>
+ */
+public class ExoFrameBuilder {
+
+    private final byte[] frame = new byte[ExoCommands.FRAME_SIZE];
+    private int position;
+    private boolean started;
+
+    /**
+     * @param sramSize
+     *            SRAM size of the tag, the frames have to fill it exactly
+     * @throws IllegalArgumentException
+     *             if the SRAM does not hold a command frame
+     */
+    public ExoFrameBuilder(int sramSize) {
+        if (sramSize != ExoCommands.FRAME_SIZE)
+            throw new IllegalArgumentException("Command frames need " + ExoCommands.FRAME_SIZE
+                    + " bytes of SRAM, the tag has " + sramSize);
+    }
+
+    /**
+     * Starts a frame for a command of the table
+     */
+    public ExoFrameBuilder command(ExoCommands command) {
+        command.copyInto(frame);
+        position = 2;
+        started = true;
+        return this;
+    }
+
+    /**
+     * Starts a frame for any command code, the check byte is computed
+     */
+    public ExoFrameBuilder command(int code) {
+        Arrays.fill(frame, (byte) 0x00);
+        frame[0] = (byte) code;
+        frame[1] = ExoCommands.checkByte((byte) code);
+        position = 2;
+        started = true;
+        return this;
+    }
+
+    public ExoFrameBuilder putByte(int value) {
+        ensure(1);
+        frame[position++] = (byte) value;
+        return this;
+    }
+
+    public ExoFrameBuilder putLE16(int value) {
+        ensure(2);
+        frame[position++] = (byte) value;
+        frame[position++] = (byte) (value >>> 8);
+        return this;
+    }
+
+    public ExoFrameBuilder putLE32(long value) {
+        ensure(4);
+        for (int i = 0; i < 4; i++)
+            frame[position++] = (byte) (value >>> (i * 8));
+        return this;
+    }
+
+    public ExoFrameBuilder put(byte[] data, int off, int len) {
+        ensure(len);
+        System.arraycopy(data, off, frame, position, len);
+        position += len;
+        return this;
+    }
+
+    /**
+     * Returns the bytes still free for parameters
+     */
+    public int remaining() {
+        return frame.length - position;
+    }
+
+    private void ensure(int len) {
+        if (!started)
+            throw new IllegalStateException("No command set");
+        if (len > remaining())
+            throw new IllegalArgumentException("Parameters exceed the " + frame.length
+                    + " byte frame by " + (len - remaining()) + " bytes");
+    }
+
+    /**
+     * Copies the frame into a transport buffer, which needs FRAME_SIZE bytes
+     * from off
+     */
+    public void buildInto(byte[] dst, int off) {
+        if (!started)
+            throw new IllegalStateException("No command set");
+        System.arraycopy(frame, 0, dst, off, frame.length);
+    }
+
+    public void buildInto(byte[] dst) {
+        buildInto(dst, 0);
+    }
+
+    /**
+     * Returns a new copy of the frame
+     */
+    public byte[] build() {
+        byte[] copy = new byte[frame.length];
+        buildInto(copy);
+        return copy;
+    }
+}
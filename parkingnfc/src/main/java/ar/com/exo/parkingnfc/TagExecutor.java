@@ -0,0 +1,216 @@
+package ar.com.exo.parkingnfc;
+
+import com.nxp.reader.I2C_Enabled_Commands;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Owns the tag session and runs every operation on it from one radio
+ * thread, in the order the operations were submitted.
+ *
+ * Ntag_Commands keeps the last command and answer in fields and a SRAM
+ * exchange is a write followed by a read, so two threads talking to the
+ * tag at once corrupt each other's frames. Submitting through this
+ * executor is the only way the session is touched.
+ */
+public class TagExecutor {
+
+    /**
+     * Work done on the tag session, on the radio thread
+     */
+    public interface Operation {
+        void run(I2C_Enabled_Commands channel) throws Exception;
+    }
+
+    /**
+     * Opens a new tag session, on the radio thread
+     */
+    public interface SessionFactory {
+        I2C_Enabled_Commands open() throws Exception;
+    }
+
+    /**
+     * Informed about the operations that failed, on the radio thread
+     */
+    public interface ErrorListener {
+        void onOperationError(Exception e);
+    }
+
+    private final ExecutorService radio;
+    private final ErrorListener errorListener;
+    private volatile I2C_Enabled_Commands channel;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger maxQueued = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private volatile long lastWaitNanos;
+    private volatile long maxWaitNanos;
+
+    public TagExecutor(ErrorListener errorListener) {
+        this.errorListener = errorListener;
+        this.radio = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "tag-radio");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Closes the current session and opens a new one, after the operations
+     * already submitted
+     */
+    public Future<?> open(final SessionFactory factory) {
+        return execute(new Operation() {
+            @Override
+            public void run(I2C_Enabled_Commands current) throws Exception {
+                closeSession();
+                channel = factory.open();
+            }
+        }, false);
+    }
+
+    /**
+     * Submits an operation on the current session
+     */
+    public Future<?> submit(Operation operation) {
+        return execute(operation, true);
+    }
+
+    private Future<?> execute(final Operation operation, final boolean needsSession) {
+        final long enqueued = System.nanoTime();
+        int depth = queued.incrementAndGet();
+        updateMax(maxQueued, depth);
+
+        return radio.submit(new Runnable() {
+            @Override
+            public void run() {
+                queued.decrementAndGet();
+                recordWait(System.nanoTime() - enqueued);
+
+                try {
+                    I2C_Enabled_Commands current = channel;
+                    if (needsSession && current == null)
+                        throw new IOException("Tag disconnected.");
+                    operation.run(current);
+                    completed.incrementAndGet();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    if (errorListener != null)
+                        errorListener.onOperationError(e);
+                }
+            }
+        });
+    }
+
+    private void closeSession() {
+        I2C_Enabled_Commands current = channel;
+        channel = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // the tag is gone already
+            }
+        }
+    }
+
+    /**
+     * Returns the current session, null if there is none
+     */
+    public I2C_Enabled_Commands getSession() {
+        return channel;
+    }
+
+    /**
+     * Closes the session once the submitted operations are done and stops
+     * the radio thread, does nothing once the radio thread was stopped
+     */
+    public synchronized void shutdown() {
+        if (radio.isShutdown())
+            return;
+        radio.submit(new Runnable() {
+            @Override
+            public void run() {
+                closeSession();
+            }
+        });
+        radio.shutdown();
+    }
+
+    private void recordWait(long wait) {
+        lastWaitNanos = wait;
+        totalWaitNanos.addAndGet(wait);
+        if (wait > maxWaitNanos)
+            maxWaitNanos = wait;
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        int current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+        }
+    }
+
+    /**
+     * Returns the operations waiting for the radio thread
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * Returns the deepest the queue has been
+     */
+    public int getMaxQueueDepth() {
+        return maxQueued.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Returns how long the last operation waited in the queue
+     *
+     * @return Wait in nanoseconds
+     */
+    public long getLastWaitNanos() {
+        return lastWaitNanos;
+    }
+
+    /**
+     * Returns the longest an operation waited in the queue
+     *
+     * @return Wait in nanoseconds
+     */
+    public long getMaxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    /**
+     * Returns the mean time operations waited in the queue
+     *
+     * @return Wait in nanoseconds
+     */
+    public long getAverageWaitNanos() {
+        long started = completed.get() + failed.get();
+        return started > 0 ? totalWaitNanos.get() / started : 0;
+    }
+}
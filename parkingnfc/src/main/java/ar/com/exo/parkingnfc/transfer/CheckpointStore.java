@@ -0,0 +1,23 @@
+package ar.com.exo.parkingnfc.transfer;
+
+/**
+ * Keeps the progress of interrupted file transfers, so a transfer can
+ * continue on the next tap instead of starting over.
+ *
+ * Keys are built by {@link FileTransfer} from the tag UID and the CRC-32 and
+ * length of the file. Implementations are called on the radio thread.
+ */
+public interface CheckpointStore {
+
+    /**
+     * Returns the checkpoint of a transfer, null if there is none
+     */
+    TransferCheckpoint load(String key);
+
+    void save(String key, TransferCheckpoint checkpoint);
+
+    /**
+     * Forgets a transfer, after it completed or its checkpoint did not match
+     */
+    void remove(String key);
+}
@@ -0,0 +1,147 @@
+package ar.com.exo.parkingnfc.transfer;
+
+import com.nxp.crypto.CRC32Calculator;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link Lz4Codec} stream of another source.
+ *
+ * The stream is compressed chunk by chunk while it is read, only one chunk
+ * of the file and of the stream is kept in memory. Its length is found by a
+ * first pass over the file, which lets a transfer decide whether sending it
+ * compressed saves packages before it sends the header. The same pass finds
+ * the file checksum and the CRC-32 of the file, which the header carries.
+ */
+public class CompressedSource extends TransferSource {
+
+    private final TransferSource source;
+    private final long length;
+    private final int fileChecksum;
+    private final long crc32;
+
+    private CompressedSource(TransferSource source, long length, int fileChecksum, long crc32) {
+        this.source = source;
+        this.length = length;
+        this.fileChecksum = fileChecksum;
+        this.crc32 = crc32;
+    }
+
+    /**
+     * Compresses a source once to find the length of its stream
+     */
+    public static CompressedSource of(TransferSource source) throws IOException {
+        final Lz4Codec codec = new Lz4Codec();
+        final byte[] chunk = new byte[Lz4Codec.CHUNK_SIZE];
+        final byte[] compressed = new byte[Lz4Codec.MAX_CHUNK];
+        final CRC32Calculator crc32 = new CRC32Calculator();
+        long remaining = source.length();
+        long length = 0;
+        int checksum = 0;
+
+        try (InputStream in = source.open()) {
+            while (remaining > 0) {
+                int len = (int) Math.min(chunk.length, remaining);
+                Transfer.readFully(in, chunk, 0, len);
+                checksum = TransferHeader.fileChecksum(checksum, chunk, 0, len);
+                crc32.update(chunk, 0, len);
+                length += codec.compressChunk(chunk, 0, len, compressed, 0);
+                remaining -= len;
+            }
+        }
+        return new CompressedSource(source, length, checksum, crc32.getValue());
+    }
+
+    /**
+     * Returns the length of the stream
+     */
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Returns the length of the file the stream decodes to
+     */
+    public long getOriginalLength() {
+        return source.length();
+    }
+
+    /**
+     * Returns the checksum of the file the stream decodes to, as returned by
+     * {@link TransferHeader#fileChecksum}
+     */
+    public int getFileChecksum() {
+        return fileChecksum;
+    }
+
+    /**
+     * Returns the CRC-32 of the file the stream decodes to
+     */
+    public long getCrc32() {
+        return crc32;
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+        return new CompressingInputStream(source.open(), source.length());
+    }
+
+    private static class CompressingInputStream extends InputStream {
+        private final InputStream in;
+        private final Lz4Codec codec = new Lz4Codec();
+        private final byte[] chunk = new byte[Lz4Codec.CHUNK_SIZE];
+        private final byte[] compressed = new byte[Lz4Codec.MAX_CHUNK];
+        private long remaining;
+        private int position;
+        private int limit;
+
+        CompressingInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        /**
+         * Compresses the next chunk once the last one was read
+         *
+         * @return false at the end of the stream
+         */
+        private boolean fill() throws IOException {
+            if (position < limit)
+                return true;
+            if (remaining == 0)
+                return false;
+
+            int len = (int) Math.min(chunk.length, remaining);
+            Transfer.readFully(in, chunk, 0, len);
+            remaining -= len;
+            limit = codec.compressChunk(chunk, 0, len, compressed, 0);
+            position = 0;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? compressed[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (!fill())
+                return -1;
+
+            len = Math.min(len, limit - position);
+            System.arraycopy(compressed, position, b, off, len);
+            position += len;
+            return len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package ar.com.exo.parkingnfc.transfer;
+
+import android.nfc.FormatException;
+
+import com.nxp.crypto.CRC32Calculator;
+import com.nxp.exceptions.CommandNotSupportedException;
+import com.nxp.reader.I2C_Enabled_Commands;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeoutException;
+
+import ar.com.exo.parkingnfc.ExoCommands;
+
+/**
+ * Receives a file from the sensor with CMD_FILE_RECEIVE.
+ *
+ * The sensor answers the command with a {@link TransferHeader} announcing
+ * the packages, the file checksum and, with the extension, the CRC-32 and
+ * the length of the file. Every package is then read from the SRAM and
+ * answered with CMD_SEND_OK, or with CMD_SEND_ERROR to have it sent again.
+ *
+ * <pre>
+ * [0..62]  payload, the last package padded with zeros
+ * [63]     check byte, two's complement of the sum of [0..62]
+ * </pre>
+ *
+ * The header is acknowledged with CMD_SEND_OK as well. Packages are written
+ * to the channel as they arrive, only one SRAM frame is kept in memory.
+ */
+public class FileReceiver {
+
+    public static final int DEFAULT_FRAME_TIMEOUT = 500;
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    /**
+     * Payload bytes of a package
+     */
+    public static final int PAYLOAD = 63;
+
+    static final int CHECK = 63;
+
+    private final I2C_Enabled_Commands channel;
+    private final byte[] frame = new byte[ExoCommands.FRAME_SIZE];
+    private final CRC32Calculator crc32 = new CRC32Calculator();
+    private int frameTimeout = DEFAULT_FRAME_TIMEOUT;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+
+    private long length;
+    private long bytesReceived;
+    private long framesRead;
+    private long packagesRepeated;
+    private long elapsedNanos;
+
+    public FileReceiver(I2C_Enabled_Commands channel) {
+        if (channel.getSRAMSize() < ExoCommands.FRAME_SIZE)
+            throw new IllegalArgumentException("File receive needs a 64 byte SRAM");
+        this.channel = channel;
+    }
+
+    /**
+     * Sets how long to wait for the sensor to write a package
+     *
+     * @param timeoutMS
+     *            Timeout in milliseconds
+     */
+    public void setFrameTimeout(int timeoutMS) {
+        this.frameTimeout = timeoutMS;
+    }
+
+    /**
+     * Sets how often a damaged package is asked for again before the
+     * transfer fails
+     */
+    public void setMaxRetries(int retries) {
+        this.maxRetries = retries;
+    }
+
+    /**
+     * Receives a file
+     *
+     * @param out
+     *            Channel the file is written to, e.g. of a FileOutputStream.
+     *            It is not closed
+     * @param listener
+     *            Informed after every package, may be null
+     * @return File length in bytes
+     * @throws IOException
+     *             also if a package stays damaged or the file checksum does
+     *             not match
+     */
+    public long receive(WritableByteChannel out, TransferListener listener) throws IOException,
+            FormatException, TimeoutException, CommandNotSupportedException {
+        length = 0;
+        bytesReceived = 0;
+        framesRead = 0;
+        packagesRepeated = 0;
+        elapsedNanos = 0;
+        crc32.reset();
+        final long start = System.nanoTime();
+
+        try {
+            ExoCommands.CMD_FILE_RECEIVE.copyInto(frame);
+            channel.waitforI2Cread(frameTimeout);
+            channel.writeSRAMBlock(frame, null);
+
+            readFrame();
+            if (!TransferHeader.isValid(frame))
+                throw new IOException("Sensor did not answer with a file header");
+
+            final long packages = TransferHeader.getLE32(frame, TransferHeader.PACKAGE_COUNT);
+            final int fileChecksum = (frame[TransferHeader.FILE_CHECKSUM] & 0xFF)
+                    | (frame[TransferHeader.FILE_CHECKSUM + 1] & 0xFF) << 8;
+            final boolean hasCrc32 = (frame[TransferHeader.FLAGS] & TransferHeader.FLAG_CRC32) != 0;
+            final long expectedCrc32 = TransferHeader.getLE32(frame, TransferHeader.CRC32);
+            length = hasCrc32 ? TransferHeader.getLE32(frame, TransferHeader.FILE_LENGTH) : packages * PAYLOAD;
+            if (length > packages * PAYLOAD)
+                throw new IOException("File of " + length + " bytes in " + packages + " packages");
+            answer(ExoCommands.CMD_SEND_OK);
+
+            final ByteBuffer buffer = ByteBuffer.wrap(frame);
+            int checksum = 0;
+
+            for (long p = 1; p <= packages; p++) {
+                int retries = 0;
+                readFrame();
+                while (TransferHeader.checkByte(frame, 0, CHECK) != frame[CHECK]) {
+                    if (++retries > maxRetries)
+                        throw new IOException("Package " + p + " damaged " + retries + " times");
+                    packagesRepeated++;
+                    answer(ExoCommands.CMD_SEND_ERROR);
+                    readFrame();
+                }
+
+                int len = (int) Math.min(PAYLOAD, length - bytesReceived);
+                checksum = TransferHeader.fileChecksum(checksum, frame, 0, len);
+                crc32.update(frame, 0, len);
+
+                // the package is on disk before the sensor is told to go on
+                buffer.limit(len).position(0);
+                while (buffer.hasRemaining())
+                    out.write(buffer);
+                bytesReceived += len;
+
+                answer(ExoCommands.CMD_SEND_OK);
+                if (listener != null)
+                    listener.onTransferProgress(bytesReceived, length);
+            }
+
+            if ((checksum & 0xFFFF) != fileChecksum)
+                throw new IOException("File checksum does not match");
+            if (hasCrc32 && crc32.getValue() != expectedCrc32)
+                throw new IOException("File CRC-32 does not match");
+            return length;
+        } finally {
+            elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    private void readFrame() throws IOException, FormatException, TimeoutException,
+            CommandNotSupportedException {
+        channel.waitforI2Cwrite(frameTimeout);
+        byte[] data = channel.readSRAMBlock(null);
+        System.arraycopy(data, 0, frame, 0, frame.length);
+        framesRead++;
+    }
+
+    private void answer(ExoCommands command) throws IOException, FormatException, TimeoutException,
+            CommandNotSupportedException {
+        command.copyInto(frame);
+        channel.waitforI2Cread(frameTimeout);
+        channel.writeSRAMBlock(frame, null);
+    }
+
+    /**
+     * Returns the CRC-32 of the last file received
+     */
+    public long getCrc32() {
+        return crc32.getValue();
+    }
+
+    /**
+     * Returns the length the header of the last transfer announced
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the payload bytes received by the last transfer
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Returns the SRAM frames read by the last transfer, header and repeats
+     * included
+     */
+    public long getFramesRead() {
+        return framesRead;
+    }
+
+    /**
+     * Returns how many damaged packages were asked for again
+     */
+    public long getPackagesRepeated() {
+        return packagesRepeated;
+    }
+
+    /**
+     * Returns the duration of the last transfer
+     *
+     * @return Duration in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the sustained payload throughput of the last transfer
+     *
+     * @return Bytes per second
+     */
+    public double getBytesPerSecond() {
+        return elapsedNanos > 0 ? bytesReceived * 1e9 / elapsedNanos : 0;
+    }
+}
@@ -0,0 +1,241 @@
+package ar.com.exo.parkingnfc.transfer;
+
+import android.nfc.FormatException;
+
+import com.nxp.ByteUtils;
+import com.nxp.exceptions.CommandNotSupportedException;
+import com.nxp.reader.I2C_Enabled_Commands;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeoutException;
+
+import ar.com.exo.parkingnfc.ExoCommands;
+
+/**
+ * Sends a file to the sensor with the 0xF0 file protocol.
+ *
+ * The file is split in SRAM sized packages, the last one padded with zeros.
+ * A {@link TransferHeader} announcing the packages and the file checksum is
+ * written first, then every package is written once the I2C side has read
+ * the previous one. Only one SRAM frame is kept in memory.
+ *
+ * With {@link #setCrc32(boolean)} the header also carries the CRC-32 and
+ * the length of the file, computed in the same pass as the checksum.
+ *
+ * With {@link #setCheckpoints(CheckpointStore, byte[])} the last package the
+ * sensor acknowledged is saved every few packages and when a package fails.
+ * The next transfer of the same file to the same tag sends a header starting
+ * after that package and skips what the sensor already has.
+ *
+ * With {@link #setCompression(boolean)} the file is sent as a
+ * {@link Lz4Codec} stream when that takes fewer packages. The header then
+ * carries the extension, see {@link TransferHeader} for what it describes.
+ * The sensor answers the last package of a stream with CMD_SEND_OK once it
+ * decoded and checked the file. Any other answer, or none within the status
+ * timeout as from firmware without LZ4 support, fails the transfer and drops
+ * its checkpoint.
+ */
+public class FileTransfer extends Transfer {
+
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 16;
+    public static final int DEFAULT_STATUS_TIMEOUT = 500;
+
+    private final byte[] frame;
+    private boolean sendCrc32;
+    private CheckpointStore checkpoints;
+    private byte[] uid;
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    private int statusTimeout = DEFAULT_STATUS_TIMEOUT;
+
+    private long ackedPackage;
+    private int ackedChecksum;
+
+    private long packagesSkipped;
+
+    public FileTransfer(I2C_Enabled_Commands channel) {
+        super(channel);
+        this.frame = new byte[channel.getSRAMSize()];
+    }
+
+    /**
+     * Sets whether the header carries the CRC-32 of the file, the firmware
+     * has to support the header extension
+     */
+    public void setCrc32(boolean enable) {
+        this.sendCrc32 = enable;
+    }
+
+    /**
+     * Sets how long to wait for the sensor to confirm a compressed file
+     *
+     * @param timeoutMS
+     *            Timeout in milliseconds
+     */
+    public void setStatusTimeout(int timeoutMS) {
+        this.statusTimeout = timeoutMS;
+    }
+
+    /**
+     * Saves the progress of the transfers to a tag
+     *
+     * @param store
+     *            Store of the checkpoints, null to always start with the
+     *            first package
+     * @param uid
+     *            UID of the tag
+     */
+    public void setCheckpoints(CheckpointStore store, byte[] uid) {
+        this.checkpoints = store;
+        this.uid = uid != null ? uid.clone() : null;
+    }
+
+    /**
+     * Sets after how many acknowledged packages the progress is saved, it is
+     * saved as well when a package fails
+     */
+    public void setCheckpointInterval(int packages) {
+        this.checkpointInterval = Math.max(1, packages);
+    }
+
+    @Override
+    boolean send(TransferSource source, CompressedSource stream, TransferListener listener)
+            throws IOException, FormatException, TimeoutException, CommandNotSupportedException {
+        final long length = source.length();
+        final long packages = packages(length);
+        final boolean checkpointing = checkpoints != null && uid != null;
+        final boolean extension = sendCrc32 || stream != null;
+        final int fileChecksum = fileChecksum(source, frame, extension || checkpointing);
+        final String key = checkpointing ? checkpointKey(length) : null;
+
+        boolean written = false;
+        InputStream in = source.open();
+        try {
+            long first = 1;
+            int checksum = 0;
+
+            TransferCheckpoint checkpoint = key != null ? checkpoints.load(key) : null;
+            if (checkpoint != null && checkpoint.getPackageNumber() > 0
+                    && checkpoint.getPackageNumber() < packages) {
+                checksum = skip(in, checkpoint.getPackageNumber() * frame.length);
+                if (checksum == checkpoint.getChecksum()) {
+                    first = checkpoint.getPackageNumber() + 1;
+                } else {
+                    // the file changed under the same key, start over
+                    checkpoints.remove(key);
+                    in.close();
+                    in = source.open();
+                    checksum = 0;
+                }
+            }
+            packagesSkipped = first - 1;
+            ackedPackage = first - 1;
+            ackedChecksum = checksum;
+
+            if (stream != null) {
+                TransferHeader.encode(frame, first, packages, stream.getFileChecksum(),
+                        stream.getCrc32(), length);
+                TransferHeader.setCompressed(frame, stream.getOriginalLength());
+            } else if (extension) {
+                TransferHeader.encode(frame, first, packages, fileChecksum, crc32.getValue(), length);
+            } else {
+                TransferHeader.encode(frame, first, packages, fileChecksum);
+            }
+            channel.waitforI2Cread(frameTimeout);
+            channel.writeSRAMBlock(frame, null);
+            framesSent++;
+
+            long position = packagesSkipped * frame.length;
+            for (long p = first; p <= packages; p++) {
+                int len = (int) Math.min(frame.length, length - position);
+                readFully(in, frame, 0, len);
+                Arrays.fill(frame, len, frame.length, (byte) 0x00);
+
+                // the I2C side has read the previous package
+                channel.waitforI2Cread(frameTimeout);
+                acknowledged(key, p - 1, checksum, first);
+                channel.writeSRAMBlock(frame, null);
+                framesSent++;
+
+                checksum = TransferHeader.fileChecksum(checksum, frame, 0, len);
+                bytesSent += len;
+                position += len;
+                if (listener != null)
+                    listener.onTransferProgress(position, length);
+            }
+            written = true;
+            if (stream != null)
+                readStatus();
+        } finally {
+            in.close();
+            if (key != null) {
+                // a stream the sensor did not take is of no use to continue
+                if (written)
+                    checkpoints.remove(key);
+                else if (ackedPackage > 0)
+                    checkpoints.save(key, new TransferCheckpoint(ackedPackage, ackedChecksum));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits for the sensor to confirm a compressed file
+     */
+    private void readStatus() throws IOException, FormatException, CommandNotSupportedException {
+        try {
+            channel.waitforI2Cwrite(statusTimeout);
+        } catch (TimeoutException e) {
+            throw new IOException("Sensor did not confirm the compressed file, it may not decode LZ4");
+        }
+        if (channel.readSRAMBlock(null)[0] != ExoCommands.CMD_SEND_OK.getCode())
+            throw new IOException("Sensor rejected the compressed file");
+    }
+
+    private void acknowledged(String key, long packageNumber, int checksum, long first) {
+        ackedPackage = packageNumber;
+        ackedChecksum = checksum;
+        if (key != null && packageNumber >= first && (packageNumber - first + 1) % checkpointInterval == 0)
+            checkpoints.save(key, new TransferCheckpoint(packageNumber, checksum));
+    }
+
+    @Override
+    void resetStats() {
+        packagesSkipped = 0;
+    }
+
+    @Override
+    long packages(long length) {
+        return (length + frame.length - 1) / frame.length;
+    }
+
+    private String checkpointKey(long length) {
+        return ByteUtils.bytesToHex(uid) + "/" + String.format(Locale.US, "%08X", crc32.getValue()) + "/" + length;
+    }
+
+    /**
+     * Reads past the packages the sensor already has
+     *
+     * @return File checksum of the bytes skipped
+     */
+    private int skip(InputStream in, long bytes) throws IOException {
+        int checksum = 0;
+        while (bytes > 0) {
+            int len = (int) Math.min(frame.length, bytes);
+            readFully(in, frame, 0, len);
+            checksum = TransferHeader.fileChecksum(checksum, frame, 0, len);
+            bytes -= len;
+        }
+        return checksum;
+    }
+
+    /**
+     * Returns the packages the last transfer did not send because a
+     * checkpoint showed the sensor already had them
+     */
+    public long getPackagesSkipped() {
+        return packagesSkipped;
+    }
+}
@@ -0,0 +1,269 @@
+package ar.com.exo.parkingnfc.transfer;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * LZ4 block codec for the compressed 0xF0 file transfers.
+ *
+ * Blocks are plain LZ4 blocks, without the LZ4 frame format, so the sensor
+ * can decode them with the reference LZ4_decompress_safe(). A file is sent
+ * as a stream of chunks of at most {@link #CHUNK_SIZE} bytes, each one
+ * decoded on its own so the sensor only needs one chunk of RAM:
+ *
+ * <pre>
+ * [0..1]   chunk length n (LE16), bit 15 set if the chunk is stored
+ * [2..]    n bytes, an LZ4 block or the stored bytes
+ * </pre>
+ *
+ * A chunk that would not shrink is stored. Every chunk but the last one
+ * decodes to CHUNK_SIZE bytes.
+ *
+ * Compressing keeps a hash table in the codec, an instance must not be
+ * shared between threads. Decoding is static.
+ */
+public final class Lz4Codec {
+
+    /**
+     * Bytes of a file that are decoded as one chunk
+     */
+    public static final int CHUNK_SIZE = 4096;
+
+    /**
+     * Largest stream chunk, length prefix included
+     */
+    public static final int MAX_CHUNK = 2 + CHUNK_SIZE;
+
+    static final int STORED = 0x8000;
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_LOG = 12;
+
+    private final int[] table = new int[1 << HASH_LOG];
+
+    /**
+     * Compresses bytes into an LZ4 block
+     *
+     * @param limit
+     *            Bytes of dst that may be used
+     * @return Block length, -1 if the block would need more than limit bytes
+     */
+    public int compressBlock(byte[] src, int off, int len, byte[] dst, int dstOff, int limit) {
+        final int end = off + len;
+        final int matchLimit = end - LAST_LITERALS;
+        final int dstEnd = dstOff + limit;
+        int anchor = off;
+        int d = dstOff;
+
+        if (len > MF_LIMIT) {
+            Arrays.fill(table, -1);
+            int i = off;
+
+            while (i <= end - MF_LIMIT) {
+                int h = hash(readInt(src, i));
+                int ref = table[h];
+                table[h] = i;
+                if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != readInt(src, i)) {
+                    i++;
+                    continue;
+                }
+
+                while (i > anchor && ref > off && src[i - 1] == src[ref - 1]) {
+                    i--;
+                    ref--;
+                }
+                int m = i + MIN_MATCH;
+                int r = ref + MIN_MATCH;
+                while (m < matchLimit && src[m] == src[r]) {
+                    m++;
+                    r++;
+                }
+
+                d = writeSequence(src, anchor, i - anchor, i - ref, m - i, dst, d, dstEnd);
+                if (d < 0)
+                    return -1;
+                i = m;
+                anchor = m;
+            }
+        }
+
+        d = writeSequence(src, anchor, end - anchor, 0, 0, dst, d, dstEnd);
+        return d < 0 ? -1 : d - dstOff;
+    }
+
+    /**
+     * Writes a sequence, literals only if the match length is 0
+     *
+     * @return Position after the sequence, -1 if it does not fit
+     */
+    private static int writeSequence(byte[] src, int literals, int literalLength, int offset,
+            int matchLength, byte[] dst, int d, int dstEnd) {
+        int matchCode = matchLength > 0 ? matchLength - MIN_MATCH : 0;
+        if (d + 1 + literalLength + literalLength / 0xFF + 1 + (matchLength > 0 ? 3 + matchCode / 0xFF : 0) > dstEnd)
+            return -1;
+
+        int token = d++;
+        dst[token] = (byte) (Math.min(literalLength, 15) << 4);
+        if (literalLength >= 15)
+            d = writeLength(literalLength - 15, dst, d);
+        System.arraycopy(src, literals, dst, d, literalLength);
+        d += literalLength;
+
+        if (matchLength > 0) {
+            dst[d++] = (byte) offset;
+            dst[d++] = (byte) (offset >>> 8);
+            dst[token] |= Math.min(matchCode, 15);
+            if (matchCode >= 15)
+                d = writeLength(matchCode - 15, dst, d);
+        }
+        return d;
+    }
+
+    private static int writeLength(int length, byte[] dst, int d) {
+        while (length >= 0xFF) {
+            dst[d++] = (byte) 0xFF;
+            length -= 0xFF;
+        }
+        dst[d++] = (byte) length;
+        return d;
+    }
+
+    /**
+     * Decodes an LZ4 block
+     *
+     * @param limit
+     *            Bytes of dst that may be used
+     * @return Decoded length
+     * @throws IOException
+     *             if the block is damaged or decodes to more than limit bytes
+     */
+    public static int decompressBlock(byte[] src, int off, int len, byte[] dst, int dstOff, int limit)
+            throws IOException {
+        final int end = off + len;
+        final int dstEnd = dstOff + limit;
+        int s = off;
+        int d = dstOff;
+
+        while (true) {
+            if (s >= end)
+                throw new IOException("LZ4 block ends without literals");
+            int token = src[s++] & 0xFF;
+
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    if (s >= end)
+                        throw new IOException("LZ4 block ends in a literal length");
+                    b = src[s++] & 0xFF;
+                    literalLength += b;
+                } while (b == 0xFF);
+            }
+            if (literalLength > end - s || literalLength > dstEnd - d)
+                throw new IOException("LZ4 literals out of bounds");
+            System.arraycopy(src, s, dst, d, literalLength);
+            s += literalLength;
+            d += literalLength;
+            if (s == end)
+                return d - dstOff;
+
+            if (end - s < 2)
+                throw new IOException("LZ4 block ends in an offset");
+            int offset = (src[s] & 0xFF) | (src[s + 1] & 0xFF) << 8;
+            s += 2;
+            if (offset == 0 || offset > d - dstOff)
+                throw new IOException("LZ4 offset " + offset + " out of bounds");
+
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (s >= end)
+                        throw new IOException("LZ4 block ends in a match length");
+                    b = src[s++] & 0xFF;
+                    matchLength += b;
+                } while (b == 0xFF);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > dstEnd - d)
+                throw new IOException("LZ4 match out of bounds");
+
+            // byte by byte, a match may overlap the bytes it produces
+            for (int m = d - offset, e = d + matchLength; d < e; )
+                dst[d++] = dst[m++];
+        }
+    }
+
+    /**
+     * Compresses a chunk of a file into a stream chunk, storing it if it
+     * would not shrink
+     *
+     * @param dst
+     *            Needs {@link #MAX_CHUNK} bytes from dstOff
+     * @return Stream chunk length, prefix included
+     */
+    public int compressChunk(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        if (len > CHUNK_SIZE)
+            throw new IllegalArgumentException("Chunk of " + len + " bytes");
+
+        int n = compressBlock(src, off, len, dst, dstOff + 2, len - 1);
+        if (n < 0) {
+            System.arraycopy(src, off, dst, dstOff + 2, len);
+            n = len | STORED;
+        }
+        dst[dstOff] = (byte) n;
+        dst[dstOff + 1] = (byte) (n >>> 8);
+        return 2 + (n & ~STORED);
+    }
+
+    /**
+     * Decodes a whole stream
+     *
+     * @param length
+     *            Length of the decoded file
+     * @return Decoded file
+     * @throws IOException
+     *             if the stream is damaged or does not decode to length bytes
+     */
+    public static byte[] decompress(byte[] src, int off, int len, int length) throws IOException {
+        final byte[] dst = new byte[length];
+        final int end = off + len;
+        int s = off;
+        int d = 0;
+
+        while (s < end) {
+            if (end - s < 2)
+                throw new IOException("Stream ends in a chunk length");
+            int n = (src[s] & 0xFF) | (src[s + 1] & 0xFF) << 8;
+            s += 2;
+            int chunk = n & ~STORED;
+            if (chunk > end - s)
+                throw new IOException("Chunk of " + chunk + " bytes past the stream");
+
+            int limit = Math.min(CHUNK_SIZE, length - d);
+            if ((n & STORED) != 0) {
+                if (chunk > limit)
+                    throw new IOException("Stored chunk past the file length");
+                System.arraycopy(src, s, dst, d, chunk);
+                d += chunk;
+            } else {
+                d += decompressBlock(src, s, chunk, dst, d, limit);
+            }
+            s += chunk;
+        }
+        if (d != length)
+            throw new IOException("Stream decodes to " + d + " of " + length + " bytes");
+        return dst;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
@@ -0,0 +1,191 @@
+package ar.com.exo.parkingnfc.transfer;
+
+import android.nfc.FormatException;
+
+import com.nxp.crypto.CRC32Calculator;
+import com.nxp.exceptions.CommandNotSupportedException;
+import com.nxp.reader.I2C_Enabled_Commands;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * What {@link FileTransfer} and {@link WindowedTransfer} share: the choice
+ * of sending a file compressed, the pass over the file for its checksum and
+ * CRC-32, and the statistics of the last transfer.
+ */
+public abstract class Transfer {
+
+    public static final int DEFAULT_FRAME_TIMEOUT = 100;
+
+    final I2C_Enabled_Commands channel;
+    final CRC32Calculator crc32 = new CRC32Calculator();
+    int frameTimeout = DEFAULT_FRAME_TIMEOUT;
+    private boolean compression;
+
+    long bytesSent;
+    long framesSent;
+    private long elapsedNanos;
+    private boolean compressed;
+
+    Transfer(I2C_Enabled_Commands channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Sets how long to wait for the I2C side to read a package
+     *
+     * @param timeoutMS
+     *            Timeout in milliseconds
+     */
+    public void setFrameTimeout(int timeoutMS) {
+        this.frameTimeout = timeoutMS;
+    }
+
+    /**
+     * Sets whether the file is sent compressed when that saves packages, the
+     * firmware has to support the header extension
+     */
+    public void setCompression(boolean enable) {
+        this.compression = enable;
+    }
+
+    /**
+     * Sends a file
+     *
+     * @param source
+     *            File to send
+     * @param listener
+     *            Informed of the progress, may be null
+     */
+    public void send(TransferSource source, TransferListener listener) throws IOException,
+            FormatException, TimeoutException, CommandNotSupportedException {
+        compressed = false;
+        bytesSent = 0;
+        framesSent = 0;
+        elapsedNanos = 0;
+        resetStats();
+        final long start = System.nanoTime();
+
+        try {
+            if (compression) {
+                CompressedSource stream = CompressedSource.of(source);
+                if (packages(stream.length()) < packages(source.length())) {
+                    compressed = true;
+                    if (send(stream, stream, listener))
+                        return;
+                    compressed = false;
+                }
+            }
+            send(source, null, listener);
+        } finally {
+            elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Sends a file or its compressed stream
+     *
+     * @param stream
+     *            Same as source if it is compressed, null if it is not. The
+     *            header then carries the file checksum and the CRC-32 of the
+     *            decoded file, see {@link TransferHeader}
+     * @return false if the sensor does not decode the stream and said so
+     *         before any package was sent, the file is then sent as it is
+     */
+    abstract boolean send(TransferSource source, CompressedSource stream, TransferListener listener)
+            throws IOException, FormatException, TimeoutException, CommandNotSupportedException;
+
+    /**
+     * Clears the statistics of a subclass before a transfer
+     */
+    abstract void resetStats();
+
+    /**
+     * Returns the packages a file of a length takes
+     */
+    abstract long packages(long length);
+
+    /**
+     * Reads a file once for its checksum, and its CRC-32 when asked for
+     *
+     * @param buffer
+     *            Buffer to read into
+     * @return File checksum as returned by {@link TransferHeader#fileChecksum}
+     */
+    int fileChecksum(TransferSource source, byte[] buffer, boolean withCrc32) throws IOException {
+        int checksum = 0;
+        crc32.reset();
+
+        try (InputStream in = source.open()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                checksum = TransferHeader.fileChecksum(checksum, buffer, 0, read);
+                if (withCrc32)
+                    crc32.update(buffer, 0, read);
+            }
+        }
+        return checksum;
+    }
+
+    static void readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            int read = in.read(b, off, end - off);
+            if (read == -1)
+                throw new EOFException("Transfer source ended before its length");
+            off += read;
+        }
+    }
+
+    /**
+     * Returns the CRC-32 of the last file sent, if it was computed
+     */
+    public long getCrc32() {
+        return crc32.getValue();
+    }
+
+    /**
+     * Returns whether the last file was sent compressed
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Returns the payload bytes sent by the last transfer, repeats not
+     * counted, the bytes of the stream if it was compressed
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Returns the SRAM frames written by the last transfer, headers and
+     * repeats included
+     */
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    /**
+     * Returns the duration of the last transfer, the passes over the file
+     * included
+     *
+     * @return Duration in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the sustained payload throughput of the last transfer
+     *
+     * @return Bytes per second
+     */
+    public double getBytesPerSecond() {
+        return elapsedNanos > 0 ? bytesSent * 1e9 / elapsedNanos : 0;
+    }
+}
@@ -0,0 +1,35 @@
+package ar.com.exo.parkingnfc.transfer;
+
+/**
+ * Progress of a file transfer: the last package the sensor read from the
+ * SRAM and the file checksum of the packages up to it.
+ */
+public final class TransferCheckpoint {
+
+    private final long packageNumber;
+    private final int checksum;
+
+    /**
+     * @param packageNumber
+     *            Last acknowledged data package, the first one is 1
+     * @param checksum
+     *            Running file checksum of the packages 1 to packageNumber
+     */
+    public TransferCheckpoint(long packageNumber, int checksum) {
+        this.packageNumber = packageNumber;
+        this.checksum = checksum;
+    }
+
+    public long getPackageNumber() {
+        return packageNumber;
+    }
+
+    public int getChecksum() {
+        return checksum;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferCheckpoint[" + packageNumber + ", " + checksum + "]";
+    }
+}
@@ -0,0 +1,185 @@
+package ar.com.exo.parkingnfc.transfer;
+
+import java.util.Arrays;
+
+/**
+ * Layout of the 0xF0 file transfer header.
+ *
+ * <pre>
+ * [0]      0xF0
+ * [1..4]   package number (LE32)
+ * [5..8]   amount of transfer, number of data packages (LE32)
+ * [9..10]  file checksum (LE16)
+ * [11]     package checksum, two's complement of the sum of [0..10]
+ * </pre>
+ *
+ * Optional extension, ignored by firmware that does not know it:
+ *
+ * <pre>
+ * [12]     flags, bit 0: CRC32 present, bit 1: windowed transfer,
+ *          bit 2: compressed
+ * [13..16] CRC-32 of the file (LE32)
+ * [17..20] file length in bytes (LE32)
+ * [21]     window asked for, packages sent before an acknowledge, see
+ *          {@link WindowedTransfer}
+ * [22..25] length of the decoded file in bytes (LE32)
+ * [63]     extension checksum, two's complement of the sum of [12..62]
+ * </pre>
+ *
+ * The rest of the frame is zero. In a compressed transfer the packages carry
+ * the {@link Lz4Codec} stream, the package count and the file length are
+ * the ones of the stream. The file checksum and the CRC-32 are the ones of
+ * the decoded file, so firmware without LZ4 support, which ignores the
+ * flag, finds them wrong instead of storing the stream as the file.
+ *
+ * The sender only relies on the sensor decoding the stream once it said so:
+ * in a windowed transfer the acknowledge of the header carries the flag
+ * back, see {@link WindowAck}, and a plain transfer ends with a
+ * CMD_SEND_OK from the sensor, see {@link FileTransfer}.
+ */
+public final class TransferHeader {
+
+    public static final byte FILE_COMMAND = (byte) 0xF0;
+
+    static final int PACKAGE_NUMBER = 1;
+    static final int PACKAGE_COUNT = 5;
+    static final int FILE_CHECKSUM = 9;
+    static final int PACKAGE_CHECKSUM = 11;
+    static final int FLAGS = 12;
+    static final int CRC32 = 13;
+    static final int FILE_LENGTH = 17;
+    static final int WINDOW = 21;
+    static final int ORIGINAL_LENGTH = 22;
+    static final int EXTENSION_CHECKSUM = 63;
+
+    public static final int FLAG_CRC32 = 0x01;
+    public static final int FLAG_WINDOW = 0x02;
+    public static final int FLAG_COMPRESSED = 0x04;
+
+    private TransferHeader() {
+    }
+
+    /**
+     * Fills a frame with a file transfer header
+     *
+     * @param frame
+     *            SRAM frame to fill, the whole frame is overwritten
+     * @param packageNumber
+     *            Number of the first package that follows the header
+     * @param packageCount
+     *            Number of data packages of the file
+     * @param fileChecksum
+     *            File checksum as returned by {@link #fileChecksum}
+     */
+    public static void encode(byte[] frame, long packageNumber, long packageCount, int fileChecksum) {
+        Arrays.fill(frame, (byte) 0x00);
+
+        frame[0] = FILE_COMMAND;
+        putLE32(frame, PACKAGE_NUMBER, packageNumber);
+        putLE32(frame, PACKAGE_COUNT, packageCount);
+        frame[FILE_CHECKSUM] = (byte) (fileChecksum & 0xFF);
+        frame[FILE_CHECKSUM + 1] = (byte) ((fileChecksum >>> 8) & 0xFF);
+        frame[PACKAGE_CHECKSUM] = checkByte(frame, 0, PACKAGE_CHECKSUM);
+    }
+
+    /**
+     * Fills a frame with a file transfer header that also carries the CRC-32
+     * and the length of the file
+     *
+     * @param crc32
+     *            CRC-32 of the file as returned by CRC32Calculator.getValue()
+     * @param length
+     *            File length in bytes
+     */
+    public static void encode(byte[] frame, long packageNumber, long packageCount, int fileChecksum,
+            long crc32, long length) {
+        if (frame.length <= EXTENSION_CHECKSUM)
+            throw new IllegalArgumentException("Header extension needs a 64 byte frame");
+
+        encode(frame, packageNumber, packageCount, fileChecksum);
+
+        frame[FLAGS] = FLAG_CRC32;
+        putLE32(frame, CRC32, crc32);
+        putLE32(frame, FILE_LENGTH, length);
+        frame[EXTENSION_CHECKSUM] = checkByte(frame, FLAGS, EXTENSION_CHECKSUM - FLAGS);
+    }
+
+    /**
+     * Asks for a windowed transfer in a header with the extension
+     *
+     * @param window
+     *            Packages to send before an acknowledge, 1 to 255
+     */
+    public static void setWindow(byte[] frame, int window) {
+        if (window < 1 || window > 0xFF)
+            throw new IllegalArgumentException("Window of " + window + " packages");
+
+        frame[FLAGS] |= FLAG_WINDOW;
+        frame[WINDOW] = (byte) window;
+        frame[EXTENSION_CHECKSUM] = checkByte(frame, FLAGS, EXTENSION_CHECKSUM - FLAGS);
+    }
+
+    /**
+     * Marks a header with the extension as compressed
+     *
+     * @param originalLength
+     *            Length of the decoded file in bytes
+     */
+    public static void setCompressed(byte[] frame, long originalLength) {
+        frame[FLAGS] |= FLAG_COMPRESSED;
+        putLE32(frame, ORIGINAL_LENGTH, originalLength);
+        frame[EXTENSION_CHECKSUM] = checkByte(frame, FLAGS, EXTENSION_CHECKSUM - FLAGS);
+    }
+
+    /**
+     * Checks the package checksum of a header, and the extension checksum if
+     * flags are set
+     */
+    public static boolean isValid(byte[] frame) {
+        if (frame[0] != FILE_COMMAND || checkByte(frame, 0, PACKAGE_CHECKSUM) != frame[PACKAGE_CHECKSUM])
+            return false;
+        return frame[FLAGS] == 0 || (frame.length > EXTENSION_CHECKSUM
+                && checkByte(frame, FLAGS, EXTENSION_CHECKSUM - FLAGS) == frame[EXTENSION_CHECKSUM]);
+    }
+
+    /**
+     * Adds data to a running file checksum.
+     *
+     * The sensor firmware expects the signed sum of the file bytes, only the
+     * lower 16 bits are sent.
+     *
+     * @param checksum
+     *            Running checksum, 0 for the first call
+     * @return Updated checksum
+     */
+    public static int fileChecksum(int checksum, byte[] data, int off, int len) {
+        for (int i = off; i < off + len; i++)
+            checksum += data[i];
+        return checksum;
+    }
+
+    /**
+     * Returns the two's complement of the sum of a range, so that the range
+     * plus the check byte adds up to zero
+     */
+    static byte checkByte(byte[] frame, int off, int len) {
+        byte sum = 0x00;
+        for (int i = off; i < off + len; i++)
+            sum += frame[i];
+        return (byte) (~sum + 1);
+    }
+
+    static void putLE32(byte[] frame, int off, long value) {
+        frame[off] = (byte) (value & 0xFF);
+        frame[off + 1] = (byte) ((value >>> 8) & 0xFF);
+        frame[off + 2] = (byte) ((value >>> 16) & 0xFF);
+        frame[off + 3] = (byte) ((value >>> 24) & 0xFF);
+    }
+
+    static long getLE32(byte[] frame, int off) {
+        return (frame[off] & 0xFFL)
+                | (frame[off + 1] & 0xFFL) << 8
+                | (frame[off + 2] & 0xFFL) << 16
+                | (frame[off + 3] & 0xFFL) << 24;
+    }
+}
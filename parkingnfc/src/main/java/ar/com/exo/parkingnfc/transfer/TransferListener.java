@@ -0,0 +1,13 @@
+package ar.com.exo.parkingnfc.transfer;
+
+public interface TransferListener {
+    /**
+     * It informs the listener about the progress of a file transfer
+     *
+     * @param bytesSent
+     *            Payload bytes written to the tag so far
+     * @param bytesTotal
+     *            Payload length
+     */
+    void onTransferProgress(long bytesSent, long bytesTotal);
+}
@@ -0,0 +1,147 @@
+package ar.com.exo.parkingnfc.transfer;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Payload of a file transfer.
+ *
+ * The header has to carry the file checksum before the first package is
+ * sent, so a source must be readable more than once. Every call to
+ * {@link #open()} returns a new stream positioned at the beginning.
+ */
+public abstract class TransferSource implements Closeable {
+
+    /**
+     * Returns the payload length in bytes
+     */
+    public abstract long length();
+
+    /**
+     * Opens a new stream over the payload
+     */
+    public abstract InputStream open() throws IOException;
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    public static TransferSource of(byte[] data) {
+        return of(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Source backed by the remaining bytes of a buffer, the buffer position
+     * is left untouched
+     */
+    public static TransferSource of(final ByteBuffer buffer) {
+        final ByteBuffer data = buffer.slice();
+
+        return new TransferSource() {
+            @Override
+            public long length() {
+                return data.remaining();
+            }
+
+            @Override
+            public InputStream open() {
+                return new ByteBufferInputStream(data.duplicate());
+            }
+        };
+    }
+
+    public static TransferSource of(final File file) {
+        return new TransferSource() {
+            @Override
+            public long length() {
+                return file.length();
+            }
+
+            @Override
+            public InputStream open() throws IOException {
+                return new BufferedInputStream(new FileInputStream(file));
+            }
+        };
+    }
+
+    /**
+     * Source for a stream that can only be read once. The stream is spooled
+     * to a temporary file, which is deleted when the source is closed. The
+     * stream is not closed.
+     */
+    public static TransferSource of(InputStream in) throws IOException {
+        final File spool = File.createTempFile("transfer", ".bin");
+        byte[] buffer = new byte[8192];
+
+        try (OutputStream out = new FileOutputStream(spool)) {
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+        } catch (IOException e) {
+            spool.delete();
+            throw e;
+        }
+
+        final TransferSource source = of(spool);
+        return new TransferSource() {
+            @Override
+            public long length() {
+                return source.length();
+            }
+
+            @Override
+            public InputStream open() throws IOException {
+                return source.open();
+            }
+
+            @Override
+            public void close() {
+                spool.delete();
+            }
+        };
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
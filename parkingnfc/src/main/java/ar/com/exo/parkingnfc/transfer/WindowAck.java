@@ -0,0 +1,129 @@
+package ar.com.exo.parkingnfc.transfer;
+
+import ar.com.exo.parkingnfc.ExoCommands;
+
+import java.util.Arrays;
+
+/**
+ * Acknowledge of a {@link WindowedTransfer}, written by the sensor after the
+ * header and after every package asking for it.
+ *
+ * <pre>
+ * [0]      CMD_SEND_OK if every package up to the last one received is
+ *          complete, CMD_SEND_ERROR if some are missing. Once every
+ *          package arrived, CMD_SEND_ERROR means the file failed the
+ *          checks of the sensor: file checksum, CRC-32 or length
+ * [1..4]   base, first package not received yet (LE32)
+ * [5]      window the sensor accepts
+ * [6]      header flags the sensor takes, FLAG_COMPRESSED if it decodes
+ *          the stream, see {@link TransferHeader}
+ * [7..62]  bitmap, bit i of byte 7 + i / 8 set if package base + i was
+ *          received
+ * [63]     check byte, two's complement of the sum of [0..62]
+ * </pre>
+ */
+public final class WindowAck {
+
+    static final int BASE = 1;
+    static final int WINDOW = 5;
+    static final int FLAGS = 6;
+    static final int BITMAP = 7;
+    static final int CHECK = 63;
+
+    /**
+     * Packages the bitmap can describe
+     */
+    public static final int MAX_BITS = (CHECK - BITMAP) * 8;
+
+    private final boolean ok;
+    private final long base;
+    private final int window;
+    private final int flags;
+    private final byte[] bitmap;
+
+    private WindowAck(boolean ok, long base, int window, int flags, byte[] bitmap) {
+        this.ok = ok;
+        this.base = base;
+        this.window = window;
+        this.flags = flags;
+        this.bitmap = bitmap;
+    }
+
+    /**
+     * Reads an acknowledge
+     *
+     * @return Acknowledge, null if the frame is not one or is damaged
+     */
+    public static WindowAck decode(byte[] frame) {
+        if (frame == null || frame.length <= CHECK)
+            return null;
+        if (frame[0] != ExoCommands.CMD_SEND_OK.getCode() && frame[0] != ExoCommands.CMD_SEND_ERROR.getCode())
+            return null;
+        if (TransferHeader.checkByte(frame, 0, CHECK) != frame[CHECK])
+            return null;
+
+        return new WindowAck(frame[0] == ExoCommands.CMD_SEND_OK.getCode(),
+                TransferHeader.getLE32(frame, BASE), frame[WINDOW] & 0xFF, frame[FLAGS] & 0xFF,
+                Arrays.copyOfRange(frame, BITMAP, CHECK));
+    }
+
+    /**
+     * Fills a frame with an acknowledge
+     *
+     * @param frame
+     *            SRAM frame to fill, the whole frame is overwritten
+     * @param ok
+     *            false if packages before the last one received are missing
+     * @param base
+     *            First package not received yet
+     * @param window
+     *            Window the sensor accepts
+     * @param flags
+     *            Header flags the sensor takes
+     * @param received
+     *            Received flags of the packages from base on, at most
+     *            {@link #MAX_BITS} are used
+     */
+    public static void encode(byte[] frame, boolean ok, long base, int window, int flags,
+            boolean[] received) {
+        Arrays.fill(frame, (byte) 0x00);
+
+        frame[0] = (ok ? ExoCommands.CMD_SEND_OK : ExoCommands.CMD_SEND_ERROR).getCode();
+        TransferHeader.putLE32(frame, BASE, base);
+        frame[WINDOW] = (byte) window;
+        frame[FLAGS] = (byte) flags;
+        for (int i = 0; i < Math.min(received.length, MAX_BITS); i++)
+            if (received[i])
+                frame[BITMAP + i / 8] |= 1 << (i % 8);
+        frame[CHECK] = TransferHeader.checkByte(frame, 0, CHECK);
+    }
+
+    public boolean isOk() {
+        return ok;
+    }
+
+    public long getBase() {
+        return base;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Checks whether a package was received. Packages before the base are,
+     * packages after the bitmap are not
+     */
+    public boolean isReceived(long packageNumber) {
+        if (packageNumber < base)
+            return true;
+        long i = packageNumber - base;
+        if (i >= MAX_BITS)
+            return false;
+        return (bitmap[(int) (i / 8)] & (1 << (i % 8))) != 0;
+    }
+}
@@ -0,0 +1,265 @@
+package ar.com.exo.parkingnfc.transfer;
+
+import android.nfc.FormatException;
+
+import com.nxp.exceptions.CommandNotSupportedException;
+import com.nxp.reader.I2C_Enabled_Commands;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeoutException;
+
+import ar.com.exo.parkingnfc.ExoCommands;
+
+/**
+ * Sends a file to the sensor with the windowed 0xF0 file protocol.
+ *
+ * It is a reliability mode, not a faster one. Each package carries its
+ * number and a check byte, so a damaged package is found and sent again on
+ * its own, where a plain {@link FileTransfer} only learns from the file
+ * checksum that the whole file has to be sent again. On a clean link that
+ * costs about 10 to 15 percent of the plain throughput, see
+ * TransferBenchmark: 4 KB take 69 frames instead of 64, and the same SRAM
+ * handshake per frame.
+ *
+ * The header asks for a window with {@link TransferHeader#setWindow} and the
+ * sensor answers it with a {@link WindowAck} carrying the window it accepts.
+ * Packages are then written back to back, only waiting for the I2C side to
+ * read the SRAM. The last package of a round asks for an acknowledge, whose
+ * bitmap tells which packages have to be sent again. The next round sends
+ * those first, then new packages as long as they are within a window of the
+ * first package not received yet.
+ *
+ * <pre>
+ * [0..3]   package number (LE32), bit 31 set to ask for an acknowledge
+ * [4..62]  payload, the last package padded with zeros
+ * [63]     check byte, two's complement of the sum of [0..62]
+ * </pre>
+ *
+ * The header always carries the CRC-32 and the length of the file, its
+ * package count is the number of windowed packages. With
+ * {@link #setCompression(boolean)} the file is sent as a {@link Lz4Codec}
+ * stream when that takes fewer packages, and only if the acknowledge of the
+ * header confirms that the sensor decodes it. Otherwise a new header starts
+ * the transfer of the file as it is.
+ *
+ * {@link #send} throws a CommandNotSupportedException if the sensor does not
+ * answer the windowed header, it may still take a plain {@link FileTransfer},
+ * and an IOException if the last acknowledge reports that the file failed
+ * the checks of the sensor.
+ */
+public class WindowedTransfer extends Transfer {
+
+    public static final int DEFAULT_WINDOW = 16;
+    public static final int DEFAULT_ACK_TIMEOUT = 500;
+
+    /**
+     * Payload bytes of a package
+     */
+    public static final int PAYLOAD = 59;
+
+    /**
+     * Acknowledges in a row that may come without progress before the
+     * transfer fails
+     */
+    public static final int MAX_STALLED_ROUNDS = 4;
+
+    static final int NUMBER = 0;
+    static final int DATA = 4;
+    static final int CHECK = 63;
+    static final long ACK_REQUEST = 0x80000000L;
+
+    private final byte[] frame = new byte[ExoCommands.FRAME_SIZE];
+    private int window = DEFAULT_WINDOW;
+    private int ackTimeout = DEFAULT_ACK_TIMEOUT;
+
+    private int acceptedWindow;
+    private long packagesResent;
+    private long acksRead;
+
+    public WindowedTransfer(I2C_Enabled_Commands channel) {
+        super(channel);
+        if (channel.getSRAMSize() < ExoCommands.FRAME_SIZE)
+            throw new IllegalArgumentException("Windowed transfers need a 64 byte SRAM");
+    }
+
+    /**
+     * Sets the window to ask for, the sensor may accept a smaller one
+     *
+     * @param packages
+     *            Packages sent before an acknowledge, 1 to 255
+     */
+    public void setWindow(int packages) {
+        if (packages < 1 || packages > 0xFF)
+            throw new IllegalArgumentException("Window of " + packages + " packages");
+        this.window = packages;
+    }
+
+    /**
+     * Sets how long to wait for an acknowledge, a missing one sends the
+     * packages of the round again
+     *
+     * @param timeoutMS
+     *            Timeout in milliseconds
+     */
+    public void setAckTimeout(int timeoutMS) {
+        this.ackTimeout = timeoutMS;
+    }
+
+    @Override
+    boolean send(TransferSource source, CompressedSource stream, TransferListener listener)
+            throws IOException, FormatException, TimeoutException, CommandNotSupportedException {
+        final long length = source.length();
+        final long packages = packages(length);
+        final int fileChecksum = fileChecksum(source, frame, true);
+
+        try (InputStream in = source.open()) {
+            if (stream != null) {
+                TransferHeader.encode(frame, 1, packages, stream.getFileChecksum(), stream.getCrc32(),
+                        length);
+                TransferHeader.setCompressed(frame, stream.getOriginalLength());
+            } else {
+                TransferHeader.encode(frame, 1, packages, fileChecksum, crc32.getValue(), length);
+            }
+            TransferHeader.setWindow(frame, window);
+            writeFrame();
+
+            WindowAck ack = readAck();
+            if (ack == null || ack.getWindow() < 1)
+                throw new CommandNotSupportedException("Sensor does not take windowed transfers");
+            if (stream != null && (ack.getFlags() & TransferHeader.FLAG_COMPRESSED) == 0)
+                return false;
+
+            // frames of the packages from base on, a package keeps its slot
+            // until it is acknowledged
+            final int capacity = Math.min(window, ack.getWindow());
+            final byte[] ring = new byte[capacity * ExoCommands.FRAME_SIZE];
+            final long[] round = new long[capacity];
+            int w = capacity;
+            acceptedWindow = w;
+
+            long base = 1;
+            long next = 1;
+            int stalled = 0;
+
+            while (base <= packages) {
+                int n = 0;
+                for (long p = base; p < next && n < w; p++)
+                    if (ack == null || !ack.isReceived(p))
+                        round[n++] = p;
+                final long fresh = next;
+                while (n < w && next <= packages && next < base + w) {
+                    readPackage(in, next, length, ring, capacity);
+                    round[n++] = next++;
+                }
+
+                for (int i = 0; i < n; i++) {
+                    System.arraycopy(ring, slot(round[i], capacity), frame, 0, ExoCommands.FRAME_SIZE);
+                    if (i == n - 1)
+                        setNumber(frame, round[i] | ACK_REQUEST);
+                    writeFrame();
+                    if (round[i] < fresh)
+                        packagesResent++;
+                }
+
+                ack = readAck();
+                if (ack != null && ack.getBase() > base) {
+                    base = Math.min(ack.getBase(), next);
+                    stalled = 0;
+                    if (listener != null)
+                        listener.onTransferProgress(Math.min(length, (base - 1) * PAYLOAD), length);
+                } else if (++stalled > MAX_STALLED_ROUNDS) {
+                    throw new IOException("No progress after " + stalled + " acknowledges at package " + base);
+                }
+                if (ack != null && ack.getWindow() >= 1)
+                    w = Math.min(capacity, ack.getWindow());
+            }
+
+            // every package arrived, the last acknowledge tells whether the
+            // file passed the checks of the sensor
+            if (!ack.isOk())
+                throw new IOException("Sensor rejected the file");
+        }
+        return true;
+    }
+
+    private void writeFrame() throws IOException, FormatException, TimeoutException,
+            CommandNotSupportedException {
+        channel.waitforI2Cread(frameTimeout);
+        channel.writeSRAMBlock(frame, null);
+        framesSent++;
+    }
+
+    /**
+     * Waits for the acknowledge of the sensor
+     *
+     * @return Acknowledge, null if none came or it was damaged
+     */
+    private WindowAck readAck() throws IOException, FormatException, CommandNotSupportedException {
+        try {
+            channel.waitforI2Cwrite(ackTimeout);
+        } catch (TimeoutException e) {
+            return null;
+        }
+        acksRead++;
+        return WindowAck.decode(channel.readSRAMBlock(null));
+    }
+
+    /**
+     * Reads the next package of the file into its slot
+     */
+    private void readPackage(InputStream in, long packageNumber, long length, byte[] ring, int capacity)
+            throws IOException {
+        int off = slot(packageNumber, capacity);
+        int len = (int) Math.min(PAYLOAD, length - (packageNumber - 1) * PAYLOAD);
+
+        Arrays.fill(ring, off, off + ExoCommands.FRAME_SIZE, (byte) 0x00);
+        readFully(in, ring, off + DATA, len);
+        TransferHeader.putLE32(ring, off + NUMBER, packageNumber);
+        ring[off + CHECK] = TransferHeader.checkByte(ring, off, CHECK);
+        bytesSent += len;
+    }
+
+    @Override
+    void resetStats() {
+        acceptedWindow = 0;
+        packagesResent = 0;
+        acksRead = 0;
+    }
+
+    @Override
+    long packages(long length) {
+        return (length + PAYLOAD - 1) / PAYLOAD;
+    }
+
+    private static int slot(long packageNumber, int capacity) {
+        return (int) ((packageNumber - 1) % capacity) * ExoCommands.FRAME_SIZE;
+    }
+
+    private static void setNumber(byte[] frame, long number) {
+        TransferHeader.putLE32(frame, NUMBER, number);
+        frame[CHECK] = TransferHeader.checkByte(frame, 0, CHECK);
+    }
+
+    /**
+     * Returns the window the sensor accepted in the last transfer
+     */
+    public int getAcceptedWindow() {
+        return acceptedWindow;
+    }
+
+    /**
+     * Returns the packages the last transfer sent more than once
+     */
+    public long getPackagesResent() {
+        return packagesResent;
+    }
+
+    /**
+     * Returns the acknowledges read by the last transfer
+     */
+    public long getAcksRead() {
+        return acksRead;
+    }
+}
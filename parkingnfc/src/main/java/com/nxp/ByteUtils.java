@@ -1,25 +1,103 @@
 package com.nxp;
 
+import java.io.IOException;
+import java.util.Arrays;
+
 public class ByteUtils {
     private final static char[] hexArray = "0123456789ABCDEF".toCharArray();
 
-    public static String bytesToHex(byte[] bytes) {
-        char[] hexChars = new char[bytes.length * 2];
-        for ( int j = 0; j < bytes.length; j++ ) {
-            int v = bytes[j] & 0xFF;
-            hexChars[j * 2] = hexArray[v >>> 4];
-            hexChars[j * 2 + 1] = hexArray[v & 0x0F];
+    // value of every ASCII hex digit, -1 for the other characters
+    private final static byte[] hexValues = new byte[128];
+
+    static {
+        Arrays.fill(hexValues, (byte) -1);
+        for (int i = 0; i < 10; i++)
+            hexValues['0' + i] = (byte) i;
+        for (int i = 0; i < 6; i++) {
+            hexValues['A' + i] = (byte) (10 + i);
+            hexValues['a' + i] = (byte) (10 + i);
         }
+    }
+
+    public static String bytesToHex(byte[] bytes) {
+        return bytesToHex(bytes, 0, bytes.length);
+    }
+
+    public static String bytesToHex(byte[] bytes, int off, int len) {
+        char[] hexChars = new char[len * 2];
+        encodeHex(bytes, off, len, hexChars, 0);
         return new String(hexChars);
     }
 
+    /**
+     * Writes len bytes as hex digits into dst, which needs room for len * 2
+     * characters from dstOff
+     *
+     * @return Number of characters written
+     */
+    public static int encodeHex(byte[] src, int off, int len, char[] dst, int dstOff) {
+        for (int j = 0; j < len; j++) {
+            int v = src[off + j] & 0xFF;
+            dst[dstOff + j * 2] = hexArray[v >>> 4];
+            dst[dstOff + j * 2 + 1] = hexArray[v & 0x0F];
+        }
+        return len * 2;
+    }
+
+    public static StringBuilder appendHex(StringBuilder out, byte[] src, int off, int len) {
+        out.ensureCapacity(out.length() + len * 2);
+        for (int j = off; j < off + len; j++) {
+            int v = src[j] & 0xFF;
+            out.append(hexArray[v >>> 4]).append(hexArray[v & 0x0F]);
+        }
+        return out;
+    }
+
+    public static Appendable appendHex(Appendable out, byte[] src, int off, int len) throws IOException {
+        if (out instanceof StringBuilder)
+            return appendHex((StringBuilder) out, src, off, len);
+
+        for (int j = off; j < off + len; j++) {
+            int v = src[j] & 0xFF;
+            out.append(hexArray[v >>> 4]).append(hexArray[v & 0x0F]);
+        }
+        return out;
+    }
+
     public static byte[] hexToBytes(String s) {
         int len = s.length();
+        if ((len & 1) != 0)
+            throw new IllegalArgumentException("Odd number of hex digits: " + len);
+
         byte[] data = new byte[len / 2];
+        decodeHex(s, 0, len, data, 0);
+        return data;
+    }
+
+    /**
+     * Reads len hex digits from src into dst
+     *
+     * @return Number of bytes written
+     * @throws IllegalArgumentException
+     *             if len is odd or a character is not a hex digit
+     */
+    public static int decodeHex(CharSequence src, int off, int len, byte[] dst, int dstOff) {
+        if ((len & 1) != 0)
+            throw new IllegalArgumentException("Odd number of hex digits: " + len);
+
         for (int i = 0; i < len; i += 2) {
-            data[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4)
-                    + Character.digit(s.charAt(i+1), 16));
+            int high = hexValue(src, off + i);
+            int low = hexValue(src, off + i + 1);
+            dst[dstOff + i / 2] = (byte) (high << 4 | low);
         }
-        return data;
+        return len / 2;
+    }
+
+    private static int hexValue(CharSequence src, int index) {
+        char c = src.charAt(index);
+        int v = c < 128 ? hexValues[c] : -1;
+        if (v < 0)
+            throw new IllegalArgumentException("Not a hex digit '" + c + "' at " + index);
+        return v;
     }
 }
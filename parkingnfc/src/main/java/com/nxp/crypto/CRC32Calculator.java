@@ -27,26 +27,113 @@
 */
 package com.nxp.crypto;
 
+import java.nio.ByteBuffer;
+
+/**
+ * CRC-32 (IEEE 802.3, reflected polynomial 0xEDB88320), slicing-by-8.
+ * 
+ * An instance checksums data incrementally, {@link #getValue()} returns the
+ * standard CRC-32 as computed by java.util.zip.CRC32. The static
+ * {@link #CRC32(byte[])} keeps its old result, the register without the
+ * final inversion.
+ */
 public class CRC32Calculator {
-	public static byte[] CRC32(byte[] arg) {
-		int crc = 0xFFFFFFFF; // initial contents of LFBSR
-		int poly = 0xEDB88320; // reverse polynomial
-
-		for (byte b : arg) {
-			int temp = (crc ^ b) & 0xff;
-
-			// read 8 bits one at a time
-			for (int i = 0; i < 8; i++) {
-				if ((temp & 1) == 1)
-					temp = (temp >>> 1) ^ poly;
-				else
-					temp = (temp >>> 1);
+	private static final int POLY = 0xEDB88320; // reverse polynomial
+
+	private static final int[][] TABLE = new int[8][256];
+
+	static {
+		for (int n = 0; n < 256; n++) {
+			int c = n;
+			for (int i = 0; i < 8; i++)
+				c = (c & 1) != 0 ? (c >>> 1) ^ POLY : c >>> 1;
+			TABLE[0][n] = c;
+		}
+		for (int k = 1; k < 8; k++) {
+			for (int n = 0; n < 256; n++) {
+				int c = TABLE[k - 1][n];
+				TABLE[k][n] = (c >>> 8) ^ TABLE[0][c & 0xFF];
 			}
+		}
+	}
+
+	private int crc = 0xFFFFFFFF; // initial contents of LFBSR
+	private byte[] scratch;
+
+	public static byte[] CRC32(byte[] arg) {
+		return integerToByteArray(update(0xFFFFFFFF, arg, 0, arg.length));
+	}
+
+	/**
+	 * Adds a byte to the checksum
+	 */
+	public void update(int b) {
+		crc = (crc >>> 8) ^ TABLE[0][(crc ^ b) & 0xFF];
+	}
+
+	public void update(byte[] b) {
+		crc = update(crc, b, 0, b.length);
+	}
 
-			crc = (crc >>> 8) ^ temp;
+	public void update(byte[] b, int off, int len) {
+		if (off < 0 || len < 0 || off + len > b.length)
+			throw new ArrayIndexOutOfBoundsException();
+		crc = update(crc, b, off, len);
+	}
+
+	/**
+	 * Adds the remaining bytes of a buffer to the checksum, the buffer is
+	 * left at its limit
+	 */
+	public void update(ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			int pos = buffer.position();
+			int len = buffer.remaining();
+			crc = update(crc, buffer.array(), buffer.arrayOffset() + pos, len);
+			buffer.position(pos + len);
+			return;
+		}
+
+		if (scratch == null)
+			scratch = new byte[512];
+		while (buffer.hasRemaining()) {
+			int len = Math.min(scratch.length, buffer.remaining());
+			buffer.get(scratch, 0, len);
+			crc = update(crc, scratch, 0, len);
+		}
+	}
+
+	/**
+	 * Returns the CRC-32 of the data added since the last reset
+	 */
+	public long getValue() {
+		return ~crc & 0xFFFFFFFFL;
+	}
+
+	public void reset() {
+		crc = 0xFFFFFFFF;
+	}
+
+	private static int update(int crc, byte[] b, int off, int len) {
+		int i = off;
+		int end = off + len;
+
+		for (; i + 8 <= end; i += 8) {
+			int one = ((b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8
+					| (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24) ^ crc;
+			int two = (b[i + 4] & 0xFF) | (b[i + 5] & 0xFF) << 8
+					| (b[i + 6] & 0xFF) << 16 | (b[i + 7] & 0xFF) << 24;
+
+			crc = TABLE[7][one & 0xFF] ^ TABLE[6][(one >>> 8) & 0xFF]
+					^ TABLE[5][(one >>> 16) & 0xFF] ^ TABLE[4][one >>> 24]
+					^ TABLE[3][two & 0xFF] ^ TABLE[2][(two >>> 8) & 0xFF]
+					^ TABLE[1][(two >>> 16) & 0xFF] ^ TABLE[0][two >>> 24];
 		}
 
-		return integerToByteArray(crc);
+		for (; i < end; i++)
+			crc = (crc >>> 8) ^ TABLE[0][(crc ^ b[i]) & 0xFF];
+
+		return crc;
 	}
 
 	public static byte[] integerToByteArray(int i) {
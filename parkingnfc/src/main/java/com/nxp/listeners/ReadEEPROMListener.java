@@ -0,0 +1,18 @@
+package com.nxp.listeners;
+
+public interface ReadEEPROMListener {
+	/**
+	 * It informs the listener about a chunk read from the EEPROM, as soon as
+	 * it arrives. The buffer is only valid during the call
+	 * 
+	 * @param data
+	 *            Buffer holding the chunk
+	 * @param off
+	 *            Offset of the chunk in data
+	 * @param len
+	 *            Length of the chunk
+	 * @param position
+	 *            Offset of the chunk from the start of the read
+	 */
+    public abstract void onReadEEPROM(byte[] data, int off, int len, int position);
+}
@@ -30,18 +30,21 @@ package com.nxp.reader;
 import android.nfc.FormatException;
 import android.nfc.NdefMessage;
 import android.nfc.Tag;
-import android.nfc.tech.MifareUltralight;
-import android.nfc.tech.NfcA;
 
 import com.nxp.exceptions.CC_differException;
 import com.nxp.exceptions.CommandNotSupportedException;
 import com.nxp.exceptions.DynamicLockBitsException;
 import com.nxp.exceptions.NotPlusTagException;
 import com.nxp.exceptions.StaticLockBitsException;
+import com.nxp.listeners.ReadEEPROMListener;
 import com.nxp.listeners.ReadSRAMListener;
 import com.nxp.listeners.WriteEEPROMListener;
 import com.nxp.listeners.WriteSRAMListener;
+import com.nxp.reader.Ntag_Capability_Cache.Reader;
 import com.nxp.reader.Ntag_Get_Version.Prod;
+import com.nxp.transport.MifareUltralightTransport;
+import com.nxp.transport.NfcATransport;
+import com.nxp.transport.TagTransport;
 
 import java.io.IOException;
 import java.util.concurrent.TimeoutException;
@@ -53,6 +56,9 @@ public abstract class I2C_Enabled_Commands {
 	 * This distinction is needed because in the field we can find old NFC Phones that do not support 
 	 * Sector Select or Get Version commands
 	 * 
+	 * What was found is kept in {@link Ntag_Capability_Cache#getGlobal()}, a
+	 * Tag tapped before is not probed again
+	 * 
 	 * @param tag
 	 * @return
 	 * @throws IOException
@@ -60,145 +66,250 @@ public abstract class I2C_Enabled_Commands {
 	 */
 	public static I2C_Enabled_Commands get(Tag tag) throws IOException,
             InterruptedException {
-		byte[] answer;
-		byte[] command = new byte[2];
+		return get(NfcATransport.get(tag), MifareUltralightTransport.get(tag),
+				tag.getId(), Ntag_Capability_Cache.getGlobal());
+	}
 
-		NfcA nfca = NfcA.get(tag);
-		Prod prod;
+	/**
+	 * Same as {@link #get(Tag)} over transports, e.g. a model of the Tag,
+	 * probing every time
+	 * 
+	 * @param nfca
+	 *            Transport for the raw commands
+	 * @param mfu
+	 *            Transport which reads and writes pages
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static I2C_Enabled_Commands get(TagTransport nfca, TagTransport mfu)
+			throws IOException, InterruptedException {
+		return get(nfca, mfu, null, null);
+	}
+
+	/**
+	 * Same as {@link #get(Tag)} over transports with a cache
+	 * 
+	 * The probe keeps one connection as long as the Tag answers, it only
+	 * reconnects after a refused command. With the reader of the phone and
+	 * the product of the Tag in the cache the Tag is not accessed at all,
+	 * with only the reader one GET_VERSION is sent.
+	 * 
+	 * @param nfca
+	 *            Transport for the raw commands
+	 * @param mfu
+	 *            Transport which reads and writes pages
+	 * @param uid
+	 *            UID of the Tag, null if not known
+	 * @param cache
+	 *            Results of earlier probes, null to probe every time
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static I2C_Enabled_Commands get(TagTransport nfca, TagTransport mfu,
+			byte[] uid, Ntag_Capability_Cache cache) throws IOException,
+			InterruptedException {
+		return probe(nfca, mfu, uid, cache, false);
+	}
+
+	/**
+	 * Same as {@link #get(TagTransport, TagTransport, byte[], Ntag_Capability_Cache)}
+	 * but returns a connected session. The connection of the GET_VERSION
+	 * probe is kept for the session instead of being closed and opened again.
+	 * 
+	 * @param nfca
+	 *            Transport for the raw commands
+	 * @param mfu
+	 *            Transport which reads and writes pages
+	 * @param uid
+	 *            UID of the Tag, null if not known
+	 * @param cache
+	 *            Results of earlier probes, null to probe every time
+	 * @return Connected session
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static I2C_Enabled_Commands open(TagTransport nfca, TagTransport mfu,
+			byte[] uid, Ntag_Capability_Cache cache) throws IOException,
+			InterruptedException {
+		String device = Ntag_Capability_Cache.getDeviceKey();
+		boolean cached = cache != null && cache.getReader(device) != null
+				&& cache.getVersion(uid) != null;
+
+		I2C_Enabled_Commands channel = probe(nfca, mfu, uid, cache, true);
+		if (!channel.isConnected()) {
+			try {
+				channel.connect();
+			} catch (IOException e) {
+				if (!cached)
+					throw e;
+				// the cached implementation did not work, probe again
+				cache.removeReader(device);
+				cache.removeVersion(uid);
+				channel = probe(nfca, mfu, uid, cache, true);
+				if (!channel.isConnected())
+					channel.connect();
+			}
+		}
+		return channel;
+	}
+
+	/**
+	 * @param keepConnected
+	 *            true to leave NfcA connected after a successful GET_VERSION
+	 */
+	private static I2C_Enabled_Commands probe(TagTransport nfca,
+			TagTransport mfu, byte[] uid, Ntag_Capability_Cache cache,
+			boolean keepConnected) throws IOException, InterruptedException {
+		String device = Ntag_Capability_Cache.getDeviceKey();
+		Reader reader = cache != null ? cache.getReader(device) : null;
+		Ntag_Get_Version version = cache != null ? cache.getVersion(uid) : null;
 
 		// Check for support of setTimout to be able to send an efficient
 		// sector_select - select minimal implementation if not supported
-		nfca.setTimeout(20);
-		// check for timeout
-		if (nfca.getTimeout() < 50) {		
-			// check if GetVersion is supported
-			try {
-				nfca.connect();
-				command = new byte[1];
-				command[0] = (byte) 0x60; // GET_VERSION
-				answer = nfca.transceive(command);
-
-				prod = (new Ntag_Get_Version(answer)).Get_Product();
-				
-				nfca.close();
-				if (prod == Prod.NTAG_I2C_1k || prod == Prod.NTAG_I2C_2k
-						|| prod == Prod.NTAG_I2C_1k_T || prod == Prod.NTAG_I2C_2k_T
-						|| prod == Prod.NTAG_I2C_1k_V || prod == Prod.NTAG_I2C_2k_V
-						|| prod == Prod.NTAG_I2C_1k_Plus || prod == Prod.NTAG_I2C_2k_Plus) {
-					return new Ntag_I2C_Commands(tag);
-				}
-			} catch (Exception e) {
-				
-				e.printStackTrace();
-				nfca.close();
-								
-				// check if sector select is supported
+		boolean shortTimeouts = false;
+		if (nfca != null) {
+			nfca.setTimeout(20);
+			shortTimeouts = nfca.getTimeout() < 50;
+		}
+		if (reader == Reader.MINIMAL && shortTimeouts) {
+			// only a phone without short timeouts is known to need it
+			cache.removeReader(device);
+			reader = null;
+		}
+
+		if (version != null && reader == Reader.FULL)
+			return new Ntag_I2C_Commands(nfca, mfu, version);
+		if (version != null && reader == Reader.MINIMAL)
+			return new MinimalNtag_I2C_Commands(mfu, version.Get_Product());
+
+		if (reader != Reader.MINIMAL && nfca != null) {
+			if (reader == Reader.FULL || shortTimeouts) {
+				// check if GetVersion is supported
 				try {
 					nfca.connect();
-					command = new byte[2];
-					command[0] = (byte) 0xC2; //SECTOR_SELECT
-					command[1] = (byte) 0xFF;
-					answer = nfca.transceive(command);
-					
-					nfca.close();
-					return new Ntag_I2C_Commands(tag);
-					
-				} catch (Exception e2) {
+					version = new Ntag_Get_Version(nfca.transceive(new byte[] { (byte) 0x60 })); // GET_VERSION
+					boolean ntag_i2c = isNtagI2C(version.Get_Product());
+					if (!ntag_i2c || !keepConnected)
+						nfca.close();
+
+					if (ntag_i2c) {
+						remember(cache, device, Reader.FULL, uid, version);
+						return new Ntag_I2C_Commands(nfca, mfu, version);
+					}
+				} catch (Exception e) {
 					e.printStackTrace();
 					nfca.close();
+
+					// check if sector select is supported
+					try {
+						nfca.connect();
+						nfca.transceive(new byte[] { (byte) 0xC2, (byte) 0xFF }); // SECTOR_SELECT
+						nfca.close();
+
+						Ntag_I2C_Commands channel = new Ntag_I2C_Commands(nfca, mfu);
+						remember(cache, device, Reader.FULL, uid, channel.get_version_response);
+						return channel;
+					} catch (Exception e2) {
+						e2.printStackTrace();
+						nfca.close();
+					}
 				}
 			}
 		}
 
 		//check if we can use the minimal Version
-		MifareUltralight mfu = MifareUltralight.get(tag);
+		Prod prod = mfu != null ? probeMinimal(mfu) : null;
+		if (prod == null)
+			return new MinimalNtag_I2C_Commands(mfu, Prod.NTAG_I2C_1k_Plus);
+
+		// The phone is only remembered as minimal if it is the cause. A
+		// failure of the raw commands with short timeouts may as well be a
+		// Tag that left the field, the next tap probes again
+		if (reader == null && !shortTimeouts)
+			remember(cache, device, Reader.MINIMAL, uid, Ntag_Get_Version.of(prod));
+		return new MinimalNtag_I2C_Commands(mfu, prod);
+	}
+
+	/**
+	 * Finds the product with MifareUltralight only
+	 * 
+	 * @return Product, null if it could not be told
+	 */
+	private static Prod probeMinimal(TagTransport mfu) throws IOException {
+		byte[] answer;
+
 		try {
 			mfu.connect();
-			command = new byte[1];
-			command[0] = (byte) 0x60; // GET_VERSION
-			answer = mfu.transceive(command);
-			prod = (new Ntag_Get_Version(answer)).Get_Product();
+			answer = mfu.transceive(new byte[] { (byte) 0x60 }); // GET_VERSION
+			Prod prod = (new Ntag_Get_Version(answer)).Get_Product();
 			mfu.close();
-			
-			if (prod == Prod.NTAG_I2C_1k || prod == Prod.NTAG_I2C_2k
-					|| prod == Prod.NTAG_I2C_1k_T || prod == Prod.NTAG_I2C_2k_T
-					|| prod == Prod.NTAG_I2C_1k_V || prod == Prod.NTAG_I2C_2k_V
-					|| prod == Prod.NTAG_I2C_1k_Plus || prod == Prod.NTAG_I2C_2k_Plus)
-				return new MinimalNtag_I2C_Commands(tag, prod);
+
+			return isNtagI2C(prod) ? prod : null;
 		} catch (Exception e) {
-            e.printStackTrace();
-            mfu.close();
-            
-            try {
-                  mfu.connect();
-                  answer = mfu.readPages(0);
-                  // no exception is thrown so the phone can use the mfu.readPages
-                  // function
-                  // also check if:
-                  // - tag is from NXP (byte 0 == 0x04)
-                  // - CC corresponds to a NTAG I2C 1K
-                  if (answer[0] == (byte) 0x04 && answer[12] == (byte) 0xE1
-                                && answer[13] == (byte) 0x10 && answer[14] == (byte) 0x6D
-                                && answer[15] == (byte) 0x00) {
-                	  // check if Config is readable (distinguish from NTAG216), if
-                      // not exception is thrown, and tag is not an
-                      // NTAG I2C 1k
-                      answer = mfu.readPages(0xE8);
-                      
-                      // Try to read session registers to differentiate between standard and PLUS products
-                	  try {	 
-                		  answer = mfu.readPages(0xEC);
-                		  mfu.close();
-                	  		
-                		  for(int i = 0; i < 4; i++) {
-                			  if(answer[i] != 0x00) {
-                				  prod = Prod.NTAG_I2C_1k_Plus;
-                				  return new MinimalNtag_I2C_Commands(tag, prod);
-                			  }
-                		  }
-                	  		
-                		  prod = Prod.NTAG_I2C_1k;
-                		  return new MinimalNtag_I2C_Commands(tag, prod);
-                	  } catch (Exception e2) {
-                		  e2.printStackTrace();
-                		  mfu.close();
-                		  prod = Prod.NTAG_I2C_1k;
-                		  return new MinimalNtag_I2C_Commands(tag, prod);
-                	  }
-                  } else if (answer[0] == (byte) 0x04 && answer[12] == (byte) 0xE1
-                                && answer[13] == (byte) 0x10 && answer[14] == (byte) 0xEA
-                                && answer[15] == (byte) 0x00) {
-                	  // Try to read session registers to differentiate between standard and PLUS products
-                	  try {	 
-                		  answer = mfu.readPages(0xEC);
-                		  mfu.close();
-                	  		
-                		  for(int i = 0; i < 4; i++) {
-                			  if(answer[i] != 0x00) {
-                				  prod = Prod.NTAG_I2C_2k_Plus;
-                				  return new MinimalNtag_I2C_Commands(tag, prod);
-                			  }
-                		  }
-                	  		
-                		  prod = Prod.NTAG_I2C_2k;
-                		  return new MinimalNtag_I2C_Commands(tag, prod);
-                	  } catch (Exception e2) {
-                		  e2.printStackTrace();
-                		  mfu.close();
-                		  prod = Prod.NTAG_I2C_2k;
-                		  return new MinimalNtag_I2C_Commands(tag, prod);
-                	  }
-                  } else {
-                	  mfu.close();
-                	  return new MinimalNtag_I2C_Commands(tag, Prod.NTAG_I2C_1k_Plus);
-                  }
-            } catch (Exception e1) {
-                  e1.printStackTrace();
-                  mfu.close();
-            }
+			e.printStackTrace();
+			mfu.close();
+		}
+
+		try {
+			mfu.connect();
+			answer = mfu.readPages(0);
+			// no exception is thrown so the phone can use the mfu.readPages
+			// function
+			// also check if:
+			// - tag is from NXP (byte 0 == 0x04)
+			// - CC corresponds to a NTAG I2C 1K or 2K
+			boolean is_1k = answer[0] == (byte) 0x04 && answer[12] == (byte) 0xE1
+					&& answer[13] == (byte) 0x10 && answer[14] == (byte) 0x6D
+					&& answer[15] == (byte) 0x00;
+			boolean is_2k = answer[0] == (byte) 0x04 && answer[12] == (byte) 0xE1
+					&& answer[13] == (byte) 0x10 && answer[14] == (byte) 0xEA
+					&& answer[15] == (byte) 0x00;
+			if (!is_1k && !is_2k) {
+				mfu.close();
+				return null;
+			}
+
+			// check if Config is readable (distinguish from NTAG216), if
+			// not exception is thrown, and tag is not an
+			// NTAG I2C 1k
+			if (is_1k)
+				mfu.readPages(0xE8);
+
+			// Try to read session registers to differentiate between standard and PLUS products
+			try {
+				answer = mfu.readPages(0xEC);
+				mfu.close();
+
+				for (int i = 0; i < 4; i++)
+					if (answer[i] != 0x00)
+						return is_1k ? Prod.NTAG_I2C_1k_Plus : Prod.NTAG_I2C_2k_Plus;
+			} catch (Exception e2) {
+				e2.printStackTrace();
+				mfu.close();
+			}
+			return is_1k ? Prod.NTAG_I2C_1k : Prod.NTAG_I2C_2k;
+		} catch (Exception e1) {
+			e1.printStackTrace();
+			mfu.close();
+			return null;
 		}
+	}
 
-		return new MinimalNtag_I2C_Commands(tag, Prod.NTAG_I2C_1k_Plus);
+	private static boolean isNtagI2C(Prod prod) {
+		return prod == Prod.NTAG_I2C_1k || prod == Prod.NTAG_I2C_2k
+				|| prod == Prod.NTAG_I2C_1k_T || prod == Prod.NTAG_I2C_2k_T
+				|| prod == Prod.NTAG_I2C_1k_V || prod == Prod.NTAG_I2C_2k_V
+				|| prod == Prod.NTAG_I2C_1k_Plus || prod == Prod.NTAG_I2C_2k_Plus;
+	}
+
+	private static void remember(Ntag_Capability_Cache cache, String device,
+			Reader reader, byte[] uid, Ntag_Get_Version version) {
+		if (cache == null)
+			return;
+		cache.putReader(device, reader);
+		cache.putVersion(uid, version);
 	}
 
 	protected int SRAMSize;
@@ -422,6 +533,70 @@ public abstract class I2C_Enabled_Commands {
 	public abstract byte getSessionRegister(SR_Offset off) throws IOException,
             FormatException, CommandNotSupportedException;
 
+	/**
+	 * Gets all Session Registers, a copy read less than maxAgeMS ago is
+	 * returned without accessing the tag
+	 * 
+	 * @param maxAgeMS
+	 *            Maximum age of the registers
+	 * @return all Session Registers, a copy the caller may modify
+	 * @throws IOException
+	 * @throws FormatException
+	 * @throws CommandNotSupportedException 
+	 */
+	public abstract byte[] getSessionRegisters(int maxAgeMS) throws IOException,
+            FormatException, CommandNotSupportedException;
+
+	/**
+	 * Gets all Config Registers, a copy read less than maxAgeMS ago is
+	 * returned without accessing the tag
+	 * 
+	 * @param maxAgeMS
+	 *            Maximum age of the registers
+	 * @return all Config Registers, a copy the caller may modify
+	 * @throws IOException
+	 * @throws FormatException
+	 * @throws CommandNotSupportedException 
+	 */
+	public abstract byte[] getConfigRegisters(int maxAgeMS) throws IOException,
+            FormatException, CommandNotSupportedException;
+
+	/**
+	 * Gets a specific Config Register no older than maxAgeMS
+	 * 
+	 * @param off
+	 *            Offset of the Config Register
+	 * @param maxAgeMS
+	 *            Maximum age of the register
+	 * @return Register
+	 * @throws IOException
+	 * @throws FormatException
+	 * @throws CommandNotSupportedException 
+	 */
+	public abstract byte getConfigRegister(CR_Offset off, int maxAgeMS) throws IOException,
+            FormatException, CommandNotSupportedException;
+
+	/**
+	 * Gets a specific Session Register no older than maxAgeMS
+	 * 
+	 * @param off
+	 *            Offset of the Session Register
+	 * @param maxAgeMS
+	 *            Maximum age of the register
+	 * @return Register
+	 * @throws IOException
+	 * @throws FormatException
+	 * @throws CommandNotSupportedException 
+	 */
+	public abstract byte getSessionRegister(SR_Offset off, int maxAgeMS) throws IOException,
+            FormatException, CommandNotSupportedException;
+
+	/**
+	 * Drops the cached Session and Config Registers, the next access reads
+	 * them from the tag
+	 */
+	public abstract void invalidateRegisterCache();
+
 	/**
 	 * Writes the Config registers
 	 * 
@@ -451,7 +626,7 @@ public abstract class I2C_Enabled_Commands {
 
 	/**
 	 * Waits till the I2C has written in the SRAM
-	 * @param timeoutMS Time to wait
+	 * @param timeoutMS Maximum time to wait
 	 * 
 	 * @throws IOException
 	 * @throws FormatException
@@ -461,7 +636,7 @@ public abstract class I2C_Enabled_Commands {
 
 	/**
 	 * Waits till the I2C has read the SRAM
-	 * @param timeoutMS Time to wait
+	 * @param timeoutMS Maximum time to wait
 	 * 
 	 * @throws IOException
 	 * @throws FormatException
@@ -495,6 +670,44 @@ public abstract class I2C_Enabled_Commands {
 	public abstract void writeEEPROM(int startAddr, byte[] data)
 			throws IOException, FormatException;
 
+	/**
+	 * Writes Data to the EEPROM like {@link #writeEEPROM(byte[], WriteEEPROMListener)},
+	 * but only the pages whose content differs from current
+	 * 
+	 * @param data
+	 *            Raw Data to write
+	 * @param current
+	 *            Data the tag holds from the User Memory Begin on, null to
+	 *            read it from the tag first
+	 * @param listener
+	 *            Informed about every page, written or not
+	 * @return Number of pages written
+	 * @throws IOException
+	 * @throws FormatException
+	 * @throws CommandNotSupportedException 
+	 */
+	public abstract int writeEEPROM(byte[] data, byte[] current, WriteEEPROMListener listener)
+			throws IOException, FormatException, CommandNotSupportedException;
+
+	/**
+	 * Writes Data to the EEPROM like {@link #writeEEPROM(int, byte[])}, but
+	 * only the pages whose content differs from current
+	 * 
+	 * @param startAddr
+	 *            Start Address from which the write begins
+	 * @param data
+	 *            Raw Data to write
+	 * @param current
+	 *            Data the tag holds from startAddr on, null to read it from
+	 *            the tag first
+	 * @return Number of pages written
+	 * @throws IOException
+	 * @throws FormatException
+	 * @throws CommandNotSupportedException 
+	 */
+	public abstract int writeEEPROM(int startAddr, byte[] data, byte[] current)
+			throws IOException, FormatException, CommandNotSupportedException;
+
 	/**
 	 * Read Data from the EEPROM
 	 * 
@@ -511,6 +724,44 @@ public abstract class I2C_Enabled_Commands {
 	public abstract byte[] readEEPROM(int absStart, int absEnd)
 			throws IOException, FormatException, CommandNotSupportedException;
 
+	/**
+	 * Read Data from the EEPROM into a buffer, which must hold
+	 * (absEnd - absStart + 1) * 4 bytes from off
+	 * 
+	 * @param absStart
+	 *            Start of the read
+	 * @param absEnd
+	 *            End of the read(included in the Answer)
+	 * @param dst
+	 *            Buffer which receives the Data
+	 * @param off
+	 *            Offset in dst
+	 * @return Number of bytes read
+	 * @throws IOException
+	 * @throws FormatException
+	 * @throws CommandNotSupportedException 
+	 */
+	public abstract int readEEPROM(int absStart, int absEnd, byte[] dst, int off)
+			throws IOException, FormatException, CommandNotSupportedException;
+
+	/**
+	 * Read Data from the EEPROM, every chunk is handed to the listener as
+	 * soon as it is read
+	 * 
+	 * @param absStart
+	 *            Start of the read
+	 * @param absEnd
+	 *            End of the read(included in the Answer)
+	 * @param listener
+	 *            Receives the chunks
+	 * @return Number of bytes read
+	 * @throws IOException
+	 * @throws FormatException
+	 * @throws CommandNotSupportedException 
+	 */
+	public abstract int readEEPROM(int absStart, int absEnd, ReadEEPROMListener listener)
+			throws IOException, FormatException, CommandNotSupportedException;
+
 	/**
 	 * Writes on SRAM Block Only 64 Bytes are transfered
 	 * 
@@ -722,4 +973,28 @@ public abstract class I2C_Enabled_Commands {
 
 		return combined;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Checks whether the page of data at off needs to be written, data is
+	 * padded with zeros like on a write
+	 * 
+	 * @param data
+	 *            Data to write
+	 * @param off
+	 *            Offset of the page in data and current
+	 * @param current
+	 *            Data the tag holds
+	 * @return true if the page differs or current does not cover it
+	 */
+	protected static boolean isPageDirty(byte[] data, int off, byte[] current) {
+		if (current == null || current.length < off + 4)
+			return true;
+
+		for (int i = off; i < off + 4; i++) {
+			byte b = i < data.length ? data[i] : 0x00;
+			if (b != current[i])
+				return true;
+		}
+		return false;
+	}
+}
@@ -30,7 +30,6 @@ package com.nxp.reader;
 import android.nfc.FormatException;
 import android.nfc.NdefMessage;
 import android.nfc.Tag;
-import android.nfc.tech.MifareUltralight;
 import android.util.Log;
 
 import com.nxp.exceptions.CC_differException;
@@ -38,10 +37,13 @@ import com.nxp.exceptions.CommandNotSupportedException;
 import com.nxp.exceptions.DynamicLockBitsException;
 import com.nxp.exceptions.NotPlusTagException;
 import com.nxp.exceptions.StaticLockBitsException;
+import com.nxp.listeners.ReadEEPROMListener;
 import com.nxp.listeners.ReadSRAMListener;
 import com.nxp.listeners.WriteEEPROMListener;
 import com.nxp.listeners.WriteSRAMListener;
 import com.nxp.reader.Ntag_Get_Version.Prod;
+import com.nxp.transport.MifareUltralightTransport;
+import com.nxp.transport.TagTransport;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
@@ -56,9 +58,11 @@ import java.util.Arrays;
 public class MinimalNtag_I2C_Commands extends I2C_Enabled_Commands {
 
 	static private final int FirstSectorMemsize = (0xFF - 0x4) * 4;
-	private MifareUltralight mfu;
+	private TagTransport mfu;
 	private Prod tag_type;
 	private byte[] answer;
+	private Ntag_I2C_Register_Cache session_cache = new Ntag_I2C_Register_Cache();
+	private Ntag_I2C_Register_Cache config_cache = new Ntag_I2C_Register_Cache();
 	private static int wait_time = 20;
 	private static final String LOG_TAG = "Ntag_I2C_Commands";
 
@@ -107,10 +111,23 @@ public class MinimalNtag_I2C_Commands extends I2C_Enabled_Commands {
 	 * @throws IOException
 	 */
 	public MinimalNtag_I2C_Commands(Tag tag, Prod prod) throws IOException {
+		this(MifareUltralightTransport.get(tag), prod);
+	}
+
+	/**
+	 * Constructor over a transport, e.g. a model of the Tag
+	 * 
+	 * @param mfu
+	 *            Transport which reads and writes pages
+	 * @param prod
+	 *            Product of the Tag
+	 * @throws IOException
+	 */
+	public MinimalNtag_I2C_Commands(TagTransport mfu, Prod prod) throws IOException {
 		tag_type = prod;
 		BlockSize = 4;
 		SRAMSize = 64;
-		this.mfu = MifareUltralight.get(tag);
+		this.mfu = mfu;
 	}
 
 	/*
@@ -130,6 +147,7 @@ public class MinimalNtag_I2C_Commands extends I2C_Enabled_Commands {
 	 */
 	@Override
 	public void connect() throws IOException {
+		invalidateRegisterCache();
 		mfu.connect();
 	}
 
@@ -177,9 +195,22 @@ public class MinimalNtag_I2C_Commands extends I2C_Enabled_Commands {
 					"getSessionRegisters not supported");
 		
 		answer = mfu.readPages(0xEC);
+		session_cache.put(answer);
 		return answer;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.nxp.reader.I2C_Enabled_Commands#getSessionRegisters(int)
+	 */
+	@Override
+	public byte[] getSessionRegisters(int maxAgeMS) throws IOException, FormatException,
+			CommandNotSupportedException {
+		byte[] register = session_cache.get(maxAgeMS);
+		return register != null ? register : getSessionRegisters();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -193,9 +224,22 @@ public class MinimalNtag_I2C_Commands extends I2C_Enabled_Commands {
 					"getConfigRegisters is not Supported for this Phone with NTAG I2C 2k");
 
 		answer = mfu.readPages(0xE8);
+		config_cache.put(answer);
 		return answer;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.nxp.reader.I2C_Enabled_Commands#getConfigRegisters(int)
+	 */
+	@Override
+	public byte[] getConfigRegisters(int maxAgeMS) throws IOException, FormatException,
+			CommandNotSupportedException {
+		byte[] register = config_cache.get(maxAgeMS);
+		return register != null ? register : getConfigRegisters();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -213,6 +257,19 @@ public class MinimalNtag_I2C_Commands extends I2C_Enabled_Commands {
 		return getConfigRegisters()[off.getValue()];
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.nxp.reader.I2C_Enabled_Commands#getConfigRegister(com.nxp
+	 * .reader.Ntag_I2C_Commands.CR_Offset, int)
+	 */
+	@Override
+	public byte getConfigRegister(CR_Offset off, int maxAgeMS) throws IOException,
+            FormatException, CommandNotSupportedException {
+		return getConfigRegisters(maxAgeMS)[off.getValue()];
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -230,6 +287,30 @@ public class MinimalNtag_I2C_Commands extends I2C_Enabled_Commands {
 		return getSessionRegisters()[off.getValue()];
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.nxp.reader.I2C_Enabled_Commands#getSessionRegister(com.nxp
+	 * .reader.Ntag_I2C_Commands.SR_Offset, int)
+	 */
+	@Override
+	public byte getSessionRegister(SR_Offset off, int maxAgeMS) throws IOException,
+            FormatException, CommandNotSupportedException {
+		return getSessionRegisters(maxAgeMS)[off.getValue()];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.nxp.reader.I2C_Enabled_Commands#invalidateRegisterCache()
+	 */
+	@Override
+	public void invalidateRegisterCache() {
+		session_cache.invalidate();
+		config_cache.invalidate();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -246,6 +327,7 @@ public class MinimalNtag_I2C_Commands extends I2C_Enabled_Commands {
 					"writeConfigRegisters is not Supported for this Phone with NTAG I2C 2k");
 
 		byte[] Data = new byte[4];
+		invalidateRegisterCache();
 
 		// Write the Config Regs
 		Data[0] = NC_R;
@@ -346,19 +428,77 @@ public class MinimalNtag_I2C_Commands extends I2C_Enabled_Commands {
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see com.nxp.reader.I2C_Enabled_Commands#readEEPROM(int, int)
+	 * @see com.nxp.reader.I2C_Enabled_Commands#writeEEPROM(byte[], byte[],
+	 * WriteEEPROMListener)
 	 */
 	@Override
-	public byte[] readEEPROM(int absStart, int absEnd) throws IOException,
-            FormatException, CommandNotSupportedException {
+	public int writeEEPROM(byte[] data, byte[] current, WriteEEPROMListener listener)
+			throws IOException, FormatException, CommandNotSupportedException {
+		if ((tag_type == Prod.NTAG_I2C_2k || tag_type == Prod.NTAG_I2C_2k_Plus) 
+				&& data.length > FirstSectorMemsize) {		
+			throw new CommandNotSupportedException(
+					"writeEEPROM is not Supported for this Phone, with Data bigger then First Sector("
+							+ FirstSectorMemsize + " Bytes)");
+		}
+		
+		if (data.length > getProduct().getMemsize()) {
+			throw new IOException("Data is too long");
+		}
+		return writeChangedPages(Register.User_memory_Begin.getValue(), data, current, listener);
+	}
 
-		if ((tag_type == Prod.NTAG_I2C_2k && absEnd > 0xFF)
-				|| tag_type == Prod.NTAG_I2C_2k_Plus && absEnd > 0xE1)
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.nxp.reader.I2C_Enabled_Commands#writeEEPROM(int, byte[],
+	 * byte[])
+	 */
+	@Override
+	public int writeEEPROM(int startAddr, byte[] data, byte[] current)
+			throws IOException, FormatException, CommandNotSupportedException {
+		if (startAddr < 0 || startAddr + (data.length + 3) / 4 - 1 > 0xFF) {
 			throw new CommandNotSupportedException(
-					"readEEPROM is not Supported for this Phone on Second Sector");
+					"writeEEPROM is not Supported for this Phone on Second Sector");
+		}
+		return writeChangedPages(startAddr, data, current, null);
+	}
 
-		byte[] temp = new byte[0];
-		answer = new byte[0];
+	private int writeChangedPages(int absStart, byte[] data, byte[] current,
+			WriteEEPROMListener listener) throws IOException, FormatException,
+			CommandNotSupportedException {
+		int pages = (data.length + 3) / 4;
+		if (pages == 0)
+			return 0;
+
+		if (current == null)
+			current = readEEPROM(absStart, absStart + pages - 1);
+
+		int written = 0;
+		for (int i = 0; i < data.length; i += 4) {
+			if (isPageDirty(data, i, current)) {
+				// the cached pages are stale once a register page is written
+				if (Ntag_Sector_Scheduler.writesRegisters(0, absStart + i / 4, absStart + i / 4))
+					invalidateRegisterCache();
+				mfu.writePage(absStart + i / 4, Arrays.copyOfRange(data, i, i + 4));
+				written++;
+			}
+			
+			// Inform the listener about the writing
+			if(listener != null)
+				listener.onWriteEEPROM(i + 4);
+		}
+		return written;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.nxp.reader.I2C_Enabled_Commands#readEEPROM(int, int)
+	 */
+	@Override
+	public byte[] readEEPROM(int absStart, int absEnd) throws IOException,
+            FormatException, CommandNotSupportedException {
+		checkEEPROMRead(absEnd);
 
 		if (absStart > 0xFF)
 			absStart = 0xFF;
@@ -366,18 +506,62 @@ public class MinimalNtag_I2C_Commands extends I2C_Enabled_Commands {
 		if (absEnd > 0xFF)
 			absEnd = 0xFF;
 
-		int i;
-		for (i = absStart; i <= (absEnd - 3); i += 4) {
-			temp = mfu.readPages(i);
-			answer = concat(answer, temp);
-		}
+		answer = new byte[Math.max(0, absEnd - absStart + 1) * 4];
+		readEEPROM(absStart, absEnd, answer, 0, null);
+		return answer;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.nxp.reader.I2C_Enabled_Commands#readEEPROM(int, int, byte[], int)
+	 */
+	@Override
+	public int readEEPROM(int absStart, int absEnd, byte[] dst, int off)
+			throws IOException, FormatException, CommandNotSupportedException {
+		checkEEPROMRead(absEnd);
+		return readEEPROM(absStart, absEnd, dst, off, null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.nxp.reader.I2C_Enabled_Commands#readEEPROM(int, int, ReadEEPROMListener)
+	 */
+	@Override
+	public int readEEPROM(int absStart, int absEnd, ReadEEPROMListener listener)
+			throws IOException, FormatException, CommandNotSupportedException {
+		checkEEPROMRead(absEnd);
+		return readEEPROM(absStart, absEnd, null, 0, listener);
+	}
+
+	private void checkEEPROMRead(int absEnd) throws CommandNotSupportedException {
+		if ((tag_type == Prod.NTAG_I2C_2k && absEnd > 0xFF)
+				|| tag_type == Prod.NTAG_I2C_2k_Plus && absEnd > 0xE1)
+			throw new CommandNotSupportedException(
+					"readEEPROM is not Supported for this Phone on Second Sector");
+	}
 
-		if (i < absEnd) {
-			temp = mfu.readPages(absEnd - 3);
-			byte[] bla = Arrays.copyOfRange(temp, (i - (absEnd - 3)) * 4, 16);
-			answer = concat(answer, bla);
+	/**
+	 * Reads pages absStart to absEnd, 4 pages per READ. The last READ starts
+	 * at absEnd - 3 so that it does not run past absEnd.
+	 */
+	private int readEEPROM(int absStart, int absEnd, byte[] dst, int off,
+			ReadEEPROMListener listener) throws IOException {
+		int position = 0;
+
+		for (int i = absStart; i <= absEnd; i += 4) {
+			int pages = Math.min(4, absEnd - i + 1);
+			int readAt = pages == 4 ? i : Math.max(absEnd - 3, 0);
+			byte[] temp = mfu.readPages(readAt);
+
+			if (dst != null)
+				System.arraycopy(temp, (i - readAt) * 4, dst, off + position, pages * 4);
+			else
+				listener.onReadEEPROM(temp, (i - readAt) * 4, pages * 4, position);
+			position += pages * 4;
 		}
-		return answer;
+		return position;
 	}
 
 	/*
@@ -393,6 +577,9 @@ public class MinimalNtag_I2C_Commands extends I2C_Enabled_Commands {
 			throw new CommandNotSupportedException(
 					"writeSRAMBlock is not Supported for this Phone with NTAG I2C 2k");
 
+		// the SRAM flags of NS_REG change with the access
+		session_cache.invalidate();
+
 		byte[] TxBuffer = new byte[4];
 		int index = 0;
 
@@ -459,7 +646,10 @@ public class MinimalNtag_I2C_Commands extends I2C_Enabled_Commands {
 		if (tag_type == Prod.NTAG_I2C_2k)
 			throw new CommandNotSupportedException(
 					"readSRAMBlock is not Supported for this Phone with NTAG I2C 2k");
-		
+
+		// the SRAM flags of NS_REG change with the access
+		session_cache.invalidate();
+
 		answer = new byte[0];
 		for (int i = 0; i < 0x0F; i += 4)
 			answer = concat(answer, mfu.readPages(0xF0 + i));
@@ -783,34 +973,7 @@ public class MinimalNtag_I2C_Commands extends I2C_Enabled_Commands {
 	 */
 	private byte[] createRawNdefTlv(NdefMessage NDEFmessage)
 			throws UnsupportedEncodingException {
-		// creating NDEF
-		byte[] Ndef_message_byte = NDEFmessage.toByteArray();
-		int ndef_message_size = Ndef_message_byte.length;
-		byte[] message;
-
-		if (ndef_message_size < 0xFF) {
-			message = new byte[ndef_message_size + 3];
-			byte TLV_size = 0;
-			TLV_size = (byte) ndef_message_size;
-			message[0] = (byte) 0x03;
-			message[1] = (byte) TLV_size;
-			message[message.length - 1] = (byte) 0xFE;
-			System.arraycopy(Ndef_message_byte, 0, message, 2,
-					Ndef_message_byte.length);
-		} else {
-			message = new byte[ndef_message_size + 5];
-			int TLV_size = ndef_message_size;
-			TLV_size |= 0xFF0000;
-			message[0] = (byte) 0x03;
-			message[1] = (byte) ((TLV_size >> 16) & 0xFF);
-			message[2] = (byte) ((TLV_size >> 8) & 0xFF);
-			message[3] = (byte) (TLV_size & 0xFF);
-			message[message.length - 1] = (byte) 0xFE;
-			System.arraycopy(Ndef_message_byte, 0, message, 4,
-					Ndef_message_byte.length);
-		}
-
-		return message;
+		return Ndef_TLV.create(NDEFmessage.toByteArray());
 	}
 
 	@Override
@@ -1051,6 +1214,7 @@ public class MinimalNtag_I2C_Commands extends I2C_Enabled_Commands {
 	public void writeAuthRegisters(byte auth0, byte access, byte pt_i2c) throws IOException, FormatException,
 			CommandNotSupportedException {
 		byte[] Data = new byte[4];
+		invalidateRegisterCache();
 		
 		// Write the ACCESS configuration
 		Data[0] = access;
@@ -0,0 +1,63 @@
+package com.nxp.reader;
+
+/**
+ * Builds the NDEF TLV that is written to the user memory of the tag.
+ *
+ * The TLV is the tag 0x03, a one byte length or 0xFF followed by a two byte
+ * length for messages of 0xFF bytes and more, the NDEF message and the
+ * terminator TLV 0xFE.
+ */
+public class Ndef_TLV {
+
+	public static final byte NDEF_TAG = (byte) 0x03;
+	public static final byte TERMINATOR_TAG = (byte) 0xFE;
+
+	/**
+	 * Returns the size of the TLV for a message of the given length
+	 *
+	 * @param ndefLength
+	 *            Length of the NDEF message
+	 */
+	public static int size(int ndefLength) {
+		return ndefLength + (ndefLength < 0xFF ? 3 : 5);
+	}
+
+	/**
+	 * Creates the TLV for a NDEF message
+	 *
+	 * @param ndef
+	 *            Raw NDEF message
+	 * @return Byte Array of the TLV
+	 */
+	public static byte[] create(byte[] ndef) {
+		byte[] tlv = new byte[size(ndef.length)];
+		writeInto(ndef, 0, ndef.length, tlv, 0);
+		return tlv;
+	}
+
+	/**
+	 * Writes the TLV for a NDEF message into dst, which needs
+	 * {@link #size(int)} bytes from dstOff
+	 *
+	 * @return Number of bytes written
+	 */
+	public static int writeInto(byte[] ndef, int off, int len, byte[] dst,
+			int dstOff) {
+		if (len > 0xFFFE)
+			throw new IllegalArgumentException("NDEF message too long: " + len);
+
+		int pos = dstOff;
+		dst[pos++] = NDEF_TAG;
+		if (len < 0xFF) {
+			dst[pos++] = (byte) len;
+		} else {
+			dst[pos++] = (byte) 0xFF;
+			dst[pos++] = (byte) ((len >> 8) & 0xFF);
+			dst[pos++] = (byte) (len & 0xFF);
+		}
+		System.arraycopy(ndef, off, dst, pos, len);
+		pos += len;
+		dst[pos++] = TERMINATOR_TAG;
+		return pos - dstOff;
+	}
+}
@@ -0,0 +1,114 @@
+package com.nxp.reader;
+
+import android.os.Build;
+
+import com.nxp.ByteUtils;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers what {@link I2C_Enabled_Commands#get(android.nfc.Tag)} found out, so a tap
+ * on a known Tag skips the probing.
+ *
+ * Which implementation works is a property of the phone, e.g. whether its
+ * controller honours short timeouts and passes GET_VERSION, and is kept per
+ * device key. The product is a property of the Tag and is kept per UID for
+ * the last {@link #MAX_TAGS} Tags.
+ *
+ * The entries are only held in memory. The reader of the phone can be
+ * saved with {@link #getReader(String)} and restored with
+ * {@link #putReader(String, Reader)} to survive a restart.
+ */
+public class Ntag_Capability_Cache {
+
+	/**
+	 * Implementation of {@link I2C_Enabled_Commands} that works with a phone
+	 */
+	public enum Reader {
+		/**
+		 * {@link Ntag_I2C_Commands}, raw commands through NfcA
+		 */
+		FULL,
+		/**
+		 * {@link MinimalNtag_I2C_Commands}, MifareUltralight only
+		 */
+		MINIMAL
+	}
+
+	/**
+	 * Tags whose product is kept, the least recently tapped is dropped
+	 */
+	public static final int MAX_TAGS = 1024;
+
+	private static final Ntag_Capability_Cache global = new Ntag_Capability_Cache();
+
+	private final Map<String, Reader> readers = new HashMap<>();
+	private final Map<String, Ntag_Get_Version> versions = new LinkedHashMap<String, Ntag_Get_Version>(
+			16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Ntag_Get_Version> eldest) {
+			return size() > MAX_TAGS;
+		}
+	};
+
+	/**
+	 * Returns the cache shared by the whole process
+	 */
+	public static Ntag_Capability_Cache getGlobal() {
+		return global;
+	}
+
+	/**
+	 * Returns the key of this phone. It changes with a system update, which
+	 * may change the NFC stack as well
+	 */
+	public static String getDeviceKey() {
+		return Build.MANUFACTURER + "/" + Build.MODEL + "/" + Build.VERSION.SDK_INT;
+	}
+
+	/**
+	 * Returns the reader found for a device, null if it was not probed
+	 */
+	public synchronized Reader getReader(String device) {
+		return readers.get(device);
+	}
+
+	public synchronized void putReader(String device, Reader reader) {
+		readers.put(device, reader);
+	}
+
+	/**
+	 * Forgets the reader of a device, e.g. after a session opened with it
+	 * failed
+	 */
+	public synchronized void removeReader(String device) {
+		readers.remove(device);
+	}
+
+	/**
+	 * Returns the GET_VERSION response of a Tag, null if it is not known
+	 */
+	public synchronized Ntag_Get_Version getVersion(byte[] uid) {
+		return uid != null ? versions.get(ByteUtils.bytesToHex(uid)) : null;
+	}
+
+	public synchronized void putVersion(byte[] uid, Ntag_Get_Version version) {
+		if (uid != null && version != null)
+			versions.put(ByteUtils.bytesToHex(uid), version);
+	}
+
+	/**
+	 * Forgets a Tag, e.g. after it did not behave like its product
+	 */
+	public synchronized void removeVersion(byte[] uid) {
+		if (uid != null)
+			versions.remove(ByteUtils.bytesToHex(uid));
+	}
+
+	public synchronized void clear() {
+		readers.clear();
+		versions.clear();
+	}
+}
@@ -0,0 +1,267 @@
+package com.nxp.reader;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count, bytes, errors and a latency histogram for every command opcode of
+ * {@link Ntag_Commands}.
+ *
+ * Recording is lock-free: a few atomic adds into preallocated arrays, no
+ * allocation. The histogram has 8 linear sub-buckets per power of two of
+ * nanoseconds, so a percentile is off by at most 1/16 of its value.
+ */
+public class Ntag_Command_Stats {
+
+	/**
+	 * Instrumented commands, the index of their counters
+	 */
+	public enum Op {
+		READ(0x30), FAST_READ(0x3A), WRITE(0xA2), FAST_WRITE(0xA6), SECTOR_SELECT(
+				0xC2), GET_VERSION(0x60), PWD_AUTH(0x1B), OTHER(-1);
+
+		private final int opcode;
+
+		private Op(int opcode) {
+			this.opcode = opcode;
+		}
+
+		public int getOpcode() {
+			return opcode;
+		}
+
+		public static Op of(int opcode) {
+			switch (opcode & 0xFF) {
+				case 0x30: return READ;
+				case 0x3A: return FAST_READ;
+				case 0xA2: return WRITE;
+				case 0xA6: return FAST_WRITE;
+				case 0xC2: return SECTOR_SELECT;
+				case 0x60: return GET_VERSION;
+				case 0x1B: return PWD_AUTH;
+				default: return OTHER;
+			}
+		}
+	}
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB = 1 << SUB_BITS;
+
+	/**
+	 * Buckets per opcode, enough for any positive long
+	 */
+	public static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+	private static final int COUNT = 0;
+	private static final int ERRORS = 1;
+	private static final int BYTES = 2;
+	private static final int NANOS = 3;
+	private static final int MAX = 4;
+	private static final int FIELDS = 5;
+
+	private static final Op[] ops = Op.values();
+
+	private static final Ntag_Command_Stats global = new Ntag_Command_Stats();
+
+	private final AtomicLongArray counters = new AtomicLongArray(ops.length * FIELDS);
+	private final AtomicLongArray histogram = new AtomicLongArray(ops.length * BUCKETS);
+
+	/**
+	 * Returns the statistics shared by every Ntag_Commands of the process
+	 */
+	public static Ntag_Command_Stats getGlobal() {
+		return global;
+	}
+
+	/**
+	 * Records a command
+	 *
+	 * @param op
+	 *            Command
+	 * @param nanos
+	 *            Time from sending the command to the answer
+	 * @param bytes
+	 *            Bytes of command and answer
+	 * @param error
+	 *            true if the command failed
+	 */
+	public void record(Op op, long nanos, int bytes, boolean error) {
+		int base = op.ordinal() * FIELDS;
+		counters.incrementAndGet(base + COUNT);
+		if (error)
+			counters.incrementAndGet(base + ERRORS);
+		counters.addAndGet(base + BYTES, bytes);
+		counters.addAndGet(base + NANOS, nanos);
+
+		long max;
+		while (nanos > (max = counters.get(base + MAX))
+				&& !counters.compareAndSet(base + MAX, max, nanos)) {
+			// lost against another thread, retry with its maximum
+		}
+
+		histogram.incrementAndGet(op.ordinal() * BUCKETS + bucket(nanos));
+	}
+
+	static int bucket(long nanos) {
+		if (nanos < SUB)
+			return (int) Math.max(0, nanos);
+		int msb = 63 - Long.numberOfLeadingZeros(nanos);
+		return (msb - SUB_BITS + 1) * SUB + (int) ((nanos >>> (msb - SUB_BITS)) & (SUB - 1));
+	}
+
+	/**
+	 * Returns the lowest value of a bucket
+	 */
+	static long bucketStart(int bucket) {
+		if (bucket < SUB)
+			return bucket;
+		int msb = bucket / SUB + SUB_BITS - 1;
+		return (long) (SUB + bucket % SUB) << (msb - SUB_BITS);
+	}
+
+	/**
+	 * Clears all counters. Commands recorded meanwhile may be partly lost
+	 */
+	public void reset() {
+		for (int i = 0; i < counters.length(); i++)
+			counters.set(i, 0);
+		for (int i = 0; i < histogram.length(); i++)
+			histogram.set(i, 0);
+	}
+
+	/**
+	 * Copies the counters. Commands recorded meanwhile may be partly
+	 * included
+	 */
+	public Snapshot snapshot() {
+		long[] c = new long[counters.length()];
+		for (int i = 0; i < c.length; i++)
+			c[i] = counters.get(i);
+		long[] h = new long[histogram.length()];
+		for (int i = 0; i < h.length; i++)
+			h[i] = histogram.get(i);
+		return new Snapshot(c, h);
+	}
+
+	/**
+	 * Counters at one point in time
+	 */
+	public static class Snapshot {
+		private final long[] counters;
+		private final long[] histogram;
+
+		Snapshot(long[] counters, long[] histogram) {
+			this.counters = counters;
+			this.histogram = histogram;
+		}
+
+		public long getCount(Op op) {
+			return counters[op.ordinal() * FIELDS + COUNT];
+		}
+
+		public long getErrors(Op op) {
+			return counters[op.ordinal() * FIELDS + ERRORS];
+		}
+
+		public long getBytes(Op op) {
+			return counters[op.ordinal() * FIELDS + BYTES];
+		}
+
+		public long getTotalNanos(Op op) {
+			return counters[op.ordinal() * FIELDS + NANOS];
+		}
+
+		public long getMaxNanos(Op op) {
+			return counters[op.ordinal() * FIELDS + MAX];
+		}
+
+		public long getMeanNanos(Op op) {
+			long count = getCount(op);
+			return count > 0 ? getTotalNanos(op) / count : 0;
+		}
+
+		/**
+		 * Returns a percentile of the latency, the middle of the bucket it
+		 * falls in
+		 *
+		 * @param p
+		 *            Percentile, 0 to 100
+		 * @return Latency in ns, 0 without commands
+		 */
+		public long getPercentileNanos(Op op, double p) {
+			int base = op.ordinal() * BUCKETS;
+			long total = 0;
+			for (int i = 0; i < BUCKETS; i++)
+				total += histogram[base + i];
+			if (total == 0)
+				return 0;
+
+			long rank = Math.max(1, (long) Math.ceil(total * p / 100.0));
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += histogram[base + i];
+				if (seen >= rank) {
+					long start = bucketStart(i);
+					long end = i + 1 < BUCKETS ? bucketStart(i + 1) : start;
+					return Math.min(start + (end - start) / 2, getMaxNanos(op));
+				}
+			}
+			return getMaxNanos(op);
+		}
+
+		/**
+		 * Returns the counts of the histogram, see
+		 * {@link Ntag_Command_Stats#bucketStart(int)} for the bounds
+		 */
+		public long[] getHistogram(Op op) {
+			long[] h = new long[BUCKETS];
+			System.arraycopy(histogram, op.ordinal() * BUCKETS, h, 0, BUCKETS);
+			return h;
+		}
+
+		/**
+		 * Writes one CSV line per command that was sent, times in microseconds
+		 */
+		public void writeCSV(Appendable out) throws IOException {
+			out.append("op,opcode,count,errors,bytes,mean_us,p50_us,p90_us,p99_us,max_us\n");
+			for (Op op : ops) {
+				if (getCount(op) == 0)
+					continue;
+				out.append(String.format(Locale.US,
+						"%s,%s,%d,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f\n", op,
+						op.getOpcode() < 0 ? "" : String.format("0x%02X", op.getOpcode()),
+						getCount(op), getErrors(op), getBytes(op),
+						getMeanNanos(op) / 1000.0,
+						getPercentileNanos(op, 50) / 1000.0,
+						getPercentileNanos(op, 90) / 1000.0,
+						getPercentileNanos(op, 99) / 1000.0,
+						getMaxNanos(op) / 1000.0));
+			}
+		}
+
+		/**
+		 * Returns one line per command that was sent, for a console
+		 */
+		public String[] toLines() {
+			int n = 0;
+			for (Op op : ops)
+				if (getCount(op) > 0)
+					n++;
+
+			String[] lines = new String[n];
+			int i = 0;
+			for (Op op : ops) {
+				if (getCount(op) == 0)
+					continue;
+				lines[i++] = String.format(Locale.US,
+						"%s n=%d err=%d p50=%.2fms p99=%.2fms max=%.2fms", op,
+						getCount(op), getErrors(op),
+						getPercentileNanos(op, 50) / 1e6,
+						getPercentileNanos(op, 99) / 1e6,
+						getMaxNanos(op) / 1e6);
+			}
+			return lines;
+		}
+	}
+}
@@ -29,10 +29,12 @@ package com.nxp.reader;
 
 import android.nfc.FormatException;
 import android.nfc.Tag;
-import android.nfc.tech.NfcA;
 import android.util.Log;
 
 import com.nxp.ByteUtils;
+import com.nxp.transport.MifareUltralightTransport;
+import com.nxp.transport.NfcATransport;
+import com.nxp.transport.TagTransport;
 
 import java.io.IOException;
 
@@ -51,9 +53,40 @@ public class Ntag_Commands {
 	private int sector_select_timout;
 	private final int timeout = 20;
 
+	private static final String LOG_TAG = "Ntag_Commands";
+	private static final byte[] NO_ANSWER = new byte[0];
+
+	/**
+	 * Logs every answer when set, off by default so that the command path
+	 * does not format anything
+	 */
+	private static volatile boolean debug = false;
+
 	private byte[] answer;
 	private byte[] command;
-	private NfcA nfca;
+
+	// Command buffers, reused by every call so that the command path does not
+	// allocate. Transceive needs arrays of the exact command length, so there
+	// is one buffer per command size
+	private final byte[] cmd_sector_select_1 = { (byte) 0xC2, (byte) 0xFF };
+	private final byte[] cmd_sector_select_2 = new byte[4];
+	private final byte[] cmd_read = new byte[2];
+	private final byte[] cmd_fast_read = new byte[3];
+	private final byte[] cmd_write = new byte[6];
+	private final byte[] cmd_get_version = { (byte) 0x60 };
+	private final byte[] cmd_pwd_auth = new byte[5];
+	private final byte[] page = new byte[4];
+	private byte[] cmd_fast_write = new byte[3 + 64];
+
+	private TagTransport nfca;
+	private TagTransport mfu;
+
+	/**
+	 * true when the connection is held by the MifareUltralight technology
+	 */
+	private boolean use_mfu;
+
+	private Ntag_Command_Stats stats = Ntag_Command_Stats.getGlobal();
 
 	/**
 	 * Constructor connects the Tag also
@@ -62,7 +95,21 @@ public class Ntag_Commands {
 	 * @throws IOException
 	 */
 	public Ntag_Commands(Tag tag) throws IOException {
-		nfca = NfcA.get(tag);
+		this(NfcATransport.get(tag), MifareUltralightTransport.get(tag));
+	}
+
+	/**
+	 * Constructor over transports, e.g. a model of the Tag
+	 * 
+	 * @param nfca
+	 *            Transport for the raw commands
+	 * @param mfu
+	 *            Transport used when MifareUltralight is selected, null if
+	 *            the Tag does not support it
+	 */
+	public Ntag_Commands(TagTransport nfca, TagTransport mfu) {
+		this.nfca = nfca;
+		this.mfu = mfu;
 		sector_select_timout = timeout;
 		nfca.setTimeout(timeout);
 		current_sec = 0;
@@ -75,7 +122,10 @@ public class Ntag_Commands {
 	 * @throws IOException
 	 */
 	public void close() throws IOException {
-		nfca.close();
+		if (use_mfu)
+			mfu.close();
+		else
+			nfca.close();
 		current_sec = 0;
 	}
 
@@ -85,7 +135,10 @@ public class Ntag_Commands {
 	 * @throws IOException
 	 */
 	public void connect() throws IOException {
-		nfca.connect();
+		if (use_mfu)
+			mfu.connect();
+		else
+			nfca.connect();
 		current_sec = 0;
 	}
 
@@ -93,11 +146,101 @@ public class Ntag_Commands {
 	 * Checks if the tag is still connected
 	 */
 	public boolean isConnected() {
-		return nfca.isConnected();
+		return use_mfu ? mfu.isConnected() : nfca.isConnected();
+	}
+
+	/**
+	 * Checks if the Tag can be accessed as MifareUltralight
+	 */
+	public boolean supportsMifareUltralight() {
+		return mfu != null;
+	}
+
+	/**
+	 * Selects the technology which holds the connection. Commands are
+	 * transceived through it and writes use MifareUltralight.writePage when
+	 * it is selected. An open connection is moved to the new technology, so
+	 * the switch is paid once and not on every command.
+	 * 
+	 * @param enable
+	 *            true for MifareUltralight, false for NfcA
+	 * @throws IOException
+	 */
+	public void setUseMifareUltralight(boolean enable) throws IOException {
+		if (enable == use_mfu)
+			return;
+		if (enable && mfu == null)
+			throw new IOException("Tag does not support MifareUltralight");
+
+		boolean connected = isConnected();
+		if (connected)
+			close();
+
+		use_mfu = enable;
+		setTimeout(timeout);
+
+		if (connected)
+			connect();
+	}
+
+	/**
+	 * Checks which technology holds the connection
+	 * 
+	 * @return true for MifareUltralight, false for NfcA
+	 */
+	public boolean isUsingMifareUltralight() {
+		return use_mfu;
+	}
+
+	/**
+	 * Sets where the commands are recorded, the global statistics by default
+	 * 
+	 * @param stats
+	 *            Statistics to record into, null to record nothing
+	 */
+	public void setStats(Ntag_Command_Stats stats) {
+		this.stats = stats;
+	}
+
+	public Ntag_Command_Stats getStats() {
+		return stats;
+	}
+
+	private byte[] transceive(byte[] data) throws IOException {
+		return use_mfu ? mfu.transceive(data) : nfca.transceive(data);
+	}
+
+	/**
+	 * Transceives a command and records it under its opcode
+	 */
+	private byte[] transceive(Ntag_Command_Stats.Op op, byte[] data) throws IOException {
+		long start = System.nanoTime();
+		try {
+			byte[] answer = transceive(data);
+			record(op, start, data.length + answer.length, false);
+			return answer;
+		} catch (IOException e) {
+			record(op, start, data.length, true);
+			throw e;
+		}
+	}
+
+	private void record(Ntag_Command_Stats.Op op, long start, int bytes, boolean error) {
+		Ntag_Command_Stats stats = this.stats;
+		if (stats != null)
+			stats.record(op, System.nanoTime() - start, bytes, error);
+	}
+
+	private void setTimeout(int timeout) {
+		if (use_mfu)
+			mfu.setTimeout(timeout);
+		else
+			nfca.setTimeout(timeout);
 	}
 
 	/**
-	 * Returns Byte Code of last Command
+	 * Returns Byte Code of last Command. The buffer is reused by the next
+	 * Command of the same size
 	 * 
 	 * @return Byte Code of last Command
 	 */
@@ -114,6 +257,16 @@ public class Ntag_Commands {
 		return answer;
 	}
 
+	/**
+	 * Enables the logging of answers
+	 * 
+	 * @param enable
+	 *            true to log every answer
+	 */
+	public static void setDebug(boolean enable) {
+		debug = enable;
+	}
+
 	/**
 	 * Performs a Sector Select if necessary
 	 * 
@@ -127,30 +280,48 @@ public class Ntag_Commands {
 		if (current_sec == sector)
 			return;
 
-		command = new byte[2];
-		command[0] = (byte) 0xc2;
-		command[1] = (byte) 0xff;
-
-		nfca.transceive(command);
+		// both packets are recorded as one SECTOR_SELECT
+		long start = System.nanoTime();
+		command = cmd_sector_select_1;
+		int bytes = command.length;
+		try {
+			bytes += transceive(command).length;
+		} catch (IOException e) {
+			record(Ntag_Command_Stats.Op.SECTOR_SELECT, start, bytes, true);
+			throw e;
+		}
 
-		command = new byte[4];
+		command = cmd_sector_select_2;
 		command[0] = (byte) sector;
 		command[1] = (byte) 0x00;
 		command[2] = (byte) 0x00;
 		command[3] = (byte) 0x00;
+		bytes += command.length;
 
-		nfca.setTimeout(sector_select_timout);
+		setTimeout(sector_select_timout);
 
-		// catch exception, passive ack
+		// catch exception, passive ack. It is the expected outcome, so it is
+		// not recorded as an error
 		try {
-			nfca.transceive(command);
+			transceive(command);
 		} catch (IOException e) {
-			e.printStackTrace();
+			if (debug)
+				Log.d(LOG_TAG, "SECTOR_SELECT passive ack", e);
 		}
+		record(Ntag_Command_Stats.Op.SECTOR_SELECT, start, bytes, false);
 
-		nfca.setTimeout(timeout);
+		setTimeout(timeout);
 		current_sec = sector;
 	}
+
+	/**
+	 * Returns the Sector in which the Tag is
+	 * 
+	 * @return current Sector
+	 */
+	public byte getCurrentSector() {
+		return current_sec;
+	}
 	
 	/**
 	 * Performs a Fast Write Command
@@ -167,9 +338,11 @@ public class Ntag_Commands {
 	public void fast_write(byte[] data, byte startAddr, byte endAddr) throws IOException,
             FormatException {
 		// no answer
-		answer = new byte[0];
-		
-		command = new byte[3 + data.length];
+		answer = NO_ANSWER;
+
+		if (cmd_fast_write.length != 3 + data.length)
+			cmd_fast_write = new byte[3 + data.length];
+		command = cmd_fast_write;
 
 		command[0] = (byte) 0xA6;
 		command[1] = (byte) startAddr;
@@ -177,11 +350,12 @@ public class Ntag_Commands {
 		
 		System.arraycopy(data, 0, command, 3, data.length);
 		
-		nfca.setTimeout(500);
+		setTimeout(500);
 		// TODO: check transceive response
-		byte[] transceiveResponse = nfca.transceive(command);
-		Log.e("RESPONSE transceive ", ByteUtils.bytesToHex(transceiveResponse));
-		nfca.setTimeout(timeout);
+		byte[] transceiveResponse = transceive(Ntag_Command_Stats.Op.FAST_WRITE, command);
+		if (debug)
+			Log.d(LOG_TAG, "FAST_WRITE response " + ByteUtils.bytesToHex(transceiveResponse));
+		setTimeout(timeout);
 	}
 
 	/**
@@ -195,19 +369,47 @@ public class Ntag_Commands {
 	 * @throws FormatException
 	 */
 	public void write(byte[] data, byte blockNr) throws IOException,
+            FormatException {
+		write(data, 0, blockNr);
+	}
+
+	/**
+	 * Writes one page of a larger buffer on the Tag, bytes past the end of
+	 * the buffer are written as 0
+	 * 
+	 * @param data
+	 *            Data to write
+	 * @param off
+	 *            Offset of the page in data
+	 * @param blockNr
+	 *            Block Number to write
+	 * @throws IOException
+	 * @throws FormatException
+	 */
+	public void write(byte[] data, int off, byte blockNr) throws IOException,
             FormatException {
 		// no answer
-		answer = new byte[0];
+		answer = NO_ANSWER;
 
-		command = new byte[6];
+		command = cmd_write;
 		command[0] = (byte) 0xA2;
 		command[1] = blockNr;
-		command[2] = data[0];
-		command[3] = data[1];
-		command[4] = data[2];
-		command[5] = data[3];
+		for (int i = 0; i < 4; i++)
+			command[2 + i] = off + i < data.length ? data[off + i] : (byte) 0x00;
 		
-		nfca.transceive(command);
+		if (use_mfu) {
+			System.arraycopy(command, 2, page, 0, 4);
+			long start = System.nanoTime();
+			try {
+				mfu.writePage(blockNr & 0xFF, page);
+				record(Ntag_Command_Stats.Op.WRITE, start, command.length, false);
+			} catch (IOException e) {
+				record(Ntag_Command_Stats.Op.WRITE, start, command.length, true);
+				throw e;
+			}
+		} else {
+			transceive(Ntag_Command_Stats.Op.WRITE, command);
+		}
 	}
 
 	/**
@@ -224,19 +426,43 @@ public class Ntag_Commands {
 	public byte[] fast_read(byte startAddr, byte endAddr) throws IOException,
             FormatException {
 
-		command = new byte[3];
+		command = cmd_fast_read;
 
 		command[0] = (byte) 0x3A;
 		command[1] = (byte) startAddr;
 		command[2] = (byte) endAddr;
 
-		nfca.setTimeout(500);
-		answer = nfca.transceive(command);
-		Log.e("FAST READ response ", ByteUtils.bytesToHex(answer));
-		nfca.setTimeout(timeout);
+		setTimeout(500);
+		answer = transceive(Ntag_Command_Stats.Op.FAST_READ, command);
+		if (debug)
+			Log.d(LOG_TAG, "FAST_READ response " + ByteUtils.bytesToHex(answer));
+		setTimeout(timeout);
 		return answer;
 	}
 
+	/**
+	 * Performs a Fast Read Command into a buffer
+	 * 
+	 * @param startAddr
+	 *            Start Address
+	 * @param endAddr
+	 *            End Address
+	 * @param dst
+	 *            Buffer which receives the Answer
+	 * @param off
+	 *            Offset in dst
+	 * @return Number of bytes copied
+	 * @throws IOException
+	 * @throws FormatException
+	 */
+	public int fast_read(byte startAddr, byte endAddr, byte[] dst, int off)
+			throws IOException, FormatException {
+		byte[] data = fast_read(startAddr, endAddr);
+		int len = Math.min(data.length, dst.length - off);
+		System.arraycopy(data, 0, dst, off, len);
+		return len;
+	}
+
 	/**
 	 * Performs a Read Command
 	 * 
@@ -247,14 +473,35 @@ public class Ntag_Commands {
 	 * @throws FormatException
 	 */
 	public byte[] read(byte blockNr) throws IOException, FormatException {
-		command = new byte[2];
+		command = cmd_read;
 		command[0] = (byte) 0x30;
 		command[1] = blockNr;
 
-		answer = nfca.transceive(command);
+		answer = transceive(Ntag_Command_Stats.Op.READ, command);
 		return answer;
 	}
 
+	/**
+	 * Performs a Read Command into a buffer
+	 * 
+	 * @param blockNr
+	 *            Block Number to begin Read
+	 * @param dst
+	 *            Buffer which receives the Answer
+	 * @param off
+	 *            Offset in dst
+	 * @return Number of bytes copied
+	 * @throws IOException
+	 * @throws FormatException
+	 */
+	public int read(byte blockNr, byte[] dst, int off) throws IOException,
+			FormatException {
+		byte[] data = read(blockNr);
+		int len = Math.min(data.length, dst.length - off);
+		System.arraycopy(data, 0, dst, off, len);
+		return len;
+	}
+
 	/**
 	 * Performs a Get Version Command
 	 * 
@@ -262,9 +509,8 @@ public class Ntag_Commands {
 	 * @throws IOException
 	 */
 	public byte[] getVersion() throws IOException {
-		command = new byte[1];
-		command[0] = (byte) 0x60;
-		answer = nfca.transceive(command);
+		command = cmd_get_version;
+		answer = transceive(Ntag_Command_Stats.Op.GET_VERSION, command);
 				
 		return answer;
 	}
@@ -278,14 +524,14 @@ public class Ntag_Commands {
 	 * @throws IOException
 	 */
 	public byte[] pwdAuth(byte[] pwd) throws IOException {
-		command = new byte[5];
+		command = cmd_pwd_auth;
 		command[0] = (byte) 0x1B;
 		command[1] = pwd[0];
 		command[2] = pwd[1];
 		command[3] = pwd[2];
 		command[4] = pwd[3];
 
-		answer = nfca.transceive(command);
+		answer = transceive(Ntag_Command_Stats.Op.PWD_AUTH, command);
 		return answer;
 	}
 
@@ -295,7 +541,7 @@ public class Ntag_Commands {
 	 * @return Maximum Transceive length
 	 */
 	public int getMaxTransceiveLength() {
-		return nfca.getMaxTransceiveLength();
+		return use_mfu ? mfu.getMaxTransceiveLength() : nfca.getMaxTransceiveLength();
 	}
 
 }
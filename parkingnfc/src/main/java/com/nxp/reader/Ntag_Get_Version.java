@@ -142,6 +142,29 @@ public class Ntag_Get_Version {
 			return Prod.Unknown;
 	}
 
+	/**
+	 * Returns the Get Version Response of a Product
+	 * 
+	 * @param prod
+	 *            Product
+	 * @return Response, null for Unknown
+	 */
+	public static Ntag_Get_Version of(Prod prod) {
+		switch (prod) {
+			case NTAG_I2C_1k: return NTAG_I2C_1k;
+			case NTAG_I2C_2k: return NTAG_I2C_2k;
+			case NTAG_I2C_1k_T: return NTAG_I2C_1k_T;
+			case NTAG_I2C_2k_T: return NTAG_I2C_2k_T;
+			case NTAG_I2C_1k_V: return NTAG_I2C_1k_V;
+			case NTAG_I2C_2k_V: return NTAG_I2C_2k_V;
+			case NTAG_I2C_1k_Plus: return NTAG_I2C_1k_Plus;
+			case NTAG_I2C_2k_Plus: return NTAG_I2C_2k_Plus;
+			case MTAG_I2C_1k: return MTAG_I2C_1k;
+			case MTAG_I2C_2k: return MTAG_I2C_2k;
+			default: return null;
+		}
+	}
+
 	/**
 	 * Constructor
 	 * 
@@ -30,17 +30,18 @@ package com.nxp.reader;
 import android.nfc.FormatException;
 import android.nfc.NdefMessage;
 import android.nfc.Tag;
-import android.nfc.tech.MifareUltralight;
 
 import com.nxp.exceptions.CC_differException;
 import com.nxp.exceptions.CommandNotSupportedException;
 import com.nxp.exceptions.DynamicLockBitsException;
 import com.nxp.exceptions.NotPlusTagException;
 import com.nxp.exceptions.StaticLockBitsException;
+import com.nxp.listeners.ReadEEPROMListener;
 import com.nxp.listeners.ReadSRAMListener;
 import com.nxp.listeners.WriteEEPROMListener;
 import com.nxp.listeners.WriteSRAMListener;
 import com.nxp.reader.Ntag_Get_Version.Prod;
+import com.nxp.transport.TagTransport;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
@@ -59,13 +60,13 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 	public static final int EMPTY_NDEF_MESSAGE_SIZE = 104;
 
 	Ntag_Commands reader;
-	Tag tag;
 	byte[] answer;
-	byte[] session_registers;
+	Ntag_I2C_Register_Cache session_cache = new Ntag_I2C_Register_Cache();
+	Ntag_I2C_Register_Cache config_cache = new Ntag_I2C_Register_Cache();
 	Ntag_Get_Version get_version_response;
 	byte sram_sector;
-	boolean TimeOut = false;
-	Object lock = new Object();
+	SRAM_Write_Methods sram_write_method;
+	Ntag_I2C_Handshake handshake;
 
 	/**
 	 * Special Registers of the NTAG I2C
@@ -87,6 +88,27 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 		}
 	}
 
+	/**
+	 * Primitives to write a SRAM Block
+	 * 
+	 */
+	public enum SRAM_Write_Methods {
+		/**
+		 * One FAST_WRITE of the whole Block, NTAG I2C Plus only
+		 */
+		Fast_Write,
+		/**
+		 * One WRITE per page through NfcA
+		 */
+		NfcA_Write,
+		/**
+		 * One MifareUltralight.writePage per page. Samsung controllers do not
+		 * like the NfcA Transceive method, so the connection is held by
+		 * MifareUltralight for as long as this method is selected
+		 */
+		MUL_Write
+	}
+
 	// ---------------------------------------------------------------------------------
 	// Begin Public Functions
 	// ---------------------------------------------------------------------------------
@@ -99,17 +121,103 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 	 * @throws IOException
 	 */
 	public Ntag_I2C_Commands(Tag tag) throws IOException {
+		this(new Ntag_Commands(tag));
+	}
+
+	/**
+	 * Constructor over transports, e.g. a model of the Tag
+	 * 
+	 * @param nfca
+	 *            Transport for the raw commands
+	 * @param mfu
+	 *            Transport used by MUL_Write, null if the Tag does not
+	 *            support MifareUltralight
+	 * @throws IOException
+	 */
+	public Ntag_I2C_Commands(TagTransport nfca, TagTransport mfu) throws IOException {
+		this(new Ntag_Commands(nfca, mfu));
+	}
+
+	/**
+	 * Constructor for a Tag whose GET_VERSION response is already known, e.g.
+	 * from {@link Ntag_Capability_Cache}. The Tag is not accessed.
+	 * 
+	 * @param nfca
+	 *            Transport for the raw commands
+	 * @param mfu
+	 *            Transport used by MUL_Write, null if the Tag does not
+	 *            support MifareUltralight
+	 * @param version
+	 *            GET_VERSION response of the Tag
+	 * @throws IOException
+	 */
+	public Ntag_I2C_Commands(TagTransport nfca, TagTransport mfu,
+			Ntag_Get_Version version) throws IOException {
+		this(new Ntag_Commands(nfca, mfu), version);
+	}
+
+	private Ntag_I2C_Commands(Ntag_Commands reader) throws IOException {
+		this(reader, null);
+	}
+
+	private Ntag_I2C_Commands(Ntag_Commands reader, Ntag_Get_Version version)
+			throws IOException {
 		BlockSize = 4;
 		SRAMSize = 64;
-		this.reader = new Ntag_Commands(tag);
-		this.tag = tag;
-		connect();
+		this.reader = reader;
+		this.handshake = new Ntag_I2C_Handshake(this::getSessionRegisters);
+		this.get_version_response = version;
+		if (version == null) {
+			connect();
+			getProduct();
+			close();
+		}
 		if (getProduct() == Prod.NTAG_I2C_2k)
 			sram_sector = 1;
 		else
 			sram_sector = 0;
-		close();
 
+		setSRAMWriteMethod(selectSRAMWriteMethod());
+	}
+
+	/**
+	 * Selects the fastest primitive to write the SRAM that works with this
+	 * Tag and Phone
+	 * 
+	 * For NTAG_I2C_2k it is not possible to use MUL commands because when
+	 * establishing the connection the Sector is moved back to 0
+	 */
+	private SRAM_Write_Methods selectSRAMWriteMethod() throws IOException {
+		Prod prod = getProduct();
+
+		if ((prod == Prod.NTAG_I2C_1k_Plus || prod == Prod.NTAG_I2C_2k_Plus)
+				&& reader.getMaxTransceiveLength() >= SRAMSize + 3)
+			return SRAM_Write_Methods.Fast_Write;
+		if (prod == Prod.NTAG_I2C_1k && reader.supportsMifareUltralight())
+			return SRAM_Write_Methods.MUL_Write;
+		return SRAM_Write_Methods.NfcA_Write;
+	}
+
+	/**
+	 * Sets the primitive used to write the SRAM. MUL_Write moves the
+	 * connection to MifareUltralight, any other method moves it back to NfcA.
+	 * 
+	 * @param method
+	 *            SRAM write primitive
+	 * @throws IOException
+	 */
+	public void setSRAMWriteMethod(SRAM_Write_Methods method) throws IOException {
+		reader.setUseMifareUltralight(method == SRAM_Write_Methods.MUL_Write);
+		sram_write_method = method;
+	}
+
+	/**
+	 * Returns the primitive used to write the SRAM
+	 * 
+	 * @return SRAM write primitive
+	 */
+	public SRAM_Write_Methods getSRAMWriteMethod() {
+		return sram_write_method;
 	}
 
 	/*
@@ -129,6 +237,7 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 	 */
 	@Override
 	public void connect() throws IOException {
+		invalidateRegisterCache();
 		reader.connect();
 	}
 
@@ -204,13 +313,28 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 	 */
 	@Override
 	public byte[] getSessionRegisters() throws IOException, FormatException {
+		byte[] register;
+
 		if (getProduct() == Prod.NTAG_I2C_1k_Plus || getProduct() == Prod.NTAG_I2C_2k_Plus) {
 			reader.SectorSelect((byte) 0);
-			return reader.read(Register.Session_PLUS.getValue());
+			register = reader.read(Register.Session_PLUS.getValue());
 		} else {
 			reader.SectorSelect((byte) 3);
-			return reader.read(Register.Session.getValue());
-		}		
+			register = reader.read(Register.Session.getValue());
+		}
+		session_cache.put(register);
+		return register;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.nxp.reader.I2C_Enabled_Commands#getSessionRegisters(int)
+	 */
+	@Override
+	public byte[] getSessionRegisters(int maxAgeMS) throws IOException, FormatException {
+		byte[] register = session_cache.get(maxAgeMS);
+		return register != null ? register : getSessionRegisters();
 	}
 
 	/*
@@ -228,7 +352,20 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 		else
 			throw new IOException();
 
-		return reader.read(Register.Configuration.getValue());
+		byte[] register = reader.read(Register.Configuration.getValue());
+		config_cache.put(register);
+		return register;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.nxp.reader.I2C_Enabled_Commands#getConfigRegisters(int)
+	 */
+	@Override
+	public byte[] getConfigRegisters(int maxAgeMS) throws IOException, FormatException {
+		byte[] register = config_cache.get(maxAgeMS);
+		return register != null ? register : getConfigRegisters();
 	}
 
 	/*
@@ -245,6 +382,19 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 		return register[off.getValue()];
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.nxp.reader.I2C_Enabled_Commands#getConfigRegister(com.nxp
+	 * .reader.Ntag_I2C_Commands.CR_Offset, int)
+	 */
+	@Override
+	public byte getConfigRegister(CR_Offset off, int maxAgeMS) throws IOException,
+            FormatException {
+		return getConfigRegisters(maxAgeMS)[off.getValue()];
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -259,6 +409,44 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 		return register[off.getValue()];
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.nxp.reader.I2C_Enabled_Commands#getSessionRegister(com.nxp
+	 * .reader.Ntag_I2C_Commands.SR_Offset, int)
+	 */
+	@Override
+	public byte getSessionRegister(SR_Offset off, int maxAgeMS) throws IOException,
+            FormatException {
+		return getSessionRegisters(maxAgeMS)[off.getValue()];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.nxp.reader.I2C_Enabled_Commands#invalidateRegisterCache()
+	 */
+	@Override
+	public void invalidateRegisterCache() {
+		session_cache.invalidate();
+		config_cache.invalidate();
+	}
+
+	/**
+	 * Returns the cache of the Session Registers
+	 */
+	public Ntag_I2C_Register_Cache getSessionRegisterCache() {
+		return session_cache;
+	}
+
+	/**
+	 * Returns the cache of the Config Registers
+	 */
+	public Ntag_I2C_Register_Cache getConfigRegisterCache() {
+		return config_cache;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -272,6 +460,9 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
             FormatException {
 		byte[] Data = new byte[4];
 
+		// the cached pages are stale after the write
+		invalidateRegisterCache();
+
 		if (getProduct() == Prod.NTAG_I2C_1k || getProduct() == Prod.NTAG_I2C_1k_Plus || getProduct() == Prod.NTAG_I2C_2k_Plus)
 			reader.SectorSelect((byte) 0);
 		else if (getProduct() == Prod.NTAG_I2C_2k)
@@ -301,42 +492,8 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 	@Override
 	public void waitforI2Cwrite(int timeoutMS) throws IOException,
             FormatException, TimeoutException {
-//		reader.SectorSelect((byte) 3);
-//
-//		TimeOut = false;
-//
-//		// interrupts the wait after timoutMS milliseconds
-//		Timer mTimer = new Timer();
-//		mTimer.schedule(new TimerTask() {
-//			@Override
-//			public void run() {
-//				synchronized (lock) {
-//					TimeOut = true;
-//				}
-//			}
-//		}, timeoutMS);
-//
-//		// if SRAM_RF_RDY is set the Reader can Read
-//		while ((getSessionRegister(SR_Offset.NS_REG) & NS_Reg_Func.SRAM_RF_READY
-//				.getValue()) == 0) {
-//			synchronized (lock) {
-//				if (TimeOut)
-//					throw new TimeoutException("waitforI2Cwrite had a Timout");
-//			}
-//		}
-//
-//		mTimer.cancel();
-//		synchronized (lock) {
-//			TimeOut = true;
-//		}
-		
-		try {
-			Thread.sleep(timeoutMS);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-		
-		return;
+		// if SRAM_RF_READY is set the Reader can Read
+		handshake.awaitI2CWrite(timeoutMS);
 	}
 
 	/*
@@ -346,40 +503,17 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 	 */
 	@Override
 	public void waitforI2Cread(int timeoutMS) throws IOException, FormatException, TimeoutException {
-//		reader.SectorSelect((byte) 3);
-//
-//		TimeOut = false;
-//
-//		// interrupts the wait after timoutMS milliseconds
-//		Timer mTimer = new Timer();
-//		mTimer.schedule(new TimerTask() {
-//			@Override
-//			public void run() {
-//				synchronized (lock) {
-//					TimeOut = true;
-//				}
-//			}
-//		}, timeoutMS);
-//
-//		// if SRAM_I2C_READY is set the Reader can write
-//		while (((getSessionRegister(SR_Offset.NS_REG) & NS_Reg_Func.SRAM_I2C_READY
-//				.getValue()) == NS_Reg_Func.SRAM_I2C_READY.getValue())) {
-//			if (TimeOut)
-//				throw new TimeoutException("waitforI2Cread had a Timout");
-//		}
-//
-//		mTimer.cancel();
-//		synchronized (lock) {
-//			TimeOut = true;
-//		}
+		// if SRAM_I2C_READY is cleared the Reader can write
+		handshake.awaitI2CRead(timeoutMS);
+	}
 
-		try {
-			Thread.sleep(timeoutMS);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-		
-		return;
+	/**
+	 * Returns the SRAM handshake, which keeps the timing of the waits
+	 * 
+	 * @return SRAM handshake
+	 */
+	public Ntag_I2C_Handshake getHandshake() {
+		return handshake;
 	}
 
 	/*
@@ -394,7 +528,6 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 		}
 
 		reader.SectorSelect((byte) 0);
-		byte[] temp;
 		int Index = 0;
 		byte BlockNr = Register.User_memory_Begin.getValue();
 		
@@ -405,8 +538,7 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 			if(getProduct() == Prod.NTAG_I2C_2k_Plus && BlockNr == (byte) 0xE2)
 				break;
 
-			temp = Arrays.copyOfRange(data, Index, Index + 4);
-			reader.write(temp, BlockNr);
+			writePage(data, Index, BlockNr);
 			BlockNr++;
 			
 			// Inform the listener about the writing
@@ -420,8 +552,7 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 			BlockNr = 0;
 
 			for (; Index < data.length; Index += 4) {
-				temp = Arrays.copyOfRange(data, Index, Index + 4);
-				reader.write(temp, BlockNr);
+				writePage(data, Index, BlockNr);
 				BlockNr++;
 				
 				// Inform the listener about the writing
@@ -446,7 +577,6 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 		}
 
 		reader.SectorSelect((byte) ((startAddr & 0x200) >> 16));
-		byte[] temp;
 		int Index = 0;
 		byte BlockNr = (byte) (startAddr & 0xFF);
 
@@ -454,8 +584,7 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 		// should be
 		// 0 then, because of the type byte)
 		for (Index = 0; Index < data.length && BlockNr != 0; Index += 4) {
-			temp = Arrays.copyOfRange(data, Index, Index + 4);
-			reader.write(temp, BlockNr);
+			writePage(data, Index, BlockNr);
 			BlockNr++;
 		}
 
@@ -465,8 +594,7 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 			reader.SectorSelect((byte) 1);
 			BlockNr = 0;
 			for (; Index < data.length; Index += 4) {
-				temp = Arrays.copyOfRange(data, Index, Index + 4);
-				reader.write(temp, BlockNr);
+				writePage(data, Index, BlockNr);
 				BlockNr++;
 			}
 		} else if ((startAddr & 0x100) == 0x100) {
@@ -474,6 +602,90 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 		}
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.nxp.reader.I2C_Enabled_Commands#writeEEPROM(byte[], byte[],
+	 * WriteEEPROMListener)
+	 */
+	@Override
+	public int writeEEPROM(byte[] data, byte[] current, WriteEEPROMListener listener)
+			throws IOException, FormatException {
+		if (data.length > getProduct().getMemsize()) {
+			throw new IOException("Data is to long");
+		}
+		return writeChangedPages(Register.User_memory_Begin.getValue(), data, current, listener);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.nxp.reader.I2C_Enabled_Commands#writeEEPROM(int, byte[],
+	 * byte[])
+	 */
+	@Override
+	public int writeEEPROM(int startAddr, byte[] data, byte[] current)
+			throws IOException, FormatException {
+		if (startAddr < 0 || startAddr > 0x1FF) {
+			throw new FormatException("Sector not supported");
+		}
+		return writeChangedPages(startAddr, data, current, null);
+	}
+
+	/**
+	 * Writes the pages of data that differ from current, walking the memory
+	 * like {@link #readEEPROM(int, int, byte[], int, ReadEEPROMListener)}.
+	 * The current content is bulk read when it is not known.
+	 */
+	private int writeChangedPages(int absStart, byte[] data, byte[] current,
+			WriteEEPROMListener listener) throws IOException, FormatException {
+		int pages = (data.length + 3) / 4;
+		if (pages == 0)
+			return 0;
+
+		if (current == null)
+			current = readEEPROM(absStart, absStart + pages - 1);
+
+		Ntag_I2C_Page_Cursor cursor = new Ntag_I2C_Page_Cursor(absStart, pages,
+				getProduct() == Prod.NTAG_I2C_2k_Plus);
+		int selected = -1;
+		int written = 0;
+
+		while (cursor.next(1)) {
+			int Index = cursor.getOffset();
+			if (isPageDirty(data, Index, current)) {
+				if (selected != cursor.getSector()) {
+					reader.SectorSelect((byte) cursor.getSector());
+					selected = cursor.getSector();
+				}
+				writePage(data, Index, (byte) cursor.getPage());
+				written++;
+			}
+
+			// Inform the listener about the writing
+			if (listener != null)
+				listener.onWriteEEPROM(Index + 4);
+		}
+
+		// Let's go back to Sector 0
+		if (selected > 0)
+			reader.SectorSelect((byte) 0);
+
+		return written;
+	}
+
+	/**
+	 * Writes a page of the EEPROM in the selected sector, dropping the cached
+	 * registers when the page holds some of them
+	 */
+	private void writePage(byte[] data, int Index, byte BlockNr) throws IOException,
+            FormatException {
+		if (Ntag_Sector_Scheduler.writesRegisters(reader.getCurrentSector(), BlockNr & 0xFF,
+				BlockNr & 0xFF))
+			invalidateRegisterCache();
+		reader.write(data, Index, BlockNr);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -482,55 +694,65 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 	@Override
 	public byte[] readEEPROM(int absStart, int absEnd) throws IOException,
             FormatException {
-		int maxfetchsize = reader.getMaxTransceiveLength();
-		int max_fast_read = (maxfetchsize - 2) / 4;
-		int fetch_start = absStart;
-		int fetch_end = 0;
-		byte data[] = null;
-		byte temp[] = null;
+		byte[] data = new byte[(absEnd - absStart + 1) * 4];
+		int read = readEEPROM(absStart, absEnd, data, 0);
+		return read < data.length ? Arrays.copyOf(data, read) : data;
+	}
 
-		reader.SectorSelect((byte) 0);
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.nxp.reader.I2C_Enabled_Commands#readEEPROM(int, int, byte[], int)
+	 */
+	@Override
+	public int readEEPROM(int absStart, int absEnd, byte[] dst, int off)
+			throws IOException, FormatException {
+		return readEEPROM(absStart, absEnd, dst, off, null);
+	}
 
-		while (fetch_start <= absEnd) {
-			fetch_end = fetch_start + max_fast_read - 1;
-			// check for last read, fetch only rest
-			if (fetch_end > absEnd)
-				fetch_end = absEnd;
-			
-			// check for sector change in between and reduce fast_read to stay within sector
-			if (getProduct() != Prod.NTAG_I2C_2k_Plus) {
-				if ((fetch_start & 0xFF00) != (fetch_end & 0xFF00))
-					fetch_end = (fetch_start & 0xFF00) + 0xFF;
-			} else {
-				if ((fetch_start & 0xFF00) == 0 && (fetch_end > 0xE2))
-					fetch_end = (fetch_start & 0xFF00) + 0xE1;
-			}
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.nxp.reader.I2C_Enabled_Commands#readEEPROM(int, int, ReadEEPROMListener)
+	 */
+	@Override
+	public int readEEPROM(int absStart, int absEnd, ReadEEPROMListener listener)
+			throws IOException, FormatException {
+		return readEEPROM(absStart, absEnd, null, 0, listener);
+	}
 
-			temp = reader.fast_read((byte) (fetch_start & 0x00FF), (byte) (fetch_end & 0x00FF));
-			data = concat(data, temp);
-			
-			// calculate next fetch_start
-			fetch_start = fetch_end + 1;
+	/**
+	 * Reads pages absStart to absEnd with as few FAST_READs as possible. The
+	 * chunks go to dst when given, to the listener otherwise.
+	 * 
+	 * A FAST_READ never crosses a sector. On the NTAG I2C 2k Plus the
+	 * Config registers sit at 0xE2 of Sector 0, so the user memory continues
+	 * after 0xE1 with page 0 of Sector 1.
+	 */
+	private int readEEPROM(int absStart, int absEnd, byte[] dst, int off,
+			ReadEEPROMListener listener) throws IOException, FormatException {
+		int maxfetchsize = reader.getMaxTransceiveLength();
+		int max_fast_read = Math.max(1, (maxfetchsize - 2) / 4);
+		Ntag_I2C_Page_Cursor cursor = new Ntag_I2C_Page_Cursor(absStart,
+				absEnd - absStart + 1, getProduct() == Prod.NTAG_I2C_2k_Plus);
+
+		while (cursor.next(max_fast_read)) {
+			byte from = (byte) cursor.getPage();
+			byte to = (byte) (cursor.getPage() + cursor.getPages() - 1);
 
-			// check for sector change in between and reduce fast_read to stay within sector
-			if (getProduct() != Prod.NTAG_I2C_2k_Plus) {
-				if ((fetch_start & 0xFF00) != (fetch_end & 0xFF00))
-					reader.SectorSelect((byte) 1);
+			reader.SectorSelect((byte) cursor.getSector());
+			if (dst != null) {
+				reader.fast_read(from, to, dst, off + cursor.getOffset());
 			} else {
-				if ((fetch_start & 0xFF00) == 0 && (fetch_end >= 0xE1)) {
-					reader.SectorSelect((byte) 1);
-					fetch_start = 0x100;
-					
-					// Update the absEnd with pages not read on Sector 0
-					absEnd = absEnd + (0xFF - 0xE2);
-				}
+				byte[] chunk = reader.fast_read(from, to);
+				listener.onReadEEPROM(chunk, 0, chunk.length, cursor.getOffset());
 			}
 		}
 	
 		// Let's go back to Sector 0
 		reader.SectorSelect((byte) 0);
 	
-		return data;
+		return cursor.getOffset();
 	}
 
 	/*
@@ -540,57 +762,19 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 	 */
 	@Override
 	public void writeSRAMBlock(byte[] data, WriteSRAMListener listener) throws IOException, FormatException {
-		byte[] TxBuffer = new byte[4];
-		int index = 0;
-
+		// the SRAM flags of NS_REG change with the access
+		session_cache.invalidate();
 		reader.SectorSelect(sram_sector);
 
-		/**
-		 * Samsung controllers do not like NfcA Transceive method, so it is better using MUL writePage command when possible
-		 * For NTAG_I2C_2k it is not possible to use MUL commands because when establishing the connection the Sector is moved back to 0
-		 */
-		
-		if(getProduct() == Prod.NTAG_I2C_1k_Plus || getProduct() == Prod.NTAG_I2C_2k_Plus) {
-			reader.fast_write(data, (byte) Register.SRAM_Begin.getValue(), (byte) (Register.SRAM_Begin.getValue() + 0x0F));	
+		if (sram_write_method == SRAM_Write_Methods.Fast_Write) {
+			reader.fast_write(data, (byte) Register.SRAM_Begin.getValue(), (byte) (Register.SRAM_Begin.getValue() + 0x0F));
 		} else {
-			if (getProduct() == Prod.NTAG_I2C_1k) {
-				reader.close();
-
-				MifareUltralight ul = MifareUltralight.get(tag);
-				if (ul != null) {
-					ul.connect();
-					
-					int SRAM_Begin = (int) Register.SRAM_Begin.getValue() & 0xFF;
-					
-					for (int i = 0; i < 16; i++) {
-						for (int d_i = 0; d_i < 4; d_i++) {
-							if (index < data.length)
-								TxBuffer[d_i] = data[index++];
-							else
-								TxBuffer[d_i] = (byte) 0x00;
-						}
-			
-						ul.writePage(SRAM_Begin + i, TxBuffer);
-					}
-					
-					ul.close();
-				}
-				
-				reader.connect();
-			} else {
+			if (sram_write_method == SRAM_Write_Methods.NfcA_Write)
 				authenticateIfNeeded();
 
-				for (int i = 0; i < 16; i++) {
-					for (int d_i = 0; d_i < 4; d_i++) {
-						if (index < data.length)
-							TxBuffer[d_i] = data[index++];
-						else
-							TxBuffer[d_i] = (byte) 0x00;
-					}
-					
-					reader.write(TxBuffer, (byte) (Register.SRAM_Begin.getValue() + i));
-				}
-			}
+			// pages past the end of data are written as 0
+			for (int i = 0; i < 16; i++)
+				reader.write(data, i * 4, (byte) (Register.SRAM_Begin.getValue() + i));
 		}
 			
 		// Inform the listener about the writing
@@ -836,7 +1020,8 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 	public void writeAuthRegisters(byte auth0, byte access, byte pt_i2c) throws IOException, FormatException,
 			CommandNotSupportedException {
 		byte[] Data = new byte[4];
-				
+
+		invalidateRegisterCache();
 		reader.SectorSelect((byte) 0);
 
 		// Write the ACCESS configuration
@@ -917,7 +1102,8 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 	 */
 	@Override
 	public byte[] readSRAMBlock(ReadSRAMListener listener) throws IOException, FormatException {
-		answer = new byte[0];
+		// the SRAM flags of NS_REG change with the access
+		session_cache.invalidate();
 		reader.SectorSelect(sram_sector);
 		answer = reader.fast_read((byte) 0xF0, (byte) 0xFF);
 		// Inform the listener about the writing
@@ -1322,44 +1508,20 @@ public class Ntag_I2C_Commands extends I2C_Enabled_Commands {
 	 */
 	private byte[] createRawNdefTlv(NdefMessage NDEFmessage)
 			throws UnsupportedEncodingException {
-		// creating NDEF
-		byte[] Ndef_message_byte = NDEFmessage.toByteArray();
-		int ndef_message_size = Ndef_message_byte.length;
-		byte[] message;
-
-		if (ndef_message_size < 0xFF) {
-			message = new byte[ndef_message_size + 3];
-			byte TLV_size = 0;
-			TLV_size = (byte) ndef_message_size;
-			message[0] = (byte) 0x03;
-			message[1] = (byte) TLV_size;
-			message[message.length - 1] = (byte) 0xFE;
-			System.arraycopy(Ndef_message_byte, 0, message, 2,
-					Ndef_message_byte.length);
-		} else {
-			message = new byte[ndef_message_size + 5];
-			int TLV_size = ndef_message_size;
-			TLV_size |= 0xFF0000;
-			message[0] = (byte) 0x03;
-			message[1] = (byte) ((TLV_size >> 16) & 0xFF);
-			message[2] = (byte) ((TLV_size >> 8) & 0xFF);
-			message[3] = (byte) (TLV_size & 0xFF);
-			message[message.length - 1] = (byte) 0xFE;
-			System.arraycopy(Ndef_message_byte, 0, message, 4,
-					Ndef_message_byte.length);
-		}
-
-		return message;
+		return Ndef_TLV.create(NDEFmessage.toByteArray());
 	}
 
 	@Override
 	public Boolean checkPTwritePossible() throws IOException, FormatException {
-		byte nc_reg = getSessionRegister(SR_Offset.NC_REG);
+		// NC_REG and NS_REG come with the same read
+		byte[] register = getSessionRegisters();
+
+		byte nc_reg = register[SR_Offset.NC_REG.getValue()];
 		if ((nc_reg & NC_Reg_Func.PTHRU_ON_OFF.getValue()) == 0
 				|| (nc_reg & NC_Reg_Func.PTHRU_DIR.getValue()) == 0)
 			return false;
 
-		byte ns_reg = getSessionRegister(SR_Offset.NS_REG);
+		byte ns_reg = register[SR_Offset.NS_REG.getValue()];
 		if ((ns_reg & NS_Reg_Func.RF_LOCKED.getValue()) == 0)
 			return false;
 
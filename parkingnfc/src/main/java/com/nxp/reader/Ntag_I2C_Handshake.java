@@ -0,0 +1,201 @@
+package com.nxp.reader;
+
+import android.nfc.FormatException;
+
+import com.nxp.reader.I2C_Enabled_Commands.NC_Reg_Func;
+import com.nxp.reader.I2C_Enabled_Commands.NS_Reg_Func;
+import com.nxp.reader.I2C_Enabled_Commands.SR_Offset;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * SRAM pass-through handshake: polls the NS_REG session register until the
+ * I2C side has consumed or produced the SRAM, instead of sleeping for the
+ * whole timeout.
+ *
+ * The first poll is issued right away, afterwards the pause between polls
+ * doubles from MIN_BACKOFF_MS up to MAX_BACKOFF_MS and never goes past the
+ * deadline. The duration of every wait is recorded.
+ */
+public class Ntag_I2C_Handshake {
+
+	/**
+	 * Source of the session register page
+	 */
+	interface SessionRegisterSource {
+		byte[] getSessionRegisters() throws IOException, FormatException;
+	}
+
+	public static final int MIN_BACKOFF_MS = 1;
+	public static final int MAX_BACKOFF_MS = 8;
+
+	private final SessionRegisterSource source;
+
+	private volatile long lastWaitNanos;
+	private volatile long maxWaitNanos;
+	private volatile long totalWaitNanos;
+	private volatile int lastPolls;
+	private volatile int waits;
+	private volatile int timeouts;
+
+	Ntag_I2C_Handshake(SessionRegisterSource source) {
+		this.source = source;
+	}
+
+	/**
+	 * Waits till the I2C side has read the SRAM (SRAM_I2C_READY cleared)
+	 *
+	 * @param timeoutMS
+	 *            Deadline of the wait
+	 * @throws TimeoutException
+	 *             if the flag is still set when the deadline expires
+	 */
+	public void awaitI2CRead(int timeoutMS) throws IOException,
+			FormatException, TimeoutException {
+		await(NS_Reg_Func.SRAM_I2C_READY.getValue(), false, timeoutMS,
+				"waitforI2Cread had a timeout");
+	}
+
+	/**
+	 * Waits till the I2C side has written the SRAM (SRAM_RF_READY set)
+	 *
+	 * @param timeoutMS
+	 *            Deadline of the wait
+	 * @throws TimeoutException
+	 *             if the flag is still cleared when the deadline expires
+	 */
+	public void awaitI2CWrite(int timeoutMS) throws IOException,
+			FormatException, TimeoutException {
+		await(NS_Reg_Func.SRAM_RF_READY.getValue(), true, timeoutMS,
+				"waitforI2Cwrite had a timeout");
+	}
+
+	private void await(byte mask, boolean set, int timeoutMS, String message)
+			throws IOException, FormatException, TimeoutException {
+		final long start = System.nanoTime();
+		final long deadline = start + timeoutMS * 1000000L;
+		int backoff = MIN_BACKOFF_MS;
+		int polls = 0;
+
+		try {
+			while (true) {
+				byte[] regs = source.getSessionRegisters();
+				polls++;
+
+				// Without pass-through the NS_REG flags carry no handshake,
+				// the only option left is waiting the full timeout
+				if ((regs[SR_Offset.NC_REG.getValue()] & NC_Reg_Func.PTHRU_ON_OFF.getValue()) == 0) {
+					sleepUntil(deadline);
+					return;
+				}
+
+				boolean isSet = (regs[SR_Offset.NS_REG.getValue()] & mask) != 0;
+				if (isSet == set)
+					return;
+
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					timeouts++;
+					throw new TimeoutException(message);
+				}
+
+				sleepNanos(Math.min(backoff * 1000000L, remaining));
+				backoff = Math.min(backoff << 1, MAX_BACKOFF_MS);
+			}
+		} finally {
+			record(System.nanoTime() - start, polls);
+		}
+	}
+
+	private void record(long elapsed, int polls) {
+		lastWaitNanos = elapsed;
+		lastPolls = polls;
+		totalWaitNanos += elapsed;
+		if (elapsed > maxWaitNanos)
+			maxWaitNanos = elapsed;
+		waits++;
+	}
+
+	private static void sleepUntil(long deadline) throws InterruptedIOException {
+		long remaining = deadline - System.nanoTime();
+		if (remaining > 0)
+			sleepNanos(remaining);
+	}
+
+	private static void sleepNanos(long nanos) throws InterruptedIOException {
+		try {
+			Thread.sleep(nanos / 1000000L, (int) (nanos % 1000000L));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("SRAM handshake interrupted");
+		}
+	}
+
+	/**
+	 * Resets the recorded statistics
+	 */
+	public void resetStats() {
+		lastWaitNanos = 0;
+		maxWaitNanos = 0;
+		totalWaitNanos = 0;
+		lastPolls = 0;
+		waits = 0;
+		timeouts = 0;
+	}
+
+	/**
+	 * Returns the duration of the last wait
+	 *
+	 * @return Duration in nanoseconds
+	 */
+	public long getLastWaitNanos() {
+		return lastWaitNanos;
+	}
+
+	/**
+	 * Returns the longest wait since the last reset
+	 *
+	 * @return Duration in nanoseconds
+	 */
+	public long getMaxWaitNanos() {
+		return maxWaitNanos;
+	}
+
+	/**
+	 * Returns the sum of all waits since the last reset
+	 *
+	 * @return Duration in nanoseconds
+	 */
+	public long getTotalWaitNanos() {
+		return totalWaitNanos;
+	}
+
+	/**
+	 * Returns the number of NS_REG reads of the last wait
+	 *
+	 * @return Number of polls
+	 */
+	public int getLastPollCount() {
+		return lastPolls;
+	}
+
+	/**
+	 * Returns the number of waits since the last reset
+	 *
+	 * @return Number of waits
+	 */
+	public int getWaitCount() {
+		return waits;
+	}
+
+	/**
+	 * Returns the number of waits that ran into their deadline
+	 *
+	 * @return Number of timeouts
+	 */
+	public int getTimeoutCount() {
+		return timeouts;
+	}
+}
@@ -0,0 +1,104 @@
+package com.nxp.reader;
+
+/**
+ * Walks a range of EEPROM pages in chunks that never cross a sector.
+ *
+ * The absolute address holds the sector in the high byte and the page in
+ * the low byte. On the NTAG I2C 2k Plus the Config registers sit at 0xE2 of
+ * Sector 0, so the user memory continues after 0xE1 with page 0 of Sector
+ * 1.
+ *
+ * <pre>
+ * Ntag_I2C_Page_Cursor cursor = new Ntag_I2C_Page_Cursor(absStart, pages, config_gap);
+ * while (cursor.next(max_fast_read)) {
+ * 	// cursor.getSector(), getPage(), getPages() at byte getOffset()
+ * }
+ * </pre>
+ */
+public class Ntag_I2C_Page_Cursor {
+
+	/**
+	 * Last user page of Sector 0 on the NTAG I2C 2k Plus
+	 */
+	public static final int CONFIG_GAP_END = 0xE1;
+
+	private final boolean config_gap;
+	private final int total;
+
+	private int sector;
+	private int page;
+	private int chunk;
+	private int done;
+
+	/**
+	 * @param absStart
+	 *            Absolute address of the first page
+	 * @param pages
+	 *            Number of pages to walk
+	 * @param config_gap
+	 *            true for the NTAG I2C 2k Plus
+	 */
+	public Ntag_I2C_Page_Cursor(int absStart, int pages, boolean config_gap) {
+		this.config_gap = config_gap;
+		this.total = Math.max(0, pages);
+		this.sector = (absStart >> 8) & 0xFF;
+		this.page = absStart & 0xFF;
+	}
+
+	/**
+	 * Moves to the next chunk
+	 *
+	 * @param maxPages
+	 *            Most pages the chunk may hold
+	 * @return false once all pages were walked
+	 */
+	public boolean next(int maxPages) {
+		done += chunk;
+		page += chunk;
+		chunk = 0;
+
+		if (done >= total)
+			return false;
+
+		int sector_end = getSectorEnd();
+		if (page > sector_end) {
+			sector++;
+			page = 0;
+			sector_end = getSectorEnd();
+		}
+
+		chunk = Math.min(Math.min(total - done, Math.max(1, maxPages)),
+				sector_end - page + 1);
+		return true;
+	}
+
+	private int getSectorEnd() {
+		return (config_gap && sector == 0) ? CONFIG_GAP_END : 0xFF;
+	}
+
+	public int getSector() {
+		return sector;
+	}
+
+	/**
+	 * Returns the first page of the chunk within its sector
+	 */
+	public int getPage() {
+		return page;
+	}
+
+	/**
+	 * Returns the number of pages of the chunk
+	 */
+	public int getPages() {
+		return chunk;
+	}
+
+	/**
+	 * Returns the byte offset of the chunk in the range, the size of the
+	 * range once walked
+	 */
+	public int getOffset() {
+		return done * 4;
+	}
+}
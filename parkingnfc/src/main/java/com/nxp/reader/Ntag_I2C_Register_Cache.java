@@ -0,0 +1,77 @@
+package com.nxp.reader;
+
+/**
+ * Last read copy of a register page (Session or Config registers) together
+ * with the time it was read.
+ *
+ * A caller that can live with a value of a given age gets the copy back
+ * without touching the tag, otherwise it reads the page again and stores it
+ * with {@link #put(byte[])}. Writes to the registers have to call
+ * {@link #invalidate()}.
+ *
+ * The page is copied when it is stored and when it is handed out, so a
+ * caller may modify the array it gets without touching the stored page.
+ */
+public class Ntag_I2C_Register_Cache {
+
+	private byte[] page;
+	private long stamp;
+
+	private int hits;
+	private int misses;
+
+	/**
+	 * Returns the stored page if it was read less than maxAgeMS ago
+	 *
+	 * @param maxAgeMS
+	 *            Maximum age of the page, 0 never uses the stored page
+	 * @return Copy of the stored page, null if there is none or it is too
+	 *         old
+	 */
+	public synchronized byte[] get(int maxAgeMS) {
+		if (page != null && System.nanoTime() - stamp < maxAgeMS * 1000000L) {
+			hits++;
+			return page.clone();
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Stores a copy of a page which was just read from the tag
+	 */
+	public synchronized void put(byte[] page) {
+		this.page = page.clone();
+		this.stamp = System.nanoTime();
+	}
+
+	/**
+	 * Drops the stored page
+	 */
+	public synchronized void invalidate() {
+		page = null;
+	}
+
+	/**
+	 * Returns the age of the stored page
+	 *
+	 * @return Age in milliseconds, -1 if there is no page
+	 */
+	public synchronized long getAgeMillis() {
+		return page != null ? (System.nanoTime() - stamp) / 1000000L : -1;
+	}
+
+	/**
+	 * Returns how often the stored page was used
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns how often the page had to be read from the tag
+	 */
+	public synchronized int getMisses() {
+		return misses;
+	}
+}
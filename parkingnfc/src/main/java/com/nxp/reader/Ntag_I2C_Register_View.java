@@ -0,0 +1,207 @@
+package com.nxp.reader;
+
+import com.nxp.reader.I2C_Enabled_Commands.CR_Offset;
+import com.nxp.reader.I2C_Enabled_Commands.NC_Reg_Func;
+import com.nxp.reader.I2C_Enabled_Commands.NS_Reg_Func;
+import com.nxp.reader.I2C_Enabled_Commands.SR_Offset;
+
+/**
+ * Decodes the Session or Config Registers straight from the raw page as
+ * returned by the tag, a 4 byte page or the 16 byte answer of a READ.
+ *
+ * The view keeps no copy and decodes every field on access, so one
+ * instance can be wrapped around every new page of a polling loop without
+ * producing garbage. Fields past the end of a wrapped 4 byte page throw an
+ * IndexOutOfBoundsException.
+ *
+ * Not thread safe.
+ */
+public class Ntag_I2C_Register_View {
+
+	private byte[] data;
+	private int off;
+	private int limit;
+	private boolean session;
+
+	/**
+	 * Wraps a page of Session Registers
+	 *
+	 * @param data
+	 *            Raw page
+	 * @param off
+	 *            Offset of NC_REG in data
+	 * @return this view
+	 */
+	public Ntag_I2C_Register_View wrapSession(byte[] data, int off) {
+		return wrap(data, off, true);
+	}
+
+	/**
+	 * Wraps a page of Config Registers
+	 *
+	 * @param data
+	 *            Raw page
+	 * @param off
+	 *            Offset of NC_REG in data
+	 * @return this view
+	 */
+	public Ntag_I2C_Register_View wrapConfig(byte[] data, int off) {
+		return wrap(data, off, false);
+	}
+
+	private Ntag_I2C_Register_View wrap(byte[] data, int off, boolean session) {
+		if (off < 0 || off + 4 > data.length)
+			throw new IndexOutOfBoundsException("Register page too short");
+
+		this.data = data;
+		this.off = off;
+		this.limit = Math.min(data.length - off, 8);
+		this.session = session;
+		return this;
+	}
+
+	/**
+	 * Returns true if the view holds Session Registers
+	 */
+	public boolean isSession() {
+		return session;
+	}
+
+	private int reg(int offset) {
+		if (offset >= limit)
+			throw new IndexOutOfBoundsException("Register " + offset + " not in the wrapped page");
+		return data[off + offset] & 0xFF;
+	}
+
+	private boolean nc(NC_Reg_Func func) {
+		return (reg(SR_Offset.NC_REG.getValue()) & func.getValue()) != 0;
+	}
+
+	private boolean ns(NS_Reg_Func func) {
+		return (getNS_REG() & func.getValue() & 0xFF) != 0;
+	}
+
+	// NC_REG
+
+	public int getNC_REG() {
+		return reg(SR_Offset.NC_REG.getValue());
+	}
+
+	public boolean isI2C_RST_ON_OFF() {
+		return nc(NC_Reg_Func.I2C_RST_ON_OFF);
+	}
+
+	public boolean isPTHRU_ON_OFF() {
+		return nc(NC_Reg_Func.PTHRU_ON_OFF);
+	}
+
+	/**
+	 * Returns the field detection off condition, 0 to 3
+	 */
+	public int getFD_OFF() {
+		return (getNC_REG() >> 4) & 0x03;
+	}
+
+	/**
+	 * Returns the field detection on condition, 0 to 3
+	 */
+	public int getFD_ON() {
+		return (getNC_REG() >> 2) & 0x03;
+	}
+
+	public boolean isSRAM_MIRROR_ON_OFF() {
+		return nc(NC_Reg_Func.SRAM_MIRROR_ON_OFF);
+	}
+
+	/**
+	 * Returns true for pass-through from RF to I2C, false from I2C to RF
+	 */
+	public boolean isPTHRU_DIR() {
+		return nc(NC_Reg_Func.PTHRU_DIR);
+	}
+
+	// LAST_NDEF_PAGE, SM_REG, WDT, I2C_CLOCK_STR
+
+	public int getLAST_NDEF_PAGE() {
+		return reg(SR_Offset.LAST_NDEF_PAGE.getValue());
+	}
+
+	public int getSM_REG() {
+		return reg(SR_Offset.SM_REG.getValue());
+	}
+
+	public int getWD_LS() {
+		return reg(SR_Offset.WDT_LS.getValue());
+	}
+
+	public int getWD_MS() {
+		return reg(SR_Offset.WDT_MS.getValue());
+	}
+
+	/**
+	 * Returns the watchdog timer as one value, WDT_MS:WDT_LS
+	 */
+	public int getWatchdogTime() {
+		return getWD_MS() << 8 | getWD_LS();
+	}
+
+	public boolean isI2C_CLOCK_STR() {
+		return (reg(SR_Offset.I2C_CLOCK_STR.getValue()) & 0x01) != 0;
+	}
+
+	// NS_REG, Session Registers only
+
+	public int getNS_REG() {
+		if (!session)
+			throw new IllegalStateException("NS_REG is a Session Register");
+		return reg(SR_Offset.NS_REG.getValue());
+	}
+
+	public boolean isNDEF_DATA_READ() {
+		return ns(NS_Reg_Func.NDEF_DATA_READ);
+	}
+
+	public boolean isI2C_LOCKED() {
+		return ns(NS_Reg_Func.I2C_LOCKED);
+	}
+
+	public boolean isRF_LOCKED() {
+		return ns(NS_Reg_Func.RF_LOCKED);
+	}
+
+	public boolean isSRAM_I2C_READY() {
+		return ns(NS_Reg_Func.SRAM_I2C_READY);
+	}
+
+	public boolean isSRAM_RF_READY() {
+		return ns(NS_Reg_Func.SRAM_RF_READY);
+	}
+
+	public boolean isEEPROM_WR_ERR() {
+		return ns(NS_Reg_Func.EEPROM_WR_ERR);
+	}
+
+	public boolean isEEPROM_WR_BUSY() {
+		return ns(NS_Reg_Func.EEPROM_WR_BUSY);
+	}
+
+	public boolean isRF_FIELD_PRESENT() {
+		return ns(NS_Reg_Func.RF_FIELD_PRESENT);
+	}
+
+	// REG_LOCK, Config Registers only
+
+	public int getREG_LOCK() {
+		if (session)
+			throw new IllegalStateException("REG_LOCK is a Config Register");
+		return reg(CR_Offset.REG_LOCK.getValue());
+	}
+
+	public boolean isREG_LOCK_NFC() {
+		return (getREG_LOCK() & 0x01) != 0;
+	}
+
+	public boolean isREG_LOCK_I2C() {
+		return (getREG_LOCK() & 0x02) != 0;
+	}
+}
@@ -31,7 +31,10 @@ package com.nxp.reader;
  * Class for the Config/Session Register settings
  * @author NXP67729
  *
+ * @deprecated every field has to be filled in by hand and the flags are
+ *             boxed, use {@link Ntag_I2C_Register_View} over the raw page
  */
+@Deprecated
 public class Ntag_I2C_Registers {
 	public String Manufacture;
 	public int Mem_size;
@@ -0,0 +1,254 @@
+package com.nxp.reader;
+
+import android.nfc.FormatException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a batch of page reads and writes with as few SECTOR_SELECTs as
+ * possible.
+ *
+ * Between two barriers the requests are grouped by sector, the group of
+ * the sector the tag is in goes first. Inside a sector the requests keep
+ * the order in which they were added. Requests on different sectors are
+ * taken as independent: where a result depends on an access to another
+ * sector, like NS_REG after an SRAM write on the NTAG I2C 2k, a
+ * {@link #barrier()} has to be placed between them.
+ *
+ * A batch that writes Config, Auth or Session Register pages invalidates
+ * the register cache of the commands, like
+ * {@link Ntag_I2C_Commands#writeConfigRegisters} does.
+ *
+ * Not thread safe, the batch is cleared by {@link #execute()}.
+ */
+public class Ntag_Sector_Scheduler {
+
+	/**
+	 * A read or write of consecutive pages of one sector
+	 */
+	public static final class Request {
+		final int sector;
+		final int startPage;
+		final int endPage;
+		final boolean write;
+		byte[] data;
+
+		Request(int sector, int startPage, int endPage, boolean write, byte[] data) {
+			this.sector = sector;
+			this.startPage = startPage;
+			this.endPage = endPage;
+			this.write = write;
+			this.data = data;
+		}
+
+		public int getSector() {
+			return sector;
+		}
+
+		/**
+		 * Returns the data written or, for a read, the data read once the
+		 * batch has been executed
+		 */
+		public byte[] getData() {
+			return data;
+		}
+	}
+
+	private final Ntag_I2C_Commands commands;
+	private final Ntag_Commands reader;
+	private final List<List<Request>> segments = new ArrayList<List<Request>>();
+
+	private int selects;
+	private int selectsSaved;
+
+	public Ntag_Sector_Scheduler(Ntag_I2C_Commands commands) {
+		this.commands = commands;
+		this.reader = commands.reader;
+		segments.add(new ArrayList<Request>());
+	}
+
+	/**
+	 * Adds a read of pages startPage to endPage(included)
+	 */
+	public Request read(int sector, int startPage, int endPage) {
+		checkPages(startPage, endPage);
+		return add(new Request(sector, startPage, endPage, false, null));
+	}
+
+	/**
+	 * Adds a write of data from startPage on, the last page is padded with
+	 * zeros
+	 */
+	public Request write(int sector, int startPage, byte[] data) {
+		int endPage = startPage + Math.max(1, (data.length + 3) / 4) - 1;
+		checkPages(startPage, endPage);
+		return add(new Request(sector, startPage, endPage, true, data));
+	}
+
+	/**
+	 * Requests added after the barrier are executed after all requests added
+	 * before it
+	 */
+	public void barrier() {
+		if (!segments.get(segments.size() - 1).isEmpty())
+			segments.add(new ArrayList<Request>());
+	}
+
+	private static void checkPages(int startPage, int endPage) {
+		if (startPage < 0 || endPage > 0xFF || endPage < startPage)
+			throw new IllegalArgumentException("Pages " + startPage + " to " + endPage);
+	}
+
+	private Request add(Request request) {
+		segments.get(segments.size() - 1).add(request);
+		return request;
+	}
+
+	/**
+	 * Executes the batch
+	 *
+	 * @throws IOException
+	 * @throws FormatException
+	 */
+	public void execute() throws IOException, FormatException {
+		int current = reader.getCurrentSector();
+		List<Request> order = plan(segments, current);
+
+		int inOrder = countSelects(segments, current);
+		int planned = 0;
+		int max_fast_read = Math.max(1, (reader.getMaxTransceiveLength() - 2) / 4);
+		boolean registersWritten = false;
+
+		try {
+			for (Request request : order) {
+				if (request.sector != reader.getCurrentSector())
+					planned++;
+				reader.SectorSelect((byte) request.sector);
+
+				if (request.write) {
+					registersWritten |= writesRegisters(request);
+					for (int page = request.startPage; page <= request.endPage; page++)
+						reader.write(request.data, (page - request.startPage) * 4, (byte) page);
+				} else {
+					request.data = new byte[(request.endPage - request.startPage + 1) * 4];
+					for (int page = request.startPage; page <= request.endPage; page += max_fast_read) {
+						int end = Math.min(request.endPage, page + max_fast_read - 1);
+						reader.fast_read((byte) page, (byte) end, request.data,
+								(page - request.startPage) * 4);
+					}
+				}
+			}
+		} finally {
+			// also after a failed write, the page may have been written
+			if (registersWritten)
+				commands.invalidateRegisterCache();
+			segments.clear();
+			segments.add(new ArrayList<Request>());
+		}
+
+		selects = planned;
+		selectsSaved = inOrder - planned;
+	}
+
+	/**
+	 * Checks whether a write touches the pages from AUTH0 on, which hold the
+	 * Auth, Config and Session Registers, except the SRAM of sector 1
+	 */
+	static boolean writesRegisters(Request request) {
+		return writesRegisters(request.sector, request.startPage, request.endPage);
+	}
+
+	/**
+	 * Checks whether writing the pages startPage to endPage of a sector
+	 * touches the registers, like {@link #writesRegisters(Request)}
+	 */
+	static boolean writesRegisters(int sector, int startPage, int endPage) {
+		int first = Ntag_I2C_Commands.Register.AUTH0.getValue() & 0xFF;
+		int sram = Ntag_I2C_Commands.Register.SRAM_Begin.getValue() & 0xFF;
+		if (endPage < first)
+			return false;
+		return sector != 1 || startPage < sram;
+	}
+
+	/**
+	 * Returns the SECTOR_SELECTs issued by the last batch
+	 */
+	public int getSelects() {
+		return selects;
+	}
+
+	/**
+	 * Returns the SECTOR_SELECTs the last batch saved compared to running the
+	 * requests in the order they were added
+	 */
+	public int getSelectsSaved() {
+		return selectsSaved;
+	}
+
+	/**
+	 * Orders the requests: segment by segment, the sector the tag is in
+	 * first, a sector the next segment uses as well last, the others in the
+	 * order they were first used
+	 */
+	static List<Request> plan(List<List<Request>> segments, int current) {
+		List<Request> order = new ArrayList<Request>();
+		List<Integer> sectors = new ArrayList<Integer>();
+
+		for (int s = 0; s < segments.size(); s++) {
+			List<Request> segment = segments.get(s);
+			if (segment.isEmpty())
+				continue;
+
+			sectors.clear();
+			for (Request request : segment) {
+				if (!sectors.contains(request.sector))
+					sectors.add(request.sector);
+			}
+
+			if (sectors.remove((Integer) current))
+				sectors.add(0, current);
+
+			int next = sharedSector(segments, s + 1, sectors);
+			if (next != -1 && sectors.size() > 1 && sectors.get(0) != next
+					&& sectors.remove((Integer) next))
+				sectors.add(next);
+
+			for (int sector : sectors) {
+				for (Request request : segment) {
+					if (request.sector == sector)
+						order.add(request);
+				}
+			}
+			current = sectors.get(sectors.size() - 1);
+		}
+		return order;
+	}
+
+	private static int sharedSector(List<List<Request>> segments, int from, List<Integer> sectors) {
+		for (int s = from; s < segments.size(); s++) {
+			if (segments.get(s).isEmpty())
+				continue;
+
+			for (Request request : segments.get(s)) {
+				if (sectors.contains(request.sector))
+					return request.sector;
+			}
+			return -1;
+		}
+		return -1;
+	}
+
+	static int countSelects(List<List<Request>> segments, int current) {
+		int count = 0;
+		for (List<Request> segment : segments) {
+			for (Request request : segment) {
+				if (request.sector != current)
+					count++;
+				current = request.sector;
+			}
+		}
+		return count;
+	}
+}
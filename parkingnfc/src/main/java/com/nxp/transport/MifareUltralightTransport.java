@@ -0,0 +1,77 @@
+package com.nxp.transport;
+
+import android.nfc.Tag;
+import android.nfc.tech.MifareUltralight;
+
+import java.io.IOException;
+
+/**
+ * TagTransport over the MifareUltralight technology of a Tag. Some
+ * controllers, e.g. the ones of Samsung, only accept READ and WRITE through
+ * readPages and writePage.
+ */
+public class MifareUltralightTransport implements TagTransport {
+
+	private final MifareUltralight mfu;
+
+	public MifareUltralightTransport(MifareUltralight mfu) {
+		this.mfu = mfu;
+	}
+
+	/**
+	 * Returns the transport of a Tag
+	 * 
+	 * @param tag
+	 *            Discovered Tag
+	 * @return Transport, null if the Tag does not support MifareUltralight
+	 */
+	public static MifareUltralightTransport get(Tag tag) {
+		MifareUltralight mfu = MifareUltralight.get(tag);
+		return mfu != null ? new MifareUltralightTransport(mfu) : null;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		mfu.connect();
+	}
+
+	@Override
+	public void close() throws IOException {
+		mfu.close();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return mfu.isConnected();
+	}
+
+	@Override
+	public byte[] transceive(byte[] data) throws IOException {
+		return mfu.transceive(data);
+	}
+
+	@Override
+	public byte[] readPages(int pageOffset) throws IOException {
+		return mfu.readPages(pageOffset);
+	}
+
+	@Override
+	public void writePage(int pageOffset, byte[] data) throws IOException {
+		mfu.writePage(pageOffset, data);
+	}
+
+	@Override
+	public void setTimeout(int timeout) {
+		mfu.setTimeout(timeout);
+	}
+
+	@Override
+	public int getTimeout() {
+		return mfu.getTimeout();
+	}
+
+	@Override
+	public int getMaxTransceiveLength() {
+		return mfu.getMaxTransceiveLength();
+	}
+}
@@ -0,0 +1,77 @@
+package com.nxp.transport;
+
+import android.nfc.Tag;
+import android.nfc.tech.NfcA;
+
+import java.io.IOException;
+
+/**
+ * TagTransport over the NfcA technology of a Tag. READ and WRITE are sent
+ * as raw commands.
+ */
+public class NfcATransport implements TagTransport {
+
+	private final NfcA nfca;
+
+	public NfcATransport(NfcA nfca) {
+		this.nfca = nfca;
+	}
+
+	/**
+	 * Returns the transport of a Tag
+	 * 
+	 * @param tag
+	 *            Discovered Tag
+	 * @return Transport, null if the Tag does not support NfcA
+	 */
+	public static NfcATransport get(Tag tag) {
+		NfcA nfca = NfcA.get(tag);
+		return nfca != null ? new NfcATransport(nfca) : null;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		nfca.connect();
+	}
+
+	@Override
+	public void close() throws IOException {
+		nfca.close();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return nfca.isConnected();
+	}
+
+	@Override
+	public byte[] transceive(byte[] data) throws IOException {
+		return nfca.transceive(data);
+	}
+
+	@Override
+	public byte[] readPages(int pageOffset) throws IOException {
+		return nfca.transceive(new byte[] { (byte) 0x30, (byte) pageOffset });
+	}
+
+	@Override
+	public void writePage(int pageOffset, byte[] data) throws IOException {
+		nfca.transceive(new byte[] { (byte) 0xA2, (byte) pageOffset,
+				data[0], data[1], data[2], data[3] });
+	}
+
+	@Override
+	public void setTimeout(int timeout) {
+		nfca.setTimeout(timeout);
+	}
+
+	@Override
+	public int getTimeout() {
+		return nfca.getTimeout();
+	}
+
+	@Override
+	public int getMaxTransceiveLength() {
+		return nfca.getMaxTransceiveLength();
+	}
+}
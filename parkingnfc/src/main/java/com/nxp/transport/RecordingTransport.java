@@ -0,0 +1,159 @@
+package com.nxp.transport;
+
+import com.nxp.transport.TransceiveLog.Type;
+
+import java.io.IOException;
+
+/**
+ * Passes every call to a transport and records it with its timing into a
+ * {@link TransceiveLog}. A failing log does not fail the call, it is only
+ * reported by {@link #getLogError()}. Requests carrying the password are
+ * recorded redacted, see {@link TransceiveLog#redact(Type, byte[])}.
+ */
+public class RecordingTransport implements TagTransport {
+
+	private static final byte[] NONE = new byte[0];
+
+	private final TagTransport transport;
+	private final TransceiveLog.Writer log;
+	private final int channel;
+	private boolean length_recorded;
+	private volatile IOException log_error;
+
+	/**
+	 * @param transport
+	 *            Transport to record
+	 * @param log
+	 *            Log, may be shared by the transports of one Tag
+	 * @param channel
+	 *            Id of the transport in the log, 0 to 7
+	 */
+	public RecordingTransport(TagTransport transport, TransceiveLog.Writer log,
+			int channel) {
+		this.transport = transport;
+		this.log = log;
+		this.channel = channel;
+	}
+
+	private void record(Type type, long start, byte[] request, byte[] response,
+			Exception error) {
+		long duration = System.nanoTime() - start;
+		try {
+			log.write(channel, type, start, duration, TransceiveLog.redact(type, request), response,
+					error == null ? null : String.valueOf(error.getMessage()));
+		} catch (IOException e) {
+			log_error = e;
+		}
+	}
+
+	/**
+	 * Returns the last error of the log, null if every record was written
+	 */
+	public IOException getLogError() {
+		return log_error;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		long start = System.nanoTime();
+		try {
+			transport.connect();
+			record(Type.CONNECT, start, NONE, NONE, null);
+		} catch (IOException e) {
+			record(Type.CONNECT, start, NONE, null, e);
+			throw e;
+		}
+	}
+
+	/*
+	 * The log is flushed, so a capture is complete up to the last session
+	 */
+	@Override
+	public void close() throws IOException {
+		long start = System.nanoTime();
+		try {
+			transport.close();
+			record(Type.CLOSE, start, NONE, NONE, null);
+		} catch (IOException e) {
+			record(Type.CLOSE, start, NONE, null, e);
+			throw e;
+		} finally {
+			try {
+				log.flush();
+			} catch (IOException e) {
+				log_error = e;
+			}
+		}
+	}
+
+	@Override
+	public boolean isConnected() {
+		return transport.isConnected();
+	}
+
+	@Override
+	public byte[] transceive(byte[] data) throws IOException {
+		long start = System.nanoTime();
+		try {
+			byte[] answer = transport.transceive(data);
+			record(Type.TRANSCEIVE, start, data, answer, null);
+			return answer;
+		} catch (IOException e) {
+			record(Type.TRANSCEIVE, start, data, null, e);
+			throw e;
+		}
+	}
+
+	@Override
+	public byte[] readPages(int pageOffset) throws IOException {
+		byte[] request = { (byte) pageOffset };
+		long start = System.nanoTime();
+		try {
+			byte[] answer = transport.readPages(pageOffset);
+			record(Type.READ_PAGES, start, request, answer, null);
+			return answer;
+		} catch (IOException e) {
+			record(Type.READ_PAGES, start, request, null, e);
+			throw e;
+		}
+	}
+
+	@Override
+	public void writePage(int pageOffset, byte[] data) throws IOException {
+		byte[] request = { (byte) pageOffset, data[0], data[1], data[2], data[3] };
+		long start = System.nanoTime();
+		try {
+			transport.writePage(pageOffset, data);
+			record(Type.WRITE_PAGE, start, request, NONE, null);
+		} catch (IOException e) {
+			record(Type.WRITE_PAGE, start, request, null, e);
+			throw e;
+		}
+	}
+
+	@Override
+	public void setTimeout(int timeout) {
+		long start = System.nanoTime();
+		transport.setTimeout(timeout);
+		record(Type.SET_TIMEOUT, start, TransceiveLog.intBytes(timeout), NONE, null);
+	}
+
+	@Override
+	public int getTimeout() {
+		return transport.getTimeout();
+	}
+
+	/*
+	 * Recorded once, the length does not change for a Tag
+	 */
+	@Override
+	public int getMaxTransceiveLength() {
+		int length = transport.getMaxTransceiveLength();
+		if (!length_recorded) {
+			length_recorded = true;
+			record(Type.MAX_TRANSCEIVE_LENGTH, System.nanoTime(), NONE,
+					TransceiveLog.intBytes(length), null);
+		}
+		return length;
+	}
+}
@@ -0,0 +1,84 @@
+package com.nxp.transport;
+
+import java.io.IOException;
+
+/**
+ * Connection to a ISO 14443-3A Tag which carries the NTAG commands.
+ * 
+ * On a phone it is backed by the NfcA or MifareUltralight technology of the
+ * Tag, off the phone by a model of the Tag, so the reader stack runs on any
+ * JVM.
+ */
+public interface TagTransport {
+
+	/**
+	 * Opens the connection to the Tag
+	 * 
+	 * @throws IOException
+	 */
+	void connect() throws IOException;
+
+	/**
+	 * Closes the connection to the Tag
+	 * 
+	 * @throws IOException
+	 */
+	void close() throws IOException;
+
+	/**
+	 * Checks if the connection is open
+	 */
+	boolean isConnected();
+
+	/**
+	 * Sends a raw command to the Tag
+	 * 
+	 * @param data
+	 *            Command without CRC
+	 * @return Answer of the Tag without CRC
+	 * @throws IOException
+	 *             if the Tag answers with a NAK, does not answer within the
+	 *             timeout or is gone
+	 */
+	byte[] transceive(byte[] data) throws IOException;
+
+	/**
+	 * Reads 4 pages
+	 * 
+	 * @param pageOffset
+	 *            First page to read
+	 * @return 16 bytes
+	 * @throws IOException
+	 */
+	byte[] readPages(int pageOffset) throws IOException;
+
+	/**
+	 * Writes 1 page
+	 * 
+	 * @param pageOffset
+	 *            Page to write
+	 * @param data
+	 *            4 bytes
+	 * @throws IOException
+	 */
+	void writePage(int pageOffset, byte[] data) throws IOException;
+
+	/**
+	 * Sets the time to wait for an answer of {@link #transceive(byte[])}
+	 * 
+	 * @param timeout
+	 *            Timeout in ms
+	 */
+	void setTimeout(int timeout);
+
+	/**
+	 * Returns the time to wait for an answer in ms
+	 */
+	int getTimeout();
+
+	/**
+	 * Returns the maximum number of bytes that can be sent with
+	 * {@link #transceive(byte[])}
+	 */
+	int getMaxTransceiveLength();
+}
@@ -0,0 +1,287 @@
+package com.nxp.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary capture of the traffic of a {@link TagTransport}.
+ *
+ * The log starts with the magic "NTLG" and a version byte, followed by one
+ * record per call:
+ *
+ * <pre>
+ * byte    type | channel &lt;&lt; 4 | failed &lt;&lt; 7
+ * varlong ns since the start of the previous record
+ * varlong ns the call took
+ * varint  request length, request bytes
+ * varint  response length, response bytes   if not failed
+ * UTF     exception message                  if failed
+ * </pre>
+ *
+ * The channel tells the transports of one Tag apart, e.g. NfcA and
+ * MifareUltralight. A READ or WRITE of a page is recorded with the page and
+ * data as request, a timeout or length with its value as 4 bytes big
+ * endian. Passwords are zeroed before a request is written, see
+ * {@link #redact(Type, byte[])}.
+ */
+public class TransceiveLog {
+
+	public static final int MAGIC = 0x4E544C47;
+	public static final int VERSION = 1;
+
+	private static final byte PWD_AUTH = (byte) 0x1B;
+	private static final byte WRITE = (byte) 0xA2;
+	private static final byte PWD_PAGE = (byte) 0xE5;
+
+	public enum Type {
+		CONNECT, CLOSE, TRANSCEIVE, READ_PAGES, WRITE_PAGE, SET_TIMEOUT, MAX_TRANSCEIVE_LENGTH
+	}
+
+	/**
+	 * One recorded call
+	 */
+	public static class Event {
+		public final int channel;
+		public final Type type;
+		/**
+		 * Start of the call in ns since the log was created
+		 */
+		public final long startNanos;
+		public final long durationNanos;
+		public final byte[] request;
+		/**
+		 * Answer of the call, null if it failed
+		 */
+		public final byte[] response;
+		/**
+		 * Message of the exception, null if the call succeeded
+		 */
+		public final String error;
+
+		public Event(int channel, Type type, long startNanos, long durationNanos,
+				byte[] request, byte[] response, String error) {
+			this.channel = channel;
+			this.type = type;
+			this.startNanos = startNanos;
+			this.durationNanos = durationNanos;
+			this.request = request;
+			this.response = response;
+			this.error = error;
+		}
+
+		public boolean isFailed() {
+			return error != null;
+		}
+	}
+
+	/**
+	 * Appends records to a log, shared by the transports of one Tag. Records
+	 * written after {@link #close()} are dropped.
+	 */
+	public static class Writer implements Closeable {
+		private static final byte[] EMPTY = new byte[0];
+
+		private final DataOutputStream out;
+		private long last_start;
+		private boolean closed;
+		private long records;
+
+		public Writer(OutputStream out) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(out));
+			this.out.writeInt(MAGIC);
+			this.out.writeByte(VERSION);
+			this.last_start = System.nanoTime();
+		}
+
+		/**
+		 * Appends a record
+		 *
+		 * @param start
+		 *            System.nanoTime() at the start of the call
+		 */
+		public synchronized void write(int channel, Type type, long start,
+				long duration, byte[] request, byte[] response, String error)
+				throws IOException {
+			if (closed)
+				return;
+
+			boolean failed = error != null;
+			out.writeByte(type.ordinal() | (channel & 0x07) << 4 | (failed ? 0x80 : 0));
+			writeVarLong(out, Math.max(0, start - last_start));
+			writeVarLong(out, Math.max(0, duration));
+			writeBytes(out, request != null ? request : EMPTY);
+			if (failed)
+				out.writeUTF(error);
+			else
+				writeBytes(out, response != null ? response : EMPTY);
+
+			last_start = start;
+			records++;
+		}
+
+		public synchronized long getRecordCount() {
+			return records;
+		}
+
+		public synchronized void flush() throws IOException {
+			if (!closed)
+				out.flush();
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+			out.close();
+		}
+	}
+
+	/**
+	 * Creates a log file, an existing one is replaced
+	 */
+	public static Writer create(File file) throws IOException {
+		File dir = file.getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Can not create " + dir);
+		return new Writer(new FileOutputStream(file));
+	}
+
+	public static List<Event> read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return read(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads all records of a log. A record cut short at the end, e.g. by a
+	 * crash while capturing, is dropped.
+	 */
+	public static List<Event> read(InputStream input) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a transceive log");
+		int version = in.readUnsignedByte();
+		if (version != VERSION)
+			throw new IOException("Unsupported log version " + version);
+
+		Type[] types = Type.values();
+		List<Event> events = new ArrayList<>();
+		long start = 0;
+
+		while (true) {
+			int head = in.read();
+			if (head < 0)
+				break;
+
+			try {
+				int type = head & 0x0F;
+				if (type >= types.length)
+					throw new IOException("Unknown record type " + type);
+
+				start += readVarLong(in);
+				long duration = readVarLong(in);
+				byte[] request = readBytes(in);
+				boolean failed = (head & 0x80) != 0;
+				String error = failed ? in.readUTF() : null;
+				byte[] response = failed ? null : readBytes(in);
+
+				events.add(new Event((head >> 4) & 0x07, types[type], start,
+						duration, request, response, error));
+			} catch (EOFException e) {
+				break;
+			}
+		}
+		return events;
+	}
+
+	/**
+	 * Returns a request as it is logged: the password of a PWD_AUTH and the
+	 * data of a WRITE to the PWD page are zeroed, so a capture does not leak
+	 * the password. The log does not know the sector, page 0xE5 is zeroed in
+	 * every sector.
+	 *
+	 * @return The request itself if it holds no password, a zeroed copy
+	 *         otherwise
+	 */
+	public static byte[] redact(Type type, byte[] request) {
+		int from;
+		if (type == Type.TRANSCEIVE && request.length > 1 && request[0] == PWD_AUTH)
+			from = 1;
+		else if (type == Type.TRANSCEIVE && request.length > 2 && request[0] == WRITE
+				&& request[1] == PWD_PAGE)
+			from = 2;
+		else if (type == Type.WRITE_PAGE && request.length > 1 && request[0] == PWD_PAGE)
+			from = 1;
+		else
+			return request;
+
+		byte[] redacted = request.clone();
+		for (int i = from; i < redacted.length; i++)
+			redacted[i] = 0;
+		return redacted;
+	}
+
+	/**
+	 * Encodes an int value as request or response
+	 */
+	public static byte[] intBytes(int value) {
+		return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16),
+				(byte) (value >>> 8), (byte) value };
+	}
+
+	public static int toInt(byte[] bytes) {
+		return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16
+				| (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] data)
+			throws IOException {
+		writeVarLong(out, data.length);
+		out.write(data);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		long len = readVarLong(in);
+		if (len > 0xFFFF)
+			throw new IOException("Record of " + len + " bytes");
+		byte[] data = new byte[(int) len];
+		in.readFully(data);
+		return data;
+	}
+
+	private static void writeVarLong(DataOutputStream out, long value)
+			throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed varlong");
+	}
+}
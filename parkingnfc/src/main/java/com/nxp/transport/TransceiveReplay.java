@@ -0,0 +1,239 @@
+package com.nxp.transport;
+
+import com.nxp.ByteUtils;
+import com.nxp.transport.TransceiveLog.Event;
+import com.nxp.transport.TransceiveLog.Type;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a {@link TransceiveLog} back as the Tag, so the reader stack runs
+ * on captured traffic without a radio.
+ *
+ * Every request gets the answers recorded for the same request on the same
+ * channel, in their order. The stack may poll more or less often than when
+ * it was captured, e.g. while waiting for the SRAM handshake: surplus polls
+ * get the last answer again and answers not asked for are skipped. A
+ * request that was never captured fails with an IOException. Requests are
+ * matched redacted like they were logged, so a PWD_AUTH matches whatever
+ * the password.
+ *
+ * <pre>
+ * TransceiveReplay replay = new TransceiveReplay(TransceiveLog.read(file), Timing.ZERO);
+ * Ntag_I2C_Commands channel = new Ntag_I2C_Commands(replay.getTransport(0), replay.getTransport(1));
+ * </pre>
+ */
+public class TransceiveReplay {
+
+	public enum Timing {
+		/**
+		 * Every call takes as long as when it was captured
+		 */
+		ORIGINAL,
+		/**
+		 * Every call returns at once, only the stack itself costs time
+		 */
+		ZERO
+	}
+
+	private static final int DEFAULT_MAX_TRANSCEIVE_LENGTH = 253;
+
+	private final Timing timing;
+	private final Map<String, ArrayDeque<Event>> answers = new HashMap<>();
+	private final Map<String, Event> last = new HashMap<>();
+	private final int[] max_transceive = new int[8];
+
+	private long replayed;
+	private long repeated;
+	private long missed;
+	private long replayed_nanos;
+
+	/**
+	 * @param events
+	 *            Records of a capture
+	 * @param timing
+	 *            Timing of the calls
+	 */
+	public TransceiveReplay(List<Event> events, Timing timing) {
+		this.timing = timing;
+		for (int i = 0; i < max_transceive.length; i++)
+			max_transceive[i] = DEFAULT_MAX_TRANSCEIVE_LENGTH;
+
+		for (Event event : events) {
+			if (event.type == Type.MAX_TRANSCEIVE_LENGTH) {
+				max_transceive[event.channel] = TransceiveLog.toInt(event.response);
+				continue;
+			}
+			String key = key(event.channel, event.type, event.request);
+			ArrayDeque<Event> queue = answers.get(key);
+			if (queue == null) {
+				queue = new ArrayDeque<>();
+				answers.put(key, queue);
+			}
+			queue.add(event);
+		}
+	}
+
+	private static String key(int channel, Type type, byte[] request) {
+		return channel + ":" + type.ordinal() + ":"
+				+ ByteUtils.bytesToHex(TransceiveLog.redact(type, request));
+	}
+
+	/**
+	 * Returns the transport playing a channel of the capture
+	 *
+	 * @param channel
+	 *            Channel given to the RecordingTransport
+	 */
+	public TagTransport getTransport(int channel) {
+		return new Transport(channel);
+	}
+
+	/**
+	 * Returns the recorded call for a request and waits its duration
+	 */
+	private synchronized Event replay(int channel, Type type, byte[] request,
+			boolean required) {
+		String key = key(channel, type, request);
+		ArrayDeque<Event> queue = answers.get(key);
+		Event event;
+
+		if (queue != null && !queue.isEmpty()) {
+			event = queue.poll();
+			last.put(key, event);
+		} else {
+			event = last.get(key);
+			if (event == null) {
+				if (required)
+					missed++;
+				return null;
+			}
+			repeated++;
+		}
+
+		replayed++;
+		replayed_nanos += event.durationNanos;
+		if (timing == Timing.ORIGINAL)
+			sleepNanos(event.durationNanos);
+		return event;
+	}
+
+	private static void sleepNanos(long nanos) {
+		long deadline = System.nanoTime() + nanos;
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > 0)
+			LockSupport.parkNanos(remaining);
+	}
+
+	/**
+	 * Returns the number of calls answered from the capture
+	 */
+	public synchronized long getReplayedCount() {
+		return replayed;
+	}
+
+	/**
+	 * Returns the number of calls answered with an answer already used
+	 */
+	public synchronized long getRepeatedCount() {
+		return repeated;
+	}
+
+	/**
+	 * Returns the number of calls which were not in the capture
+	 */
+	public synchronized long getMissedCount() {
+		return missed;
+	}
+
+	/**
+	 * Returns the captured time of all calls replayed so far, the radio time
+	 * of the traffic
+	 */
+	public synchronized long getReplayedNanos() {
+		return replayed_nanos;
+	}
+
+	private class Transport implements TagTransport {
+		private final int channel;
+		private boolean connected;
+		private int timeout;
+
+		Transport(int channel) {
+			this.channel = channel;
+		}
+
+		private byte[] call(Type type, byte[] request) throws IOException {
+			Event event = replay(channel, type, request, true);
+			if (event == null)
+				throw new IOException("Not in the capture: " + type + " "
+						+ ByteUtils.bytesToHex(TransceiveLog.redact(type, request)));
+			if (event.isFailed())
+				throw new IOException(event.error);
+			return event.response.clone();
+		}
+
+		/*
+		 * Connection state is not matched against the capture, only its
+		 * failures and timing are replayed
+		 */
+		private void state(Type type) throws IOException {
+			Event event = replay(channel, type, new byte[0], false);
+			if (event != null && event.isFailed())
+				throw new IOException(event.error);
+		}
+
+		@Override
+		public void connect() throws IOException {
+			state(Type.CONNECT);
+			connected = true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			connected = false;
+			state(Type.CLOSE);
+		}
+
+		@Override
+		public boolean isConnected() {
+			return connected;
+		}
+
+		@Override
+		public byte[] transceive(byte[] data) throws IOException {
+			return call(Type.TRANSCEIVE, data);
+		}
+
+		@Override
+		public byte[] readPages(int pageOffset) throws IOException {
+			return call(Type.READ_PAGES, new byte[] { (byte) pageOffset });
+		}
+
+		@Override
+		public void writePage(int pageOffset, byte[] data) throws IOException {
+			call(Type.WRITE_PAGE, new byte[] { (byte) pageOffset, data[0],
+					data[1], data[2], data[3] });
+		}
+
+		@Override
+		public void setTimeout(int timeout) {
+			this.timeout = timeout;
+		}
+
+		@Override
+		public int getTimeout() {
+			return timeout;
+		}
+
+		@Override
+		public int getMaxTransceiveLength() {
+			return max_transceive[channel];
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package ar.com.exo.parkingnfc.transfer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compressed transfers against a {@link SimulatedSensor} behind a model Tag
+ */
+public class CompressedTransferTest extends SensorFixture {
+
+    private final byte[] log = Lz4CodecTest.logFile(8000);
+
+    @Test
+    public void sendsCompressedWhenItSavesPackages() throws Exception {
+        FileTransfer plain = new FileTransfer(channel);
+        plain.setCompression(true);
+        plain.send(TransferSource.of(log), null);
+
+        assertTrue(plain.isCompressed());
+        assertTrue(sensor.isCompressed());
+        assertTrue(sensor.isComplete());
+        assertArrayEquals(log, sensor.getData());
+        assertTrue(plain.getFramesSent() < log.length / 64 / 2);
+
+        WindowedTransfer windowed = new WindowedTransfer(channel);
+        windowed.setCompression(true);
+        windowed.send(TransferSource.of(log), null);
+
+        assertTrue(windowed.isCompressed());
+        assertTrue(sensor.isComplete());
+        assertArrayEquals(log, sensor.getData());
+    }
+
+    @Test
+    public void sendsIncompressibleFilesAsTheyAre() throws Exception {
+        byte[] noise = new byte[3000];
+        new Random(11).nextBytes(noise);
+
+        WindowedTransfer windowed = new WindowedTransfer(channel);
+        windowed.setCompression(true);
+        windowed.send(TransferSource.of(noise), null);
+
+        assertFalse(windowed.isCompressed());
+        assertFalse(sensor.isCompressed());
+        assertTrue(sensor.isComplete());
+        assertArrayEquals(noise, sensor.getData());
+    }
+
+    @Test
+    public void windowedFallsBackOnFirmwareWithoutLz4() throws Exception {
+        sensor.setLz4(false);
+
+        WindowedTransfer windowed = new WindowedTransfer(channel);
+        windowed.setCompression(true);
+        windowed.send(TransferSource.of(log), null);
+
+        assertFalse(windowed.isCompressed());
+        assertFalse(sensor.isCompressed());
+        assertTrue(sensor.isComplete());
+        assertArrayEquals(log, sensor.getData());
+    }
+
+    @Test(expected = IOException.class)
+    public void plainFailsOnFirmwareWithoutLz4() throws Exception {
+        sensor.setLz4(false);
+
+        FileTransfer plain = new FileTransfer(channel);
+        plain.setCompression(true);
+        plain.setStatusTimeout(20);
+        plain.send(TransferSource.of(log), null);
+    }
+}
@@ -0,0 +1,96 @@
+package ar.com.exo.parkingnfc.transfer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * CMD_FILE_RECEIVE transfers from a {@link SimulatedSensor} behind a model
+ * Tag
+ */
+public class FileReceiverTest extends SensorFixture {
+
+    private static byte[] file(int length) {
+        byte[] file = new byte[length];
+        new Random(length).nextBytes(file);
+        return file;
+    }
+
+    private byte[] receive(FileReceiver receiver) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        receiver.receive(Channels.newChannel(out), null);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void receivesFilesOfEveryPackageBoundary() throws Exception {
+        for (int length : new int[] { 0, 1, FileReceiver.PAYLOAD, FileReceiver.PAYLOAD + 1, 5000 }) {
+            byte[] file = file(length);
+            sensor.setFile(file);
+
+            FileReceiver receiver = new FileReceiver(channel);
+            assertArrayEquals("length " + length, file, receive(receiver));
+            assertEquals(length, receiver.getLength());
+            assertEquals(0, receiver.getPackagesRepeated());
+            // the header and one frame per package
+            long packages = (length + FileReceiver.PAYLOAD - 1) / FileReceiver.PAYLOAD;
+            assertEquals(1 + packages, receiver.getFramesRead());
+        }
+    }
+
+    @Test
+    public void repeatsDamagedPackages() throws Exception {
+        byte[] file = file(5000);
+        sensor.setFile(file);
+        sensor.setLoss(0.1, 1);
+
+        FileReceiver receiver = new FileReceiver(channel);
+        receiver.setMaxRetries(10);
+
+        assertArrayEquals(file, receive(receiver));
+        assertTrue(receiver.getPackagesRepeated() > 0);
+        assertEquals(receiver.getFramesRead() - 1, sensor.getPackagesServed());
+    }
+
+    @Test
+    public void failsAfterMaxRetries() throws Exception {
+        sensor.setFile(file(500));
+        sensor.setLoss(1, 1);
+
+        FileReceiver receiver = new FileReceiver(channel);
+        receiver.setMaxRetries(2);
+        try {
+            receive(receiver);
+            fail("damaged packages were accepted");
+        } catch (IOException e) {
+            assertEquals(2, receiver.getPackagesRepeated());
+            assertEquals(0, receiver.getBytesReceived());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnFileChecksumMismatch() throws Exception {
+        // a sensor announcing another file checksum than the one it sends
+        SimulatedSensor lying = new SimulatedSensor() {
+            @Override
+            public synchronized byte[] onSRAM(byte[] frame) {
+                byte[] answer = super.onSRAM(frame);
+                if (answer != null && answer[0] == TransferHeader.FILE_COMMAND) {
+                    answer[TransferHeader.FILE_CHECKSUM] ^= 0x01;
+                    answer[TransferHeader.PACKAGE_CHECKSUM] = TransferHeader.checkByte(answer, 0,
+                            TransferHeader.PACKAGE_CHECKSUM);
+                }
+                return answer;
+            }
+        };
+        lying.setFile(file(500));
+        tag.setHost(lying, 0);
+
+        receive(new FileReceiver(channel));
+    }
+}
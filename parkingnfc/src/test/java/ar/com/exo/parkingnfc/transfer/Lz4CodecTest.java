@@ -0,0 +1,85 @@
+package ar.com.exo.parkingnfc.transfer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips of {@link Lz4Codec} streams
+ */
+public class Lz4CodecTest {
+
+    private static byte[] stream(byte[] file) throws IOException {
+        CompressedSource source = CompressedSource.of(TransferSource.of(file));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = source.open()) {
+            byte[] buffer = new byte[100];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+        }
+        assertEquals(source.length(), out.size());
+        return out.toByteArray();
+    }
+
+    private static void assertRoundTrip(byte[] file) throws IOException {
+        byte[] stream = stream(file);
+        assertArrayEquals(file, Lz4Codec.decompress(stream, 0, stream.length, file.length));
+    }
+
+    /**
+     * Log like file, text with runs of zero padding
+     */
+    static byte[] logFile(int length) {
+        byte[] file = new byte[length];
+        Random random = new Random(3);
+        for (int i = 0; i + 64 <= length; i += 64) {
+            byte[] line = ("T=" + random.nextInt(100000) + " occupied=" + random.nextBoolean()).getBytes();
+            System.arraycopy(line, 0, file, i, line.length);
+        }
+        return file;
+    }
+
+    @Test
+    public void roundTripsShortAndEdgeLengths() throws Exception {
+        Random random = new Random(5);
+        for (int length = 0; length <= 40; length++) {
+            byte[] zeros = new byte[length];
+            byte[] noise = new byte[length];
+            random.nextBytes(noise);
+            assertRoundTrip(zeros);
+            assertRoundTrip(noise);
+        }
+        for (int length : new int[] { Lz4Codec.CHUNK_SIZE - 1, Lz4Codec.CHUNK_SIZE, Lz4Codec.CHUNK_SIZE + 1,
+                3 * Lz4Codec.CHUNK_SIZE + 17 }) {
+            assertRoundTrip(new byte[length]);
+            assertRoundTrip(logFile(length));
+        }
+    }
+
+    @Test
+    public void compressesPaddingAndStoresNoise() throws Exception {
+        byte[] padded = new byte[10000];
+        padded[0] = 0x01;
+        assertTrue(stream(padded).length < 200);
+
+        byte[] noise = new byte[10000];
+        new Random(9).nextBytes(noise);
+        byte[] stream = stream(noise);
+        // one length prefix per stored chunk
+        assertEquals(noise.length + 2 * 3, stream.length);
+        assertArrayEquals(noise, Lz4Codec.decompress(stream, 0, stream.length, noise.length));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedStream() throws Exception {
+        byte[] file = logFile(5000);
+        byte[] stream = stream(file);
+        Lz4Codec.decompress(stream, 0, stream.length - 1, file.length);
+    }
+}
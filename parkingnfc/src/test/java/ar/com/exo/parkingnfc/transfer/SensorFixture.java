@@ -0,0 +1,29 @@
+package ar.com.exo.parkingnfc.transfer;
+
+import com.nxp.reader.I2C_Enabled_Commands;
+import com.nxp.reader.Ntag_Get_Version.Prod;
+import com.nxp.transport.Ntag_I2C_Model;
+
+import org.junit.Before;
+
+/**
+ * A {@link SimulatedSensor} behind a model Tag without latency, and a
+ * connected channel to it
+ */
+public abstract class SensorFixture {
+
+    protected Ntag_I2C_Model tag;
+    protected SimulatedSensor sensor;
+    protected I2C_Enabled_Commands channel;
+
+    @Before
+    public void setUpSensor() throws Exception {
+        tag = new Ntag_I2C_Model(Prod.NTAG_I2C_1k_Plus);
+        tag.setZeroLatency();
+        sensor = new SimulatedSensor();
+        tag.setHost(sensor, 0);
+
+        channel = I2C_Enabled_Commands.get(tag, tag);
+        channel.connect();
+    }
+}
@@ -0,0 +1,320 @@
+package ar.com.exo.parkingnfc.transfer;
+
+import com.nxp.crypto.CRC32Calculator;
+import com.nxp.transport.Ntag_I2C_Model;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import ar.com.exo.parkingnfc.ExoCommands;
+
+/**
+ * Sensor side of the 0xF0 file protocol, the I2C host of a
+ * {@link Ntag_I2C_Model}, so transfers can be tested and measured without a
+ * sensor.
+ *
+ * It assembles the file of a plain or a windowed transfer in memory. A loss
+ * rate rejects windowed packages as if their payload had been read damaged;
+ * their number still counts, so an acknowledge asked for is still written.
+ * A maximum window of 0 acts like firmware that only knows plain transfers.
+ *
+ * A compressed transfer is decoded with {@link Lz4Codec}: the acknowledge
+ * of a windowed header carries the flag back, and the last package of a
+ * plain one is answered with CMD_SEND_OK once the file checks. With LZ4
+ * support switched off the sensor acts like firmware that ignores the flag,
+ * and answers neither.
+ *
+ * A file set with {@link #setFile} is served to CMD_FILE_RECEIVE, one
+ * {@link FileReceiver} package per CMD_SEND_OK. The loss rate damages
+ * served packages, which are sent again on CMD_SEND_ERROR.
+ */
+public class SimulatedSensor implements Ntag_I2C_Model.Host {
+
+    public static final int DEFAULT_MAX_WINDOW = 32;
+
+    private int maxWindow = DEFAULT_MAX_WINDOW;
+    private boolean lz4 = true;
+    private double loss;
+    private Random random = new Random(0);
+
+    private boolean active;
+    private boolean windowed;
+    private long packages;
+    private long length;
+    private long crc32;
+    private int fileChecksum;
+    private boolean hasCrc32;
+    private int window;
+    private boolean compressed;
+    private long originalLength;
+    private int packageSize;
+    private byte[] data = new byte[0];
+    private final BitSet received = new BitSet();
+    private long nextPlain;
+
+    private byte[] file;
+    private long served;
+    private long servedPackages;
+    private boolean serving;
+
+    private long headers;
+    private long packagesReceived;
+    private long packagesRejected;
+    private long acksWritten;
+    private long packagesServed;
+
+    /**
+     * Sets the largest window accepted, 0 to ignore windowed headers
+     */
+    public void setMaxWindow(int packages) {
+        this.maxWindow = packages;
+    }
+
+    /**
+     * Sets whether compressed transfers are decoded, false to store the
+     * stream like firmware without LZ4 support
+     */
+    public void setLz4(boolean enable) {
+        this.lz4 = enable;
+    }
+
+    /**
+     * Sets the share of windowed packages rejected
+     *
+     * @param rate
+     *            0 to 1
+     * @param seed
+     *            Seed of the losses, for repeatable runs
+     */
+    public void setLoss(double rate, long seed) {
+        this.loss = rate;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Sets the file served to CMD_FILE_RECEIVE, null to serve none
+     */
+    public synchronized void setFile(byte[] file) {
+        this.file = file;
+        this.serving = false;
+    }
+
+    @Override
+    public synchronized byte[] onSRAM(byte[] frame) {
+        if (file != null && frame[0] == ExoCommands.CMD_FILE_RECEIVE.getCode()
+                && frame[1] == ExoCommands.checkByte(frame[0]))
+            return serveHeader();
+        if (serving && frame[0] == ExoCommands.CMD_SEND_OK.getCode())
+            return servePackage(served + 1);
+        if (serving && frame[0] == ExoCommands.CMD_SEND_ERROR.getCode())
+            return servePackage(served);
+        if (TransferHeader.isValid(frame))
+            return onHeader(frame);
+        if (active && windowed && isPackage(frame))
+            return onPackage(frame);
+        if (active && !windowed)
+            return onPlainPackage(frame);
+        return null;
+    }
+
+    private byte[] onHeader(byte[] frame) {
+        headers++;
+        long first = TransferHeader.getLE32(frame, TransferHeader.PACKAGE_NUMBER);
+        long count = TransferHeader.getLE32(frame, TransferHeader.PACKAGE_COUNT);
+        boolean same = active && count == packages && first > 1;
+
+        packages = count;
+        hasCrc32 = (frame[TransferHeader.FLAGS] & TransferHeader.FLAG_CRC32) != 0;
+        crc32 = TransferHeader.getLE32(frame, TransferHeader.CRC32);
+        length = TransferHeader.getLE32(frame, TransferHeader.FILE_LENGTH);
+        windowed = (frame[TransferHeader.FLAGS] & TransferHeader.FLAG_WINDOW) != 0 && maxWindow > 0;
+        compressed = (frame[TransferHeader.FLAGS] & TransferHeader.FLAG_COMPRESSED) != 0 && lz4;
+        fileChecksum = (frame[TransferHeader.FILE_CHECKSUM] & 0xFF)
+                | (frame[TransferHeader.FILE_CHECKSUM + 1] & 0xFF) << 8;
+        originalLength = TransferHeader.getLE32(frame, TransferHeader.ORIGINAL_LENGTH);
+
+        if (windowed) {
+            window = Math.min(frame[TransferHeader.WINDOW] & 0xFF, maxWindow);
+            packageSize = WindowedTransfer.PAYLOAD;
+        } else {
+            packageSize = frame.length;
+        }
+        if (!hasCrc32)
+            length = packages * packageSize;
+
+        // a header starting after the first package continues the transfer
+        if (!same || data.length != packages * packageSize) {
+            data = new byte[(int) (packages * packageSize)];
+            received.clear();
+        }
+        nextPlain = first;
+        active = true;
+        return windowed ? ack() : null;
+    }
+
+    private static boolean isPackage(byte[] frame) {
+        return TransferHeader.checkByte(frame, 0, WindowedTransfer.CHECK) == frame[WindowedTransfer.CHECK];
+    }
+
+    private byte[] onPackage(byte[] frame) {
+        long number = TransferHeader.getLE32(frame, WindowedTransfer.NUMBER);
+        boolean ackRequest = (number & WindowedTransfer.ACK_REQUEST) != 0;
+        number &= ~WindowedTransfer.ACK_REQUEST;
+
+        if (number >= 1 && number <= packages) {
+            if (loss > 0 && random.nextDouble() < loss) {
+                packagesRejected++;
+            } else {
+                System.arraycopy(frame, WindowedTransfer.DATA, data, (int) (number - 1) * packageSize,
+                        packageSize);
+                received.set((int) number);
+                packagesReceived++;
+            }
+        }
+        return ackRequest ? ack() : null;
+    }
+
+    private byte[] onPlainPackage(byte[] frame) {
+        if (nextPlain > packages)
+            return null;
+        System.arraycopy(frame, 0, data, (int) (nextPlain - 1) * packageSize, packageSize);
+        received.set((int) nextPlain++);
+        packagesReceived++;
+
+        // the status of a compressed file, once it is decoded
+        if (!compressed || nextPlain <= packages)
+            return null;
+        return (isComplete() ? ExoCommands.CMD_SEND_OK : ExoCommands.CMD_SEND_ERROR).getBytes();
+    }
+
+    private byte[] serveHeader() {
+        servedPackages = (file.length + FileReceiver.PAYLOAD - 1) / FileReceiver.PAYLOAD;
+        CRC32Calculator crc = new CRC32Calculator();
+        crc.update(file, 0, file.length);
+
+        byte[] frame = new byte[ExoCommands.FRAME_SIZE];
+        TransferHeader.encode(frame, 1, servedPackages, TransferHeader.fileChecksum(0, file, 0, file.length),
+                crc.getValue(), file.length);
+        served = 0;
+        serving = true;
+        return frame;
+    }
+
+    /**
+     * Returns a package of the served file, null after the last one
+     */
+    private byte[] servePackage(long number) {
+        if (number > servedPackages) {
+            serving = false;
+            return null;
+        }
+        served = number;
+
+        byte[] frame = new byte[ExoCommands.FRAME_SIZE];
+        int off = (int) (number - 1) * FileReceiver.PAYLOAD;
+        System.arraycopy(file, off, frame, 0, Math.min(FileReceiver.PAYLOAD, file.length - off));
+        frame[FileReceiver.CHECK] = TransferHeader.checkByte(frame, 0, FileReceiver.CHECK);
+        if (loss > 0 && random.nextDouble() < loss)
+            frame[0] ^= 0x01;
+        packagesServed++;
+        return frame;
+    }
+
+    private byte[] ack() {
+        int base = received.nextClearBit(1);
+        boolean[] bits = new boolean[WindowAck.MAX_BITS];
+        for (int i = 0; i < bits.length; i++)
+            bits[i] = received.get(base + i);
+
+        // once every package arrived the acknowledge carries the file checks
+        boolean ok = received.length() <= base && (base <= packages || isComplete());
+
+        byte[] frame = new byte[ExoCommands.FRAME_SIZE];
+        WindowAck.encode(frame, ok, base, window,
+                compressed ? TransferHeader.FLAG_COMPRESSED : 0, bits);
+        acksWritten++;
+        return frame;
+    }
+
+    /**
+     * Checks whether every package of the last transfer arrived and the file
+     * checksum matches, and the CRC-32 if the header carried one. A
+     * compressed file is checked once decoded
+     */
+    public synchronized boolean isComplete() {
+        if (!active || received.cardinality() != packages)
+            return false;
+        byte[] file = compressed ? decode() : Arrays.copyOf(data, (int) Math.min(length, data.length));
+        if (file == null)
+            return false;
+        if ((TransferHeader.fileChecksum(0, file, 0, file.length) & 0xFFFF) != fileChecksum)
+            return false;
+        if (!hasCrc32)
+            return true;
+        CRC32Calculator crc = new CRC32Calculator();
+        crc.update(file, 0, file.length);
+        return crc.getValue() == crc32;
+    }
+
+    /**
+     * Returns the file of the last transfer as far as it arrived, padding
+     * removed if the header carried the length. A compressed file is
+     * returned decoded once it arrived complete
+     */
+    public synchronized byte[] getData() {
+        byte[] file = compressed ? decode() : null;
+        return file != null ? file : Arrays.copyOf(data, (int) Math.min(length, data.length));
+    }
+
+    /**
+     * Decodes the stream of a compressed transfer
+     *
+     * @return File, null if the stream is damaged or incomplete
+     */
+    private byte[] decode() {
+        try {
+            return Lz4Codec.decompress(data, 0, (int) Math.min(length, data.length), (int) originalLength);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether the last transfer was compressed
+     */
+    public synchronized boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Returns the window accepted for the last transfer, 0 for a plain one
+     */
+    public synchronized int getWindow() {
+        return windowed ? window : 0;
+    }
+
+    public synchronized long getHeaders() {
+        return headers;
+    }
+
+    public synchronized long getPackagesReceived() {
+        return packagesReceived;
+    }
+
+    public synchronized long getPackagesRejected() {
+        return packagesRejected;
+    }
+
+    public synchronized long getAcksWritten() {
+        return acksWritten;
+    }
+
+    /**
+     * Returns the packages of the served file written, repeats included
+     */
+    public synchronized long getPackagesServed() {
+        return packagesServed;
+    }
+}
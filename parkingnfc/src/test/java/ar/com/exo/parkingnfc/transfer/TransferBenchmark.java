@@ -0,0 +1,83 @@
+package ar.com.exo.parkingnfc.transfer;
+
+import com.nxp.reader.I2C_Enabled_Commands;
+import com.nxp.reader.Ntag_Get_Version.Prod;
+import com.nxp.transport.Ntag_I2C_Model;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Throughput of the plain and the windowed transfer of a 4 KB file to a
+ * {@link SimulatedSensor}, on a model Tag with its radio latency and 200 us
+ * of sensor processing per SRAM frame.
+ *
+ * Skipped unless the tests run with -Pbenchmark:
+ *
+ * <pre>
+ * ./gradlew :parkingnfc:testDebugUnitTest -Pbenchmark --tests '*TransferBenchmark'
+ * </pre>
+ *
+ * The results are printed to the test output, one line per case. The
+ * windowed transfer is expected to stay below the plain one on a clean link,
+ * it pays for its package numbers, check bytes and acknowledges, and to keep
+ * most of its throughput under loss.
+ */
+public class TransferBenchmark {
+
+    private static final int SENSOR_NANOS = 200000;
+    private static final int RUNS = 3;
+
+    private final byte[] file = new byte[4000];
+    private SimulatedSensor sensor;
+
+    private I2C_Enabled_Commands channel(double loss) throws Exception {
+        Ntag_I2C_Model tag = new Ntag_I2C_Model(Prod.NTAG_I2C_1k_Plus);
+        sensor = new SimulatedSensor();
+        sensor.setLoss(loss, 2);
+        tag.setHost(sensor, SENSOR_NANOS);
+
+        I2C_Enabled_Commands channel = I2C_Enabled_Commands.get(tag, tag);
+        channel.connect();
+        return channel;
+    }
+
+    @Test
+    public void plainAndWindowedThroughput() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        new Random(1).nextBytes(file);
+
+        double best = 0;
+        FileTransfer plain = new FileTransfer(channel(0));
+        for (int run = 0; run < RUNS; run++) {
+            plain.send(TransferSource.of(file), null);
+            best = Math.max(best, plain.getBytesPerSecond());
+        }
+        print("plain", 0, 0, best, plain.getFramesSent(), 0);
+
+        for (double loss : new double[] { 0, 0.05 }) {
+            for (int window : new int[] { 1, 16, 32 }) {
+                WindowedTransfer transfer = new WindowedTransfer(channel(loss));
+                transfer.setWindow(window);
+                best = 0;
+                for (int run = 0; run < RUNS; run++) {
+                    transfer.send(TransferSource.of(file), null);
+                    assertTrue(sensor.isComplete());
+                    best = Math.max(best, transfer.getBytesPerSecond());
+                }
+                print("windowed", loss, window, best, transfer.getFramesSent(), transfer.getPackagesResent());
+            }
+        }
+    }
+
+    private static void print(String mode, double loss, int window, double bytesPerSecond, long frames,
+            long resent) {
+        System.out.println(String.format(Locale.US, "%-8s loss %4.2f window %2d %6.0f B/s %4d frames %3d resent",
+                mode, loss, window, bytesPerSecond, frames, resent));
+    }
+}
@@ -0,0 +1,101 @@
+package ar.com.exo.parkingnfc.transfer;
+
+import com.nxp.exceptions.CommandNotSupportedException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Windowed transfers against a {@link SimulatedSensor} behind a model Tag
+ */
+public class WindowedTransferTest extends SensorFixture {
+
+    private byte[] file;
+
+    @Before
+    public void setUpFile() {
+        file = new byte[5000];
+        new Random(7).nextBytes(file);
+    }
+
+    @Test
+    public void sendsFileWithoutLoss() throws Exception {
+        WindowedTransfer transfer = new WindowedTransfer(channel);
+        transfer.setWindow(8);
+        transfer.send(TransferSource.of(file), null);
+
+        assertTrue(sensor.isComplete());
+        assertArrayEquals(file, sensor.getData());
+        assertEquals(0, transfer.getPackagesResent());
+        // one acknowledge for the header and one per window
+        long packages = (file.length + WindowedTransfer.PAYLOAD - 1) / WindowedTransfer.PAYLOAD;
+        assertEquals(1 + (packages + 7) / 8, transfer.getAcksRead());
+    }
+
+    @Test
+    public void resendsOnlyRejectedPackages() throws Exception {
+        sensor.setLoss(0.1, 1);
+
+        WindowedTransfer transfer = new WindowedTransfer(channel);
+        transfer.setWindow(16);
+        transfer.send(TransferSource.of(file), null);
+
+        assertTrue(sensor.isComplete());
+        assertArrayEquals(file, sensor.getData());
+        assertTrue(sensor.getPackagesRejected() > 0);
+        assertEquals(sensor.getPackagesRejected(), transfer.getPackagesResent());
+    }
+
+    @Test
+    public void takesTheWindowOfTheSensor() throws Exception {
+        sensor.setMaxWindow(4);
+
+        WindowedTransfer transfer = new WindowedTransfer(channel);
+        transfer.setWindow(32);
+        transfer.send(TransferSource.of(file), null);
+
+        assertEquals(4, transfer.getAcceptedWindow());
+        assertArrayEquals(file, sensor.getData());
+    }
+
+    @Test
+    public void failsWhenTheSensorRejectsTheFile() throws Exception {
+        // a damaged package whose check byte and file checksum still match,
+        // only the CRC-32 finds it
+        SimulatedSensor damaging = new SimulatedSensor() {
+            @Override
+            public synchronized byte[] onSRAM(byte[] frame) {
+                if (frame[0] == 2 && frame[1] == 0 && frame[2] == 0) {
+                    frame[WindowedTransfer.DATA]++;
+                    frame[WindowedTransfer.DATA + 1]--;
+                }
+                return super.onSRAM(frame);
+            }
+        };
+        tag.setHost(damaging, 0);
+
+        WindowedTransfer transfer = new WindowedTransfer(channel);
+        try {
+            transfer.send(TransferSource.of(file), null);
+            fail("the rejected file was reported as sent");
+        } catch (IOException e) {
+            long packages = (file.length + WindowedTransfer.PAYLOAD - 1) / WindowedTransfer.PAYLOAD;
+            assertEquals(packages, damaging.getPackagesReceived());
+            assertFalse(damaging.isComplete());
+        }
+    }
+
+    @Test(expected = CommandNotSupportedException.class)
+    public void failsOnFirmwareWithoutWindows() throws Exception {
+        sensor.setMaxWindow(0);
+
+        WindowedTransfer transfer = new WindowedTransfer(channel);
+        transfer.setAckTimeout(20);
+        transfer.send(TransferSource.of(file), null);
+    }
+}
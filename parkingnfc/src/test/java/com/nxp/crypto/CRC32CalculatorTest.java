@@ -0,0 +1,102 @@
+package com.nxp.crypto;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link CRC32Calculator} against java.util.zip.CRC32
+ */
+public class CRC32CalculatorTest {
+
+	private static long expected(byte[] data, int off, int len) {
+		CRC32 crc = new CRC32();
+		crc.update(data, off, len);
+		return crc.getValue();
+	}
+
+	@Test
+	public void matchesOnRandomLengthsAndOffsets() {
+		Random random = new Random(11);
+		CRC32Calculator crc = new CRC32Calculator();
+		for (int i = 0; i < 2000; i++) {
+			byte[] data = new byte[random.nextInt(2000)];
+			random.nextBytes(data);
+			int off = data.length > 0 ? random.nextInt(data.length) : 0;
+			int len = random.nextInt(data.length - off + 1);
+
+			crc.reset();
+			crc.update(data, off, len);
+			assertEquals("length " + len + " at " + off, expected(data, off, len), crc.getValue());
+		}
+	}
+
+	@Test
+	public void matchesWhenUpdatedInChunks() {
+		Random random = new Random(13);
+		for (int i = 0; i < 500; i++) {
+			byte[] data = new byte[random.nextInt(3000)];
+			random.nextBytes(data);
+
+			CRC32Calculator crc = new CRC32Calculator();
+			int off = 0;
+			while (off < data.length) {
+				int len = Math.min(data.length - off, random.nextInt(20));
+				if (len == 1)
+					crc.update(data[off]);
+				else
+					crc.update(data, off, len);
+				off += len;
+			}
+			assertEquals("length " + data.length, expected(data, 0, data.length), crc.getValue());
+		}
+	}
+
+	@Test
+	public void matchesOnHeapAndDirectBuffers() {
+		Random random = new Random(17);
+		for (int i = 0; i < 200; i++) {
+			byte[] data = new byte[random.nextInt(3000)];
+			random.nextBytes(data);
+			int skip = data.length > 0 ? random.nextInt(data.length) : 0;
+			long want = expected(data, skip, data.length - skip);
+
+			// a slice of the array, so the buffer has an array offset
+			ByteBuffer heap = ByteBuffer.wrap(data);
+			heap.position(skip / 2);
+			heap = heap.slice();
+			heap.position(skip - skip / 2);
+			CRC32Calculator crc = new CRC32Calculator();
+			crc.update(heap);
+			assertEquals("heap length " + data.length, want, crc.getValue());
+			assertFalse(heap.hasRemaining());
+
+			ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+			direct.put(data);
+			direct.position(skip);
+			crc.reset();
+			crc.update(direct);
+			assertEquals("direct length " + data.length, want, crc.getValue());
+			assertFalse(direct.hasRemaining());
+		}
+	}
+
+	@Test
+	public void keepsTheUninvertedStaticResult() {
+		byte[] data = "123456789".getBytes();
+		byte[] register = CRC32Calculator.CRC32(data);
+		// least significant byte first
+		int value = (register[3] & 0xFF) << 24 | (register[2] & 0xFF) << 16 | (register[1] & 0xFF) << 8
+				| (register[0] & 0xFF);
+		assertEquals(0xCBF43926L, ~value & 0xFFFFFFFFL);
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void rejectsRangesOutsideTheArray() {
+		new CRC32Calculator().update(new byte[10], 5, 6);
+	}
+}
@@ -0,0 +1,737 @@
+package com.nxp.transport;
+
+import com.nxp.reader.Ntag_Get_Version;
+import com.nxp.reader.Ntag_Get_Version.Prod;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-memory model of a NTAG I2C, seen from the NFC side.
+ *
+ * The model answers GET_VERSION, READ, FAST_READ, WRITE, FAST_WRITE,
+ * SECTOR_SELECT and PWD_AUTH with the sector layout of the product:
+ * <ul>
+ * <li>User memory from page 0x04 to 0xE1 of Sector 0. The NTAG I2C 2k
+ * uses all of Sector 0 and continues to 0xDF of Sector 1, the 2k Plus
+ * continues with all of Sector 1.</li>
+ * <li>Config registers at 0xE8 of Sector 1 on the NTAG I2C 2k, of Sector 0
+ * otherwise.</li>
+ * <li>Session registers at 0xF8 of Sector 3, and at 0xEC of Sector 0 on
+ * the Plus products. They are read only from the NFC side.</li>
+ * <li>SRAM at 0xF0 of Sector 1 on the NTAG I2C 2k, of Sector 0 otherwise.
+ * The SRAM mirror is not modelled.</li>
+ * </ul>
+ *
+ * With pass-through on the SRAM follows the handshake of NS_REG: in the RF
+ * to I2C direction writing page 0xFF sets SRAM_I2C_READY and the SRAM can
+ * not be written again before the I2C side read it; in the I2C to RF
+ * direction the I2C side sets SRAM_RF_READY and reading page 0xFF clears
+ * it. The I2C side is driven either through {@link #i2cReadSRAM()},
+ * {@link #i2cWriteSRAM(byte[])} and {@link #setPassThrough(boolean, boolean)}
+ * or by a {@link Host} which answers every frame.
+ *
+ * Every command takes its latency plus the time of its bytes on air, which
+ * is slept unless {@link #setSleep(boolean)} is off, and always counted in
+ * {@link #getElapsedNanos()}. A command which takes longer than the timeout
+ * fails like on a phone, and so does the passive ACK of SECTOR_SELECT after
+ * waiting the full timeout. A NAK is reported as an IOException, as most
+ * controllers do.
+ */
+public class Ntag_I2C_Model implements TagTransport {
+
+	/**
+	 * I2C side of the Tag, e.g. the firmware of a sensor
+	 */
+	public interface Host {
+		/**
+		 * Called when the NFC side filled the SRAM
+		 *
+		 * @param frame
+		 *            Copy of the SRAM
+		 * @return Answer to put into the SRAM for the NFC side, null for none
+		 */
+		byte[] onSRAM(byte[] frame);
+	}
+
+	public static final int SRAM_SIZE = 64;
+
+	/**
+	 * Maximum transceive length of common phones
+	 */
+	public static final int DEFAULT_MAX_TRANSCEIVE_LENGTH = 253;
+
+	/**
+	 * Time of one byte on air at 106 kbit/s, 8 bits plus parity
+	 */
+	public static final long DEFAULT_BYTE_NANOS = 85000;
+
+	/**
+	 * Frame delay and controller overhead of a command
+	 */
+	public static final long DEFAULT_COMMAND_NANOS = 300000;
+
+	/**
+	 * Programming time of an EEPROM page
+	 */
+	public static final long DEFAULT_EEPROM_WRITE_NANOS = 4100000;
+
+	private static final byte[] ACK = { (byte) 0x0A };
+
+	private static final int NC_REG = 0;
+	private static final int NS_REG = 6;
+	private static final int PTHRU_DIR = 0x01;
+	private static final int PTHRU_ON_OFF = 0x40;
+	private static final int RF_FIELD_PRESENT = 0x01;
+	private static final int SRAM_RF_READY = 0x08;
+	private static final int SRAM_I2C_READY = 0x10;
+	private static final int RF_LOCKED = 0x20;
+	private static final int I2C_LOCKED = 0x40;
+
+	private final Prod prod;
+	private final byte[] version;
+	private final boolean plus;
+	private final boolean two_k;
+	private final int sram_sector;
+	private final int config_sector;
+	private final byte[][] eeprom = new byte[4][];
+	private final byte[] sram = new byte[SRAM_SIZE];
+	private final byte[] session = new byte[8];
+
+	private final long[] latency = new long[256];
+	private long byte_nanos = DEFAULT_BYTE_NANOS;
+	private long eeprom_write_nanos = DEFAULT_EEPROM_WRITE_NANOS;
+	private long host_nanos;
+	private boolean sleep = true;
+
+	private boolean present = true;
+	private boolean connected;
+	private int timeout = 300;
+	private int max_transceive = DEFAULT_MAX_TRANSCEIVE_LENGTH;
+	private int sector;
+	private boolean sector_select_pending;
+
+	private Host host;
+	private byte[] host_answer;
+	private long host_done_at;
+	private boolean host_pending;
+	private boolean answer_direction;
+
+	private long clock_nanos;
+	private long elapsed_nanos;
+	private long commands;
+	private long naks;
+	private long bytes_sent;
+	private long bytes_received;
+
+	/**
+	 * Creates a Tag with an empty NDEF message and pass-through off
+	 *
+	 * @param prod
+	 *            Product to model
+	 */
+	public Ntag_I2C_Model(Prod prod) {
+		this.prod = prod;
+		this.plus = prod == Prod.NTAG_I2C_1k_Plus || prod == Prod.NTAG_I2C_2k_Plus;
+		this.two_k = prod.getMemsize() > 1000;
+		this.sram_sector = two_k && !plus ? 1 : 0;
+		this.config_sector = two_k && !plus ? 1 : 0;
+		this.version = versionOf(prod);
+
+		eeprom[0] = new byte[256 * 4];
+		if (two_k)
+			eeprom[1] = new byte[256 * 4];
+		eeprom[3] = new byte[256 * 4];
+
+		Arrays.fill(latency, DEFAULT_COMMAND_NANOS);
+		format();
+		reset();
+	}
+
+	private static byte[] versionOf(Prod prod) {
+		Ntag_Get_Version v = Ntag_Get_Version.of(prod);
+		if (v == null)
+			v = Ntag_Get_Version.NTAG_I2C_1k;
+		return new byte[] { 0x00, v.getVendor_ID(), v.getProduct_type(),
+				v.getProduct_subtype(), v.getMajor_product_version(),
+				v.getMinor_product_version(), v.getStorage_size(),
+				v.getProtocol_type() };
+	}
+
+	/**
+	 * Writes the factory content: UID, Capability Container, an empty NDEF
+	 * message and the default Config registers
+	 */
+	private void format() {
+		byte[] s0 = eeprom[0];
+		s0[0] = (byte) 0x04;
+		s0[12] = (byte) 0xE1;
+		s0[13] = (byte) 0x10;
+		s0[14] = (byte) (two_k ? 0xEA : 0x6D);
+		s0[16] = (byte) 0x03;
+		s0[18] = (byte) 0xFE;
+
+		byte[] config = eeprom[config_sector];
+		int c = 0xE8 * 4;
+		config[c] = (byte) PTHRU_DIR;
+		config[c + 2] = (byte) 0xF8;
+		config[c + 3] = (byte) 0x48;
+		config[c + 4] = (byte) 0x08;
+		config[c + 5] = (byte) 0x01;
+
+		if (plus) {
+			s0[0xE3 * 4 + 3] = (byte) 0xFF;
+			Arrays.fill(s0, 0xE5 * 4, 0xE6 * 4, (byte) 0xFF);
+		}
+	}
+
+	/**
+	 * Power on reset: the Config registers are loaded into the Session
+	 * registers, the SRAM is cleared and the Tag is in Sector 0
+	 */
+	public synchronized void reset() {
+		System.arraycopy(eeprom[config_sector], 0xE8 * 4, session, 0, 6);
+		session[NS_REG] = 0;
+		session[7] = 0;
+		Arrays.fill(sram, (byte) 0);
+		host_pending = false;
+		host_answer = null;
+		answer_direction = false;
+		sector = 0;
+		sector_select_pending = false;
+	}
+
+	public Prod getProduct() {
+		return prod;
+	}
+
+	// ---------------------------------------------------------------------------------
+	// TagTransport
+	// ---------------------------------------------------------------------------------
+
+	@Override
+	public synchronized void connect() throws IOException {
+		if (!present)
+			throw new IOException("Tag was lost");
+		connected = true;
+		sector = 0;
+		sector_select_pending = false;
+	}
+
+	@Override
+	public synchronized void close() {
+		connected = false;
+		sector = 0;
+		sector_select_pending = false;
+	}
+
+	@Override
+	public synchronized boolean isConnected() {
+		return connected;
+	}
+
+	@Override
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	@Override
+	public int getTimeout() {
+		return timeout;
+	}
+
+	@Override
+	public int getMaxTransceiveLength() {
+		return max_transceive;
+	}
+
+	public void setMaxTransceiveLength(int length) {
+		this.max_transceive = length;
+	}
+
+	@Override
+	public byte[] readPages(int pageOffset) throws IOException {
+		return transceive(new byte[] { (byte) 0x30, (byte) pageOffset });
+	}
+
+	@Override
+	public void writePage(int pageOffset, byte[] data) throws IOException {
+		transceive(new byte[] { (byte) 0xA2, (byte) pageOffset, data[0],
+				data[1], data[2], data[3] });
+	}
+
+	@Override
+	public synchronized byte[] transceive(byte[] data) throws IOException {
+		if (!present) {
+			connected = false;
+			throw new IOException("Tag was lost");
+		}
+		if (!connected)
+			throw new IllegalStateException("Call connect() first!");
+		if (data.length > max_transceive)
+			throw new IOException("Transceive length exceeds supported maximum");
+
+		commands++;
+		bytes_sent += data.length;
+		updateHost();
+
+		int op = data[0] & 0xFF;
+		long cost = latency[op] + data.length * byte_nanos;
+
+		if (sector_select_pending) {
+			sector_select_pending = false;
+			int s = op;
+			if (data.length != 4 || s > 3 || eeprom[s] == null)
+				return nak(cost);
+			sector = s;
+			// passive ACK, the reader only knows after the timeout
+			spend(timeout * 1000000L);
+			throw new IOException("Transceive failed");
+		}
+
+		byte[] answer;
+		switch (op) {
+			case 0x60:
+				answer = data.length == 1 ? version.clone() : null;
+				break;
+			case 0x30:
+				answer = data.length == 2 ? read(data[1] & 0xFF, (data[1] & 0xFF) + 3, true) : null;
+				break;
+			case 0x3A:
+				answer = data.length == 3 ? read(data[1] & 0xFF, data[2] & 0xFF, false) : null;
+				break;
+			case 0xA2:
+				answer = data.length == 6 ? write(data[1] & 0xFF, data, 2) : null;
+				if (answer != null && !isSRAM(data[1] & 0xFF))
+					cost += eeprom_write_nanos;
+				break;
+			case 0xA6:
+				answer = data.length == 3 + SRAM_SIZE ? fastWrite(data) : null;
+				break;
+			case 0xC2:
+				if (data.length == 2 && data[1] == (byte) 0xFF) {
+					sector_select_pending = true;
+					answer = ACK;
+				} else {
+					answer = null;
+				}
+				break;
+			case 0x1B:
+				answer = data.length == 5 ? pwdAuth(data) : null;
+				break;
+			default:
+				answer = null;
+		}
+
+		if (answer == null)
+			return nak(cost);
+
+		cost += answer.length * byte_nanos;
+		if (cost > timeout * 1000000L) {
+			spend(timeout * 1000000L);
+			throw new IOException("Transceive failed");
+		}
+		spend(cost);
+		bytes_received += answer.length;
+		return answer;
+	}
+
+	private byte[] nak(long cost) throws IOException {
+		naks++;
+		spend(cost + byte_nanos);
+		throw new IOException("Transceive failed");
+	}
+
+	private void spend(long nanos) {
+		clock_nanos += nanos;
+		elapsed_nanos += nanos;
+		if (!sleep)
+			return;
+		long deadline = System.nanoTime() + nanos;
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > 0)
+			LockSupport.parkNanos(remaining);
+	}
+
+	// ---------------------------------------------------------------------------------
+	// Memory
+	// ---------------------------------------------------------------------------------
+
+	private boolean isSRAM(int page) {
+		return sector == sram_sector && page >= 0xF0;
+	}
+
+	private boolean isSession(int page) {
+		return (sector == 3 && (page == 0xF8 || page == 0xF9))
+				|| (plus && sector == 0 && (page == 0xEC || page == 0xED));
+	}
+
+	private boolean isUserPage(int page) {
+		if (isSRAM(page))
+			return true;
+		switch (sector) {
+			case 0:
+				if (two_k && !plus)
+					return true;
+				if (page < 0xE2 || page == 0xE8 || page == 0xE9)
+					return true;
+				// AUTH0, ACCESS, PWD, PACK and PT_I2C
+				return plus && page >= 0xE3 && page <= 0xE7;
+			case 1:
+				return plus || page < 0xE0 || page == 0xE8 || page == 0xE9;
+			default:
+				return false;
+		}
+	}
+
+	private boolean isReadable(int page) {
+		return isSession(page) || isUserPage(page);
+	}
+
+	/**
+	 * Reads pages from to to, READ wraps within the readable pages and pads
+	 * with zeros
+	 */
+	private byte[] read(int from, int to, boolean wrap) {
+		if (to < from && !wrap)
+			return null;
+		if (!isReadable(from))
+			return null;
+
+		int pages = wrap ? 4 : to - from + 1;
+		if (!wrap) {
+			for (int page = from; page <= to; page++)
+				if (!isReadable(page))
+					return null;
+		}
+
+		boolean sram_read = false;
+		for (int i = 0; i < pages; i++) {
+			int page = (from + i) & 0xFF;
+			if (isSRAM(page)) {
+				if (!canReadSRAM())
+					return null;
+				sram_read |= page == 0xFF;
+			}
+		}
+
+		byte[] answer = new byte[pages * 4];
+		for (int i = 0; i < pages; i++) {
+			int page = (from + i) & 0xFF;
+			copyPage(page, answer, i * 4);
+		}
+
+		if (sram_read)
+			onSRAMRead();
+		return answer;
+	}
+
+	private void copyPage(int page, byte[] dst, int off) {
+		if (isSRAM(page)) {
+			System.arraycopy(sram, (page - 0xF0) * 4, dst, off, 4);
+		} else if (isSession(page)) {
+			int base = (page & 0x01) * 4;
+			session[NS_REG] = nsReg();
+			System.arraycopy(session, base, dst, off, 4);
+		} else if (isUserPage(page)) {
+			// PWD and PACK read as zeros
+			if (plus && sector == 0 && (page == 0xE5 || page == 0xE6))
+				return;
+			System.arraycopy(eeprom[sector], page * 4, dst, off, 4);
+		}
+	}
+
+	private byte[] write(int page, byte[] data, int off) {
+		if ((sector == 0 && page < 2) || isSession(page) || !isUserPage(page))
+			return null;
+
+		if (isSRAM(page)) {
+			if (!canWriteSRAM())
+				return null;
+			System.arraycopy(data, off, sram, (page - 0xF0) * 4, 4);
+			if (page == 0xFF)
+				onSRAMWritten();
+		} else {
+			System.arraycopy(data, off, eeprom[sector], page * 4, 4);
+		}
+		return ACK;
+	}
+
+	private byte[] fastWrite(byte[] data) {
+		if (!plus || sector != sram_sector || data[1] != (byte) 0xF0
+				|| data[2] != (byte) 0xFF || !canWriteSRAM())
+			return null;
+		System.arraycopy(data, 3, sram, 0, SRAM_SIZE);
+		onSRAMWritten();
+		return ACK;
+	}
+
+	private byte[] pwdAuth(byte[] data) {
+		if (!plus)
+			return null;
+		byte[] s0 = eeprom[0];
+		for (int i = 0; i < 4; i++)
+			if (s0[0xE5 * 4 + i] != data[1 + i])
+				return null;
+		return new byte[] { s0[0xE6 * 4], s0[0xE6 * 4 + 1] };
+	}
+
+	// ---------------------------------------------------------------------------------
+	// Pass-through
+	// ---------------------------------------------------------------------------------
+
+	private boolean isPassThrough() {
+		return (session[NC_REG] & PTHRU_ON_OFF) != 0;
+	}
+
+	private boolean isRFtoI2C() {
+		return (session[NC_REG] & PTHRU_DIR) != 0;
+	}
+
+	private boolean canWriteSRAM() {
+		if (!isPassThrough())
+			return true;
+		return isRFtoI2C() && (session[NS_REG] & SRAM_I2C_READY) == 0;
+	}
+
+	private boolean canReadSRAM() {
+		if (!isPassThrough())
+			return true;
+		return !isRFtoI2C() && (session[NS_REG] & SRAM_RF_READY) != 0;
+	}
+
+	private void onSRAMWritten() {
+		if (!isPassThrough())
+			return;
+		session[NS_REG] |= SRAM_I2C_READY;
+		if (host != null) {
+			host_answer = host.onSRAM(sram.clone());
+			host_done_at = clock_nanos + host_nanos;
+			host_pending = true;
+			updateHost();
+		}
+	}
+
+	private void onSRAMRead() {
+		if (!isPassThrough())
+			return;
+		session[NS_REG] &= ~SRAM_RF_READY;
+		// the host turns the direction back once its answer was read
+		if (answer_direction) {
+			answer_direction = false;
+			session[NC_REG] |= PTHRU_DIR;
+		}
+	}
+
+	/**
+	 * Applies the answer of the host once its processing time is over. The
+	 * time is model time, so the commands polling for the answer meanwhile
+	 * count in {@link #getElapsedNanos()} whether they are slept or not
+	 */
+	private void updateHost() {
+		if (!host_pending || clock_nanos - host_done_at < 0)
+			return;
+		host_pending = false;
+		session[NS_REG] &= ~SRAM_I2C_READY;
+		if (host_answer != null) {
+			session[NC_REG] &= ~PTHRU_DIR;
+			answer_direction = true;
+			Arrays.fill(sram, (byte) 0);
+			System.arraycopy(host_answer, 0, sram, 0, Math.min(host_answer.length, SRAM_SIZE));
+			session[NS_REG] |= SRAM_RF_READY;
+			host_answer = null;
+		}
+	}
+
+	private byte nsReg() {
+		updateHost();
+		int ns = session[NS_REG] & (SRAM_RF_READY | SRAM_I2C_READY);
+		if (connected)
+			ns |= RF_FIELD_PRESENT;
+		if (isPassThrough()) {
+			if (isRFtoI2C())
+				ns |= (ns & SRAM_I2C_READY) == 0 ? RF_LOCKED : I2C_LOCKED;
+			else
+				ns |= (ns & SRAM_RF_READY) != 0 ? RF_LOCKED : I2C_LOCKED;
+		}
+		return (byte) ns;
+	}
+
+	/**
+	 * Sets the pass-through of the Session registers, as the I2C side does
+	 *
+	 * @param on
+	 *            true to enable pass-through
+	 * @param rfToI2C
+	 *            true for the RF to I2C direction
+	 */
+	public synchronized void setPassThrough(boolean on, boolean rfToI2C) {
+		int nc = session[NC_REG] & ~(PTHRU_ON_OFF | PTHRU_DIR);
+		if (on)
+			nc |= PTHRU_ON_OFF;
+		if (rfToI2C)
+			nc |= PTHRU_DIR;
+		session[NC_REG] = (byte) nc;
+		session[NS_REG] &= ~(SRAM_RF_READY | SRAM_I2C_READY);
+		answer_direction = false;
+	}
+
+	/**
+	 * Reads the SRAM from the I2C side, which clears SRAM_I2C_READY
+	 *
+	 * @return Copy of the SRAM
+	 */
+	public synchronized byte[] i2cReadSRAM() {
+		session[NS_REG] &= ~SRAM_I2C_READY;
+		return sram.clone();
+	}
+
+	/**
+	 * Writes the SRAM from the I2C side, which sets SRAM_RF_READY in the I2C
+	 * to RF direction
+	 *
+	 * @param data
+	 *            Up to 64 bytes, the rest of the SRAM is cleared
+	 */
+	public synchronized void i2cWriteSRAM(byte[] data) {
+		Arrays.fill(sram, (byte) 0);
+		System.arraycopy(data, 0, sram, 0, Math.min(data.length, SRAM_SIZE));
+		if (isPassThrough() && !isRFtoI2C())
+			session[NS_REG] |= SRAM_RF_READY;
+	}
+
+	/**
+	 * Sets the I2C side which answers the frames written by the NFC side,
+	 * and enables pass-through from RF to I2C
+	 *
+	 * @param host
+	 *            I2C side, null to drive it by hand
+	 * @param processingNanos
+	 *            Time the host needs before its answer is in the SRAM
+	 */
+	public synchronized void setHost(Host host, long processingNanos) {
+		this.host = host;
+		this.host_nanos = processingNanos;
+		if (host != null)
+			setPassThrough(true, true);
+	}
+
+	// ---------------------------------------------------------------------------------
+	// Direct access
+	// ---------------------------------------------------------------------------------
+
+	/**
+	 * Returns a copy of a page without going through the radio
+	 */
+	public synchronized byte[] getPage(int sector, int page) {
+		return Arrays.copyOfRange(eeprom[sector], page * 4, page * 4 + 4);
+	}
+
+	/**
+	 * Writes a page without going through the radio, e.g. to set up the
+	 * content of a test
+	 */
+	public synchronized void setPage(int sector, int page, byte[] data) {
+		System.arraycopy(data, 0, eeprom[sector], page * 4, 4);
+	}
+
+	/**
+	 * Returns the current Session registers
+	 */
+	public synchronized byte[] getSessionRegisters() {
+		session[NS_REG] = nsReg();
+		return session.clone();
+	}
+
+	/**
+	 * Takes the Tag in and out of the field. A missing Tag fails every
+	 * command and drops the connection
+	 */
+	public synchronized void setPresent(boolean present) {
+		this.present = present;
+		if (!present) {
+			connected = false;
+			reset();
+		}
+	}
+
+	// ---------------------------------------------------------------------------------
+	// Timing
+	// ---------------------------------------------------------------------------------
+
+	/**
+	 * Sets the latency of a command, without the bytes on air
+	 *
+	 * @param opcode
+	 *            First byte of the command
+	 * @param nanos
+	 *            Latency in ns
+	 */
+	public synchronized void setLatency(int opcode, long nanos) {
+		latency[opcode & 0xFF] = nanos;
+	}
+
+	/**
+	 * Sets the same latency for every command
+	 */
+	public synchronized void setLatency(long nanos) {
+		Arrays.fill(latency, nanos);
+	}
+
+	public synchronized void setByteNanos(long nanos) {
+		this.byte_nanos = nanos;
+	}
+
+	public synchronized void setEEPROMWriteNanos(long nanos) {
+		this.eeprom_write_nanos = nanos;
+	}
+
+	/**
+	 * Removes every latency, commands only cost their processing
+	 */
+	public synchronized void setZeroLatency() {
+		setLatency(0);
+		byte_nanos = 0;
+		eeprom_write_nanos = 0;
+	}
+
+	/**
+	 * Sleeps the latency of every command when set, the default. Otherwise
+	 * the latency is only added to {@link #getElapsedNanos()}
+	 */
+	public synchronized void setSleep(boolean sleep) {
+		this.sleep = sleep;
+	}
+
+	/**
+	 * Returns the modelled time on air of all commands
+	 */
+	public synchronized long getElapsedNanos() {
+		return elapsed_nanos;
+	}
+
+	public synchronized long getCommandCount() {
+		return commands;
+	}
+
+	public synchronized long getNakCount() {
+		return naks;
+	}
+
+	public synchronized long getBytesSent() {
+		return bytes_sent;
+	}
+
+	public synchronized long getBytesReceived() {
+		return bytes_received;
+	}
+
+	public synchronized void resetStats() {
+		elapsed_nanos = 0;
+		commands = 0;
+		naks = 0;
+		bytes_sent = 0;
+		bytes_received = 0;
+	}
+}
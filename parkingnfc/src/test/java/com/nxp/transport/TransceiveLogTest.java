@@ -0,0 +1,126 @@
+package com.nxp.transport;
+
+import com.nxp.reader.I2C_Enabled_Commands;
+import com.nxp.reader.Ntag_Get_Version.Prod;
+import com.nxp.transport.TransceiveLog.Event;
+import com.nxp.transport.TransceiveLog.Type;
+import com.nxp.transport.TransceiveReplay.Timing;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import ar.com.exo.parkingnfc.transfer.FileTransfer;
+import ar.com.exo.parkingnfc.transfer.SimulatedSensor;
+import ar.com.exo.parkingnfc.transfer.TransferSource;
+
+import static org.junit.Assert.*;
+
+/**
+ * Captures of a model Tag through {@link RecordingTransport}, read back by
+ * {@link TransceiveLog} and played by {@link TransceiveReplay}
+ */
+public class TransceiveLogTest {
+
+	private static final byte[] PWD_AUTH = { 0x1B, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF };
+
+	private static List<Event> read(ByteArrayOutputStream out) throws Exception {
+		return TransceiveLog.read(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	@Test
+	public void replaysARecordedTransfer() throws Exception {
+		byte[] file = new byte[2000];
+		new Random(19).nextBytes(file);
+
+		Ntag_I2C_Model tag = new Ntag_I2C_Model(Prod.NTAG_I2C_1k_Plus);
+		tag.setZeroLatency();
+		SimulatedSensor sensor = new SimulatedSensor();
+		tag.setHost(sensor, 0);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TransceiveLog.Writer log = new TransceiveLog.Writer(out);
+		I2C_Enabled_Commands channel = I2C_Enabled_Commands.get(new RecordingTransport(tag, log, 0),
+				new RecordingTransport(tag, log, 1));
+		channel.connect();
+		new FileTransfer(channel).send(TransferSource.of(file), null);
+		channel.close();
+		log.close();
+		assertTrue(sensor.isComplete());
+
+		List<Event> events = read(out);
+		assertEquals(log.getRecordCount(), events.size());
+
+		TransceiveReplay replay = new TransceiveReplay(events, Timing.ZERO);
+		channel = I2C_Enabled_Commands.get(replay.getTransport(0), replay.getTransport(1));
+		channel.connect();
+		new FileTransfer(channel).send(TransferSource.of(file), null);
+		channel.close();
+
+		assertEquals(0, replay.getMissedCount());
+		assertTrue(replay.getReplayedCount() > 0);
+	}
+
+	@Test
+	public void readsRecordsBackAndDropsATruncatedOne() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TransceiveLog.Writer log = new TransceiveLog.Writer(out);
+		long start = System.nanoTime();
+		log.write(0, Type.TRANSCEIVE, start, 1000, new byte[] { 0x30, 0x04 }, new byte[16], null);
+		log.write(1, Type.WRITE_PAGE, start + 5000, 2000, new byte[] { 0x04, 1, 2, 3, 4 }, null, "Tag was lost");
+		log.write(0, Type.SET_TIMEOUT, start + 9000, 0, TransceiveLog.intBytes(300), new byte[0], null);
+		log.close();
+
+		List<Event> events = read(out);
+		assertEquals(3, events.size());
+
+		Event first = events.get(0);
+		assertEquals(0, first.channel);
+		assertEquals(Type.TRANSCEIVE, first.type);
+		assertEquals(1000, first.durationNanos);
+		assertArrayEquals(new byte[] { 0x30, 0x04 }, first.request);
+		assertArrayEquals(new byte[16], first.response);
+
+		Event second = events.get(1);
+		assertEquals(1, second.channel);
+		assertEquals(Type.WRITE_PAGE, second.type);
+		assertEquals(5000, second.startNanos - first.startNanos);
+		assertTrue(second.isFailed());
+		assertEquals("Tag was lost", second.error);
+		assertNull(second.response);
+
+		assertEquals(300, TransceiveLog.toInt(events.get(2).request));
+
+		// a crash while capturing cuts the last record short
+		byte[] bytes = out.toByteArray();
+		List<Event> truncated = TransceiveLog.read(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1)));
+		assertEquals(2, truncated.size());
+	}
+
+	@Test
+	public void recordsPasswordsRedacted() throws Exception {
+		Ntag_I2C_Model tag = new Ntag_I2C_Model(Prod.NTAG_I2C_1k_Plus);
+		tag.setZeroLatency();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TransceiveLog.Writer log = new TransceiveLog.Writer(out);
+		RecordingTransport recording = new RecordingTransport(tag, log, 0);
+		recording.connect();
+		byte[] pack = recording.transceive(PWD_AUTH);
+		recording.writePage(0xE5, new byte[] { 1, 2, 3, 4 });
+		log.close();
+
+		List<Event> events = read(out);
+		assertArrayEquals(new byte[] { 0x1B, 0, 0, 0, 0 }, events.get(1).request);
+		assertArrayEquals(new byte[] { (byte) 0xE5, 0, 0, 0, 0 }, events.get(2).request);
+
+		// the replay matches the PWD_AUTH whatever the password
+		TagTransport replay = new TransceiveReplay(events, Timing.ZERO).getTransport(0);
+		replay.connect();
+		assertArrayEquals(pack, replay.transceive(new byte[] { 0x1B, 0x12, 0x34, 0x56, 0x78 }));
+	}
+}